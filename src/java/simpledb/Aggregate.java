@@ -1,16 +1,42 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). It can compute several aggregates, grouped by any number of columns,
+ * in a single pass over its child; each result tuple holds the group-by
+ * values followed by the aggregate values.
+ * <p>
+ * Groups are aggregated in memory up to a memory budget. Once the groups
+ * held would exceed it, tuples of the groups already in memory are still
+ * merged there, but tuples of new groups are split into {@link #PARTITIONS}
+ * spill files by the hash of their group. Every group thus lives either in
+ * memory or in exactly one spill file. The groups in memory are returned
+ * first, then each spill file is aggregated on its own the same way, using
+ * the next bits of the hash if it spills again. The results are the same as
+ * if all groups fit in memory, only in a different order.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the groups, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 4L << 20;
+
+    /** Number of partitions new groups are split into when they spill. */
+    public static final int PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
+    // rough size of a group's running aggregate and hash table entries,
+    // besides its group-by value
+    private static final int GROUP_OVERHEAD_BYTES = 48;
+
     private OpIterator child;
+    private int[] afields;
+    private int[] gfields;
+    private Aggregator.Op[] aops;
+    // the first aggregate and group-by field, for single-aggregate callers
     private int afield;
     private int gfield;
     private Aggregator.Op aop;
@@ -19,7 +45,15 @@ public class Aggregate extends Operator {
     private Aggregator aggregator;
     private TupleDesc tupleDesc;
     private Type gbFieldType;
+    private final long memoryBytes;
+    private final int maxGroups;
 
+    // spill files of groups that didn't fit in memory and are still to be
+    // aggregated, with the number of times their tuples have been split
+    private ArrayDeque<SpillFile> pendingSpills;
+    private ArrayDeque<Integer> pendingLevels;
+    private boolean spilled;
+    private long spillBytes;
 
     /**
      * Constructor.
@@ -41,30 +75,140 @@ public class Aggregate extends Operator {
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
 	// some code goes here
+        this(child, afield, gfield, aop, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor with a memory budget for the groups.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @param memoryBytes
+     *            roughly how many bytes of groups to hold in memory before
+     *            spilling new groups to disk
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop,
+            long memoryBytes) {
+        this(child, new int[] { afield },
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+                new Aggregator.Op[] { aop }, memoryBytes);
+    }
+
+    /**
+     * Constructor for several aggregates over any number of group-by
+     * columns.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each of afields
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for several aggregates over any number of group-by
+     * columns, with a memory budget for the groups.
+     *
+     * @param child
+     *            The OpIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty if
+     *            there is no grouping
+     * @param aops
+     *            The aggregation operator to use for each of afields
+     * @param memoryBytes
+     *            roughly how many bytes of groups to hold in memory before
+     *            spilling new groups to disk
+     * @throws IllegalArgumentException if there isn't one operator for each
+     *             of at least one aggregate
+     */
+    public Aggregate(OpIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+            long memoryBytes) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("need one operator for each of at least one aggregate");
+        }
+        this.memoryBytes = memoryBytes;
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
+        this.afields = afields.clone();
+        this.gfields = gfields.clone();
+        this.aops = aops.clone();
+        this.afield = afields[0];
+        this.gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        this.aop = aops[0];
         this.aggregateIterator = null;
         this.childTupleDesc = this.child.getTupleDesc();
 
-        if (this.gfield != -1) {
-            // if there is a gfield then we get the child field type, and it's tupleDesc.
-            this.gbFieldType = child.getTupleDesc().getFieldType(gfield);
-            this.tupleDesc = new TupleDesc(new Type[]{gbFieldType, Type.INT_TYPE},
-                    new String[]{child.getTupleDesc().getFieldName(gfield),
-                            child.getTupleDesc().getFieldName(afield)});
-        } else {
-            // otherwise we don't have a field type
-            this.gbFieldType = null;
-            this.tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE});
+        // the group-by fields, then an int for each aggregate
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        long groupBytes = GROUP_OVERHEAD_BYTES + 8 * afields.length;
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTupleDesc.getFieldType(gfields[i]);
+            names[i] = childTupleDesc.getFieldName(gfields[i]);
+            groupBytes += types[i].getLen();
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = Type.INT_TYPE;
+            // without grouping, a single aggregate's column is unnamed
+            names[gfields.length + i] = gfields.length == 0 && afields.length == 1
+                    ? null : childTupleDesc.getFieldName(afields[i]);
+        }
+        this.gbFieldType = gfields.length == 0 ? null : types[0];
+        this.tupleDesc = new TupleDesc(types, names);
+        this.aggregator = newAggregator();
+        this.maxGroups = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBytes / groupBytes));
+    }
+
+    /** @return the memory budget for the groups, in bytes */
+    public long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    /** @return true if some groups didn't fit in memory and were spilled */
+    public boolean isSpilling() {
+        return spilled;
+    }
+
+    /** @return the number of bytes written to spill files so far */
+    public long getSpillBytes() {
+        return spillBytes;
+    }
+
+    private Aggregator newAggregator() {
+        if (afields.length > 1 || gfields.length > 1) {
+            // several aggregates or group-by fields share one group table
+            Type[] gtypes = new Type[gfields.length];
+            for (int i = 0; i < gfields.length; i++) {
+                gtypes[i] = childTupleDesc.getFieldType(gfields[i]);
+            }
+            Type[] atypes = new Type[afields.length];
+            for (int i = 0; i < afields.length; i++) {
+                atypes[i] = childTupleDesc.getFieldType(afields[i]);
+            }
+            return new MultiAggregator(gfields, gtypes, afields, atypes, aops);
         }
         if (child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE) {
             // uses the integerAggregator if the type is Integer.
-            this.aggregator = new IntegerAggregator(gfield, gbFieldType, afield, aop);
+            return new IntegerAggregator(gfield, gbFieldType, afield, aop);
         } else {
             // uses the StringAggregator if the type is String.
-            this.aggregator = new StringAggregator(gfield, gbFieldType, afield, aop);
+            return new StringAggregator(gfield, gbFieldType, afield, aop);
         }
     }
 
@@ -91,6 +235,27 @@ public class Aggregate extends Operator {
         return this.tupleDesc.getFieldName(0);
     }
 
+    /**
+     * @return the group-by field indexes in the <b>INPUT</b> tuples, in the
+     *         order they appear in the output; empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the aggregate field indexes in the <b>INPUT</b> tuples, in the
+     *         order their aggregates appear in the output
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /** @return the aggregate operator of each of {@link #aggregateFields} */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
     /**
      * @return the aggregate field
      * */
@@ -105,7 +270,7 @@ public class Aggregate extends Operator {
      * */
     public String aggregateFieldName() {
 	// some code goes here
-	return tupleDesc.getFieldName(1);
+	return tupleDesc.getFieldName(gfields.length);
     }
 
     /**
@@ -124,13 +289,146 @@ public class Aggregate extends Operator {
 	    TransactionAbortedException {
 	// some code goes here
         this.child.open();
-        while (this.child.hasNext()) {
-            // use the aggregator to merge the child tuples to the group
-            this.aggregator.mergeTupleIntoGroup(this.child.next());
-        }
         super.open();
+        start();
+    }
+
+    // aggregates the child's tuples from the start; the groups that fit in
+    // memory are ready to be returned afterwards
+    private void start() throws DbException, TransactionAbortedException {
+        deleteSpills();
+        pendingSpills = new ArrayDeque<SpillFile>();
+        pendingLevels = new ArrayDeque<Integer>();
+        spilled = false;
+        spillBytes = 0;
+        // start over, so that reopening doesn't count the input twice
+        this.aggregator = newAggregator();
+        SpillFile[] spills = null;
+        boolean done = false;
+        try {
+            while (this.child.hasNext()) {
+                // use the aggregator to merge the child tuples to the group
+                spills = merge(this.child.next(), spills, 0);
+            }
+            finishSpills(spills, 0);
+            done = true;
+        } finally {
+            if (!done) {
+                SpillFile.deleteAll(spills);
+                deleteSpills();
+            }
+        }
+        this.aggregateIterator = aggregator.iterator();
+        this.aggregateIterator.open();
+    }
+
+    // merges a tuple into the current aggregator if its group is there or
+    // there is room for it, and otherwise adds it to the spill file of its
+    // partition, creating the spill files if needed; returns the spill files
+    private SpillFile[] merge(Tuple t, SpillFile[] spills, int level) throws DbException {
+        if (spills == null) {
+            aggregator.mergeTupleIntoGroup(t);
+            if (aggregator.numGroups() <= maxGroups || gfields.length == 0
+                    || (level + 1) * PARTITION_BITS > 32) {
+                return null;
+            }
+            // this group went over the budget, but it is in memory now
+            spills = new SpillFile[PARTITIONS];
+            try {
+                for (int i = 0; i < PARTITIONS; i++) {
+                    spills[i] = new SpillFile(childTupleDesc);
+                }
+            } catch (IOException e) {
+                SpillFile.deleteAll(spills);
+                throw new DbException("can't spill aggregate input: " + e.getMessage());
+            }
+            spilled = true;
+            return spills;
+        }
+        if (aggregator.hasGroup(t)) {
+            aggregator.mergeTupleIntoGroup(t);
+        } else {
+            try {
+                spills[partitionOf(t, level)].add(t);
+            } catch (IOException e) {
+                throw new DbException("can't spill aggregate input: " + e.getMessage());
+            }
+        }
+        return spills;
+    }
+
+    // the partition of a tuple's group once its tuples have been split level
+    // times before; each level uses the next bits of the hash
+    private int partitionOf(Tuple t, int level) {
+        int h = 0;
+        for (int f : gfields) {
+            h = 31 * h + t.getField(f).hashCode();
+        }
+        h *= 0x9E3779B9;
+        return (h >>> (32 - PARTITION_BITS * (level + 1))) & (PARTITIONS - 1);
+    }
+
+    // queues the non-empty spill files to be aggregated later
+    private void finishSpills(SpillFile[] spills, int level) throws DbException {
+        if (spills == null) {
+            return;
+        }
+        try {
+            for (SpillFile f : spills) {
+                f.finish();
+                spillBytes += f.getBytes();
+                if (f.getNumTuples() == 0) {
+                    f.delete();
+                } else {
+                    pendingSpills.add(f);
+                    pendingLevels.add(level + 1);
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("can't spill aggregate input: " + e.getMessage());
+        }
+    }
+
+    // aggregates the next spill file into a fresh aggregator; returns false
+    // if there are none left
+    private boolean aggregateNextSpill() throws DbException, TransactionAbortedException {
+        SpillFile file = pendingSpills.poll();
+        if (file == null) {
+            return false;
+        }
+        int level = pendingLevels.poll();
+        this.aggregateIterator.close();
+        this.aggregator = newAggregator();
+        SpillFile[] spills = null;
+        boolean done = false;
+        try {
+            DbFileIterator it = file.iterator();
+            it.open();
+            while (it.hasNext()) {
+                spills = merge(it.next(), spills, level);
+            }
+            it.close();
+            finishSpills(spills, level);
+            done = true;
+        } finally {
+            file.delete();
+            if (!done) {
+                SpillFile.deleteAll(spills);
+            }
+        }
         this.aggregateIterator = aggregator.iterator();
         this.aggregateIterator.open();
+        return true;
+    }
+
+    private void deleteSpills() {
+        if (pendingSpills != null) {
+            for (SpillFile f : pendingSpills) {
+                f.delete();
+            }
+            pendingSpills.clear();
+            pendingLevels.clear();
+        }
     }
 
     /**
@@ -138,27 +436,41 @@ public class Aggregate extends Operator {
      * field is the field by which we are grouping, and the second field is the
      * result of computing the aggregate. If there is no group by field, then
      * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * aggregate. Should return null if there are no more tuples. With several
+     * group by or aggregate fields, all group by values come first, followed
+     * by all aggregate values.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
 	// some code goes here
-        if (!(aggregateIterator.hasNext())) {
-            return null;
+        while (!(aggregateIterator.hasNext())) {
+            if (!aggregateNextSpill()) {
+                return null;
+            }
         }
         return aggregateIterator.next();
     }
 
+    /**
+     * Rewinds the results. If groups were spilled, the spill files are gone
+     * by now, so the child's tuples are aggregated again.
+     */
     public void rewind() throws DbException, TransactionAbortedException {
 	// some code goes here
-        this.aggregateIterator.rewind();
         this.child.rewind();
+        if (spilled) {
+            this.aggregateIterator.close();
+            start();
+        } else {
+            this.aggregateIterator.rewind();
+        }
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
      * this will have one field - the aggregate column. If there is a group by
      * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * the aggregate value column. With several of either, the group by fields
+     * come first, followed by the aggregate value columns.
      *
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -173,8 +485,11 @@ public class Aggregate extends Operator {
     public void close() {
 	// some code goes here
         super.close();
-        this.aggregateIterator.close();
+        if (this.aggregateIterator != null) {
+            this.aggregateIterator.close();
+        }
         this.child.close();
+        deleteSpills();
     }
 
     @Override
@@ -81,5 +81,16 @@ public interface Aggregator extends Serializable {
      * @see simpledb.TupleIterator for a possible helper
      */
     public OpIterator iterator();
+
+    /**
+     * @return the number of distinct groups merged so far
+     */
+    public int numGroups();
+
+    /**
+     * @param tup a Tuple containing a group-by field
+     * @return true if the group of the given tuple has been merged already
+     */
+    public boolean hasGroup(Tuple tup);
     
 }
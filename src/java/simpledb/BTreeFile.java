@@ -0,0 +1,486 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one int or string field of a HeapFile. Its
+ * entries map each key to the page number and slot of a tuple with that key,
+ * and are kept in key order in a chain of {@link BTreeLeafPage}s below a
+ * tree of {@link BTreeInternalPage}s. Page 0 is a {@link BTreeRootPtrPage}
+ * that says which page is the root.
+ * <p>
+ * Pages are read and written through the BufferPool and locked like heap
+ * pages. Inserts and deletes lock the root pointer page for writing, so one
+ * transaction at a time modifies an index. A full page splits in two and
+ * adds a separator to its parent, and a new root is added above a root that
+ * splits. Deletes only remove the entry from its leaf: pages are never
+ * merged or freed, and scans skip leaves that became empty.
+ */
+public class BTreeFile implements IndexFile {
+
+    private final File f;
+    private final int id;
+    private final int tableid;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+
+    /**
+     * Opens the index stored in the given file, writing an empty tree to it
+     * if the file is empty.
+     *
+     * @param f the file that stores the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     * @throws IOException if an empty tree can't be written
+     */
+    public BTreeFile(File f, DbFile table, int keyField) throws IOException {
+        this.f = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tableid = table.getId();
+        this.keyField = keyField;
+        TupleDesc tableTd = table.getTupleDesc();
+        this.keyType = tableTd.getFieldType(keyField);
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { tableTd.getFieldName(keyField), "page", "slot" });
+        if (f.length() == 0) {
+            BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(new BTreePageId(id, 0),
+                    BTreePage.createEmptyPageData(BTreePage.ROOT_PTR));
+            rootPtr.setRootPageNo(1);
+            writePage(rootPtr);
+            writePageData(1, BTreePage.createEmptyPageData(BTreePage.LEAF));
+        }
+    }
+
+    /**
+     * Builds an index on a field of a table from the table's current
+     * contents, replacing whatever the file held before. The entries are
+     * sorted in memory and packed into full leaves, and the internal pages
+     * are then built bottom up; the pages are written straight to the file.
+     *
+     * @param f the file to store the index in
+     * @param table the table to index
+     * @param keyField the index of the field to index in the table's TupleDesc
+     * @param tid the transaction scanning the table
+     * @return the new index
+     */
+    public static BTreeFile create(File f, HeapFile table, int keyField, TransactionId tid)
+            throws IOException, DbException, TransactionAbortedException {
+        Type keyType = table.getTupleDesc().getFieldType(keyField);
+        ArrayList<Entry> entries = new ArrayList<Entry>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            RecordId rid = t.getRecordId();
+            entries.add(new Entry(t.getField(keyField), rid.getPageId().getPageNumber(),
+                    rid.getTupleNumber()));
+        }
+        it.close();
+        Collections.sort(entries);
+
+        int fileId = f.getAbsoluteFile().hashCode();
+        int oldPages = (int) (f.length() / BufferPool.getPageSize());
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0);
+        }
+        for (int i = 0; i < oldPages; i++) {
+            // cached pages of the file's old contents are stale now
+            Database.getBufferPool().discardPage(new BTreePageId(fileId, i));
+        }
+        BTreeFile index = new BTreeFile(f, table, keyField);
+
+        // the leaves, from page 1 on; each level remembers the first entry
+        // under each of its pages
+        int perLeaf = BTreeLeafPage.maxEntries(keyType);
+        int numLeaves = Math.max(1, (entries.size() + perLeaf - 1) / perLeaf);
+        ArrayList<Integer> level = new ArrayList<Integer>();
+        ArrayList<Entry> firsts = new ArrayList<Entry>();
+        int pageNo = 1;
+        for (int i = 0; i < numLeaves; i++, pageNo++) {
+            BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(fileId, pageNo),
+                    BTreePage.createEmptyPageData(BTreePage.LEAF), keyType);
+            List<Entry> chunk = entries.subList(Math.min(entries.size(), i * perLeaf),
+                    Math.min(entries.size(), (i + 1) * perLeaf));
+            for (Entry e : chunk) {
+                leaf.insertEntry(e.key, e.pageNo, e.slot);
+            }
+            leaf.setRightSibling(i + 1 < numLeaves ? pageNo + 1 : 0);
+            index.writePage(leaf);
+            level.add(pageNo);
+            firsts.add(chunk.isEmpty() ? null : chunk.get(0));
+        }
+
+        int perInternal = BTreeInternalPage.maxKeys(keyType) + 1;
+        while (level.size() > 1) {
+            ArrayList<Integer> parents = new ArrayList<Integer>();
+            ArrayList<Entry> parentFirsts = new ArrayList<Entry>();
+            for (int start = 0; start < level.size(); start += perInternal, pageNo++) {
+                BTreeInternalPage page = internalPage(fileId, pageNo, keyType, level.get(start));
+                int end = Math.min(level.size(), start + perInternal);
+                for (int c = start + 1; c < end; c++) {
+                    Entry sep = firsts.get(c);
+                    page.insertSeparator(c - start - 1, sep.key, sep.pageNo, sep.slot, level.get(c));
+                }
+                index.writePage(page);
+                parents.add(pageNo);
+                parentFirsts.add(firsts.get(start));
+            }
+            level = parents;
+            firsts = parentFirsts;
+        }
+
+        BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(new BTreePageId(fileId, 0),
+                BTreePage.createEmptyPageData(BTreePage.ROOT_PTR));
+        rootPtr.setRootPageNo(level.get(0));
+        index.writePage(rootPtr);
+        return index;
+    }
+
+    // an internal page with a first child and no separators yet
+    private static BTreeInternalPage internalPage(int fileId, int pageNo, Type keyType, int child) {
+        byte[] data = BTreePage.createEmptyPageData(BTreePage.INTERNAL);
+        java.nio.ByteBuffer.wrap(data).putInt(5, child);
+        return new BTreeInternalPage(new BTreePageId(fileId, pageNo), data, keyType);
+    }
+
+    /**
+     * Opens the index in the given file if it is at least as recent as the
+     * table's file, and otherwise builds it anew from the table.
+     *
+     * @param f the file of the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     * @return the index
+     */
+    public static BTreeFile load(File f, HeapFile table, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        if (f.length() > 0 && f.lastModified() >= table.getFile().lastModified()) {
+            return new BTreeFile(f, table, keyField);
+        }
+        TransactionId tid = new TransactionId();
+        BTreeFile index = create(f, table, keyField, tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    // an index entry while the index is being built
+    private static class Entry implements Comparable<Entry> {
+        final Field key;
+        final int pageNo;
+        final int slot;
+
+        Entry(Field key, int pageNo, int slot) {
+            this.key = key;
+            this.pageNo = pageNo;
+            this.slot = slot;
+        }
+
+        public int compareTo(Entry o) {
+            return BTreePage.compareEntries(key, pageNo, slot, o.key, o.pageNo, o.slot);
+        }
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the TupleDesc of the entries: the key, and the page number and
+     *         slot of the tuple
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the keys */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** Range scans serve every comparison except LIKE and NOT_EQUALS. */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /** @return the number of pages in this file */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        if (pid.getPageNumber() < 0 || pid.getPageNumber() >= numPages()) {
+            throw new IllegalArgumentException("page " + pid.getPageNumber() + " is not in the index");
+        }
+        byte[] data = new byte[pageSize];
+        synchronized (this) {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                raf.seek((long) pid.getPageNumber() * pageSize);
+                raf.readFully(data);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("can't read page " + pid.getPageNumber()
+                        + " of the index: " + e.getMessage());
+            }
+        }
+        return BTreePage.create((BTreePageId) pid, data, keyType);
+    }
+
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    private synchronized void writePageData(int pageNo, byte[] data) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) pageNo * BufferPool.getPageSize());
+            raf.write(data);
+        }
+    }
+
+    // adds an empty page of the given category at the end of the file and
+    // returns its page number
+    private synchronized int allocatePage(int category) throws IOException {
+        int pageNo = numPages();
+        writePageData(pageNo, BTreePage.createEmptyPageData(category));
+        return pageNo;
+    }
+
+    private BTreePage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (BTreePage) Database.getBufferPool().getPage(tid, new BTreePageId(id, pageNo), perm);
+    }
+
+    // the leaf that holds or would hold the given entry; fills path with the
+    // internal pages above it and childIndexes with the child taken in each
+    private BTreeLeafPage findLeaf(TransactionId tid, BTreeRootPtrPage rootPtr, Field key,
+            int pageNo, int slot, List<BTreeInternalPage> path, List<Integer> childIndexes)
+            throws DbException, TransactionAbortedException {
+        BTreePage page = getPage(tid, rootPtr.getRootPageNo(), Permissions.READ_WRITE);
+        while (page instanceof BTreeInternalPage) {
+            BTreeInternalPage internal = (BTreeInternalPage) page;
+            int child = internal.childForEntry(key, pageNo, slot);
+            path.add(internal);
+            childIndexes.add(child);
+            page = getPage(tid, internal.getChild(child), Permissions.READ_WRITE);
+        }
+        return (BTreeLeafPage) page;
+    }
+
+    // adds an entry, splitting pages up the path as needed
+    private ArrayList<Page> insert(TransactionId tid, Field key, int pageNo, int slot)
+            throws DbException, IOException, TransactionAbortedException {
+        if (key.getType() != keyType) {
+            throw new DbException("key " + key + " is not of type " + keyType);
+        }
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0, Permissions.READ_WRITE);
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        ArrayList<Integer> childIndexes = new ArrayList<Integer>();
+        BTreeLeafPage leaf = findLeaf(tid, rootPtr, key, pageNo, slot, path, childIndexes);
+        leaf.insertEntry(key, pageNo, slot);
+        dirty.add(leaf);
+        if (!leaf.isOverfull()) {
+            return dirty;
+        }
+
+        BTreeLeafPage rightLeaf = (BTreeLeafPage) getPage(tid, allocatePage(BTreePage.LEAF),
+                Permissions.READ_WRITE);
+        leaf.splitInto(rightLeaf);
+        dirty.add(rightLeaf);
+        // the separator between the halves is the first entry on the right
+        Field sepKey = rightLeaf.getKey(0);
+        int sepPage = rightLeaf.getEntryPage(0);
+        int sepSlot = rightLeaf.getEntrySlot(0);
+        int left = leaf.getId().getPageNumber();
+        int right = rightLeaf.getId().getPageNumber();
+        for (int level = path.size() - 1; level >= 0; level--) {
+            BTreeInternalPage parent = path.get(level);
+            parent.insertSeparator(childIndexes.get(level), sepKey, sepPage, sepSlot, right);
+            dirty.add(parent);
+            if (!parent.isOverfull()) {
+                return dirty;
+            }
+            BTreeInternalPage rightParent = (BTreeInternalPage) getPage(tid,
+                    allocatePage(BTreePage.INTERNAL), Permissions.READ_WRITE);
+            int mid = parent.splitInto(rightParent);
+            dirty.add(rightParent);
+            sepKey = parent.getKey(mid);
+            sepPage = parent.getKeyPage(mid);
+            sepSlot = parent.getKeySlot(mid);
+            left = parent.getId().getPageNumber();
+            right = rightParent.getId().getPageNumber();
+        }
+
+        // the root split: a new root goes above its halves
+        BTreeInternalPage root = (BTreeInternalPage) getPage(tid,
+                allocatePage(BTreePage.INTERNAL), Permissions.READ_WRITE);
+        root.setRoot(left, sepKey, sepPage, sepSlot, right);
+        rootPtr.setRootPageNo(root.getId().getPageNumber());
+        dirty.add(root);
+        dirty.add(rootPtr);
+        return dirty;
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Field key, int pageNo, int slot)
+            throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0, Permissions.READ_WRITE);
+        BTreeLeafPage leaf = findLeaf(tid, rootPtr, key, pageNo, slot,
+                new ArrayList<BTreeInternalPage>(), new ArrayList<Integer>());
+        if (!leaf.deleteEntry(key, pageNo, slot)) {
+            throw new DbException("the index has no entry " + key + " for page " + pageNo
+                    + ", slot " + slot);
+        }
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        dirty.add(leaf);
+        return dirty;
+    }
+
+    /**
+     * Inserts an entry, given as a tuple of this file's TupleDesc.
+     *
+     * @see #insertEntry
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insert(tid, t.getField(0), ((IntField) t.getField(1)).getValue(),
+                ((IntField) t.getField(2)).getValue());
+    }
+
+    /**
+     * Deletes an entry, given as a tuple of this file's TupleDesc.
+     *
+     * @see #deleteEntry
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return delete(tid, t.getField(0), ((IntField) t.getField(1)).getValue(),
+                ((IntField) t.getField(2)).getValue());
+    }
+
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return insert(tid, t.getField(keyField), rid.getPageId().getPageNumber(),
+                rid.getTupleNumber());
+    }
+
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return delete(tid, t.getField(keyField), rid.getPageId().getPageNumber(),
+                rid.getTupleNumber());
+    }
+
+    /** @return an iterator over all entries, in key order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null, null);
+    }
+
+    /**
+     * Returns the entries whose key satisfies a comparison with a value, in
+     * key order. Lookups with =, &gt; or &gt;= start at the first leaf that
+     * can hold a matching key, and lookups with =, &lt; or &lt;= stop at the
+     * first key past the range; other operators scan the whole index.
+     *
+     * @param tid the transaction reading the index
+     * @param op the comparison
+     * @param operand the value to compare the keys with
+     */
+    public DbFileIterator entryIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new EntryIterator(tid, op, operand);
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, Predicate p) {
+        return new IndexTupleIterator(tid, tableid, entryIterator(tid, p.getOp(), p.getOperand()));
+    }
+
+    // walks the leaves from the first one that can hold a match
+    private class EntryIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private BTreeLeafPage leaf;
+        private int pos;
+
+        EntryIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            boolean seek = op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                    || op == Predicate.Op.GREATER_THAN_OR_EQ;
+            BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) getPage(tid, 0, Permissions.READ_ONLY);
+            BTreePage page = getPage(tid, rootPtr.getRootPageNo(), Permissions.READ_ONLY);
+            while (page instanceof BTreeInternalPage) {
+                BTreeInternalPage internal = (BTreeInternalPage) page;
+                int child = seek ? internal.childForKey(operand) : 0;
+                page = getPage(tid, internal.getChild(child), Permissions.READ_ONLY);
+            }
+            leaf = (BTreeLeafPage) page;
+            pos = seek ? leaf.findKey(operand) : 0;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            leaf = null;
+        }
+
+        // true if no key from this one on can match
+        private boolean pastRange(Field key) {
+            if (op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN_OR_EQ) {
+                return BTreePage.compareKeys(key, operand) > 0;
+            }
+            if (op == Predicate.Op.LESS_THAN) {
+                return BTreePage.compareKeys(key, operand) >= 0;
+            }
+            return false;
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (leaf != null) {
+                if (pos >= leaf.getNumEntries()) {
+                    int next = leaf.getRightSibling();
+                    leaf = next == 0 ? null
+                            : (BTreeLeafPage) getPage(tid, next, Permissions.READ_ONLY);
+                    pos = 0;
+                    continue;
+                }
+                Field key = leaf.getKey(pos);
+                if (op != null && pastRange(key)) {
+                    leaf = null;
+                    return null;
+                }
+                int i = pos++;
+                if (op == null || key.compare(op, operand)) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, key);
+                    t.setField(1, new IntField(leaf.getEntryPage(i)));
+                    t.setField(2, new IntField(leaf.getEntrySlot(i)));
+                    return t;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeInternalPage holds n separators and n + 1 child page numbers. Child
+ * i holds the entries from separator i - 1 (inclusive) up to separator i
+ * (exclusive); the first child has no lower bound and the last no upper
+ * bound. A separator is a whole entry, key and tuple location, so that
+ * entries with the same key can be split across children.
+ * <p>
+ * The page is the category byte, the number of separators, the first child
+ * and then, per separator, its key, its page number and slot, and the child
+ * to its right.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 9;
+
+    private final int capacity;
+    private int numKeys;
+    // one spare separator so that a full page can take the one that splits it
+    private final Field[] keys;
+    private final int[] keyPages;
+    private final int[] keySlots;
+    private final int[] children;
+
+    /**
+     * Creates an internal page from its bytes; used by recovery.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) {
+        this(id, data, keyTypeOf(id.getTableId()));
+    }
+
+    /**
+     * Creates an internal page from its bytes.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     * @param keyType the type of the keys
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data, Type keyType) {
+        super(id, keyType);
+        this.capacity = maxKeys(keyType);
+        this.keys = new Field[capacity + 1];
+        this.keyPages = new int[capacity + 1];
+        this.keySlots = new int[capacity + 1];
+        this.children = new int[capacity + 2];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.numKeys = buf.getInt(1);
+        children[0] = buf.getInt(5);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < numKeys; i++) {
+            keys[i] = readKey(buf, offset);
+            offset += keyType.getLen();
+            keyPages[i] = buf.getInt(offset);
+            keySlots[i] = buf.getInt(offset + 4);
+            children[i + 1] = buf.getInt(offset + 8);
+            offset += 12;
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of separators that fit on a page with the given key type */
+    public static int maxKeys(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 12);
+    }
+
+    public int getNumKeys() {
+        return numKeys;
+    }
+
+    /** @return true if the page holds more separators than fit on disk and must split */
+    public boolean isOverfull() {
+        return numKeys > capacity;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the page number of the i-th child, 0 &lt;= i &lt;= getNumKeys() */
+    public int getChild(int i) {
+        return children[i];
+    }
+
+    /** @return the index of the child that holds the given entry */
+    public int childForEntry(Field key, int pageNo, int slot) {
+        int lo = 0;
+        int hi = numKeys;
+        // count the separators not after the entry
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntries(keys[mid], keyPages[mid], keySlots[mid], key, pageNo, slot) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the index of the child that holds the first entry whose key is
+     *         not below the given key, if there is one in that child
+     */
+    public int childForKey(Field key) {
+        int lo = 0;
+        int hi = numKeys;
+        // count the separators with a smaller key
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKeys(keys[mid], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Makes this page the root above two pages.
+     *
+     * @param left the page number of the child below the separator
+     * @param key the separator's key
+     * @param pageNo the separator's tuple page number
+     * @param slot the separator's tuple slot
+     * @param right the page number of the child from the separator up
+     */
+    public void setRoot(int left, Field key, int pageNo, int slot, int right) {
+        numKeys = 0;
+        children[0] = left;
+        insertSeparator(0, key, pageNo, slot, right);
+    }
+
+    /**
+     * Inserts a separator to the right of a child, with the page that child
+     * was split into after it; the page may become overfull.
+     *
+     * @param child the index of the child that was split
+     * @param key the separator's key
+     * @param pageNo the separator's tuple page number
+     * @param slot the separator's tuple slot
+     * @param right the page number of the new right half of the child
+     */
+    public void insertSeparator(int child, Field key, int pageNo, int slot, int right) {
+        int moved = numKeys - child;
+        System.arraycopy(keys, child, keys, child + 1, moved);
+        System.arraycopy(keyPages, child, keyPages, child + 1, moved);
+        System.arraycopy(keySlots, child, keySlots, child + 1, moved);
+        System.arraycopy(children, child + 1, children, child + 2, moved);
+        keys[child] = key;
+        keyPages[child] = pageNo;
+        keySlots[child] = slot;
+        children[child + 1] = right;
+        numKeys++;
+    }
+
+    /**
+     * Moves the separators and children above the middle separator to an
+     * empty page. The middle separator leaves both pages and moves up to the
+     * parent.
+     *
+     * @param right an empty internal page
+     * @return the index of the middle separator, which can still be read
+     *         with {@link #getKey}, {@link #getKeyPage} and
+     *         {@link #getKeySlot} until this page changes again
+     */
+    public int splitInto(BTreeInternalPage right) {
+        int mid = numKeys / 2;
+        int moved = numKeys - mid - 1;
+        System.arraycopy(keys, mid + 1, right.keys, 0, moved);
+        System.arraycopy(keyPages, mid + 1, right.keyPages, 0, moved);
+        System.arraycopy(keySlots, mid + 1, right.keySlots, 0, moved);
+        System.arraycopy(children, mid + 1, right.children, 0, moved + 1);
+        right.numKeys = moved;
+        numKeys = mid;
+        return mid;
+    }
+
+    /** @return the tuple page number of the i-th separator */
+    public int getKeyPage(int i) {
+        return keyPages[i];
+    }
+
+    /** @return the tuple slot of the i-th separator */
+    public int getKeySlot(int i) {
+        return keySlots[i];
+    }
+
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData(INTERNAL);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(1, numKeys);
+        buf.putInt(5, children[0]);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < numKeys; i++) {
+            writeKey(buf, offset, keys[i]);
+            offset += keyType.getLen();
+            buf.putInt(offset, keyPages[i]);
+            buf.putInt(offset + 4, keySlots[i]);
+            buf.putInt(offset + 8, children[i + 1]);
+            offset += 12;
+        }
+        return data;
+    }
+}
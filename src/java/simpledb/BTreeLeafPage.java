@@ -0,0 +1,200 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeLeafPage holds index entries in ascending order. Each entry is a key
+ * and the page number and slot of the tuple with that key in the indexed
+ * HeapFile. Leaves are chained left to right through their right sibling,
+ * so a range scan walks the leaves without going back up the tree.
+ * <p>
+ * The page is the category byte, the number of entries, the page number of
+ * the right sibling (0 if there is none, since page 0 is never a leaf) and
+ * then the entries, each one key followed by two ints.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 9;
+
+    private final int capacity;
+    private int numEntries;
+    private int rightSibling;
+    // one spare entry so that a full leaf can take the entry that splits it
+    private final Field[] keys;
+    private final int[] pageNos;
+    private final int[] slots;
+
+    /**
+     * Creates a leaf page from its bytes; used by recovery.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) {
+        this(id, data, keyTypeOf(id.getTableId()));
+    }
+
+    /**
+     * Creates a leaf page from its bytes.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     * @param keyType the type of the keys
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, Type keyType) {
+        super(id, keyType);
+        this.capacity = maxEntries(keyType);
+        this.keys = new Field[capacity + 1];
+        this.pageNos = new int[capacity + 1];
+        this.slots = new int[capacity + 1];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.numEntries = buf.getInt(1);
+        this.rightSibling = buf.getInt(5);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < numEntries; i++) {
+            keys[i] = readKey(buf, offset);
+            offset += keyType.getLen();
+            pageNos[i] = buf.getInt(offset);
+            slots[i] = buf.getInt(offset + 4);
+            offset += 8;
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on a leaf with the given key type */
+    public static int maxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    /** @return true if the page holds more entries than fit on disk and must split */
+    public boolean isOverfull() {
+        return numEntries > capacity;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the page number of the tuple of the i-th entry */
+    public int getEntryPage(int i) {
+        return pageNos[i];
+    }
+
+    /** @return the slot of the tuple of the i-th entry */
+    public int getEntrySlot(int i) {
+        return slots[i];
+    }
+
+    /** @return the page number of the next leaf, or 0 if this is the last one */
+    public int getRightSibling() {
+        return rightSibling;
+    }
+
+    public void setRightSibling(int pageNo) {
+        this.rightSibling = pageNo;
+    }
+
+    /** @return the position of the first entry not before the given entry */
+    public int findEntry(Field key, int pageNo, int slot) {
+        int lo = 0;
+        int hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareEntries(keys[mid], pageNos[mid], slots[mid], key, pageNo, slot) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the position of the first entry whose key is not below the given key */
+    public int findKey(Field key) {
+        int lo = 0;
+        int hi = numEntries;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKeys(keys[mid], key) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Inserts an entry in order; the page may become overfull. */
+    public void insertEntry(Field key, int pageNo, int slot) {
+        int pos = findEntry(key, pageNo, slot);
+        int moved = numEntries - pos;
+        System.arraycopy(keys, pos, keys, pos + 1, moved);
+        System.arraycopy(pageNos, pos, pageNos, pos + 1, moved);
+        System.arraycopy(slots, pos, slots, pos + 1, moved);
+        keys[pos] = key;
+        pageNos[pos] = pageNo;
+        slots[pos] = slot;
+        numEntries++;
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @return false if the page has no such entry
+     */
+    public boolean deleteEntry(Field key, int pageNo, int slot) {
+        int pos = findEntry(key, pageNo, slot);
+        if (pos == numEntries
+                || compareEntries(keys[pos], pageNos[pos], slots[pos], key, pageNo, slot) != 0) {
+            return false;
+        }
+        int moved = numEntries - pos - 1;
+        System.arraycopy(keys, pos + 1, keys, pos, moved);
+        System.arraycopy(pageNos, pos + 1, pageNos, pos, moved);
+        System.arraycopy(slots, pos + 1, slots, pos, moved);
+        numEntries--;
+        keys[numEntries] = null;
+        return true;
+    }
+
+    /**
+     * Moves the upper half of the entries to an empty page that becomes this
+     * page's right sibling.
+     *
+     * @param right an empty leaf page
+     */
+    public void splitInto(BTreeLeafPage right) {
+        int keep = numEntries / 2;
+        int moved = numEntries - keep;
+        System.arraycopy(keys, keep, right.keys, 0, moved);
+        System.arraycopy(pageNos, keep, right.pageNos, 0, moved);
+        System.arraycopy(slots, keep, right.slots, 0, moved);
+        right.numEntries = moved;
+        for (int i = keep; i < numEntries; i++) {
+            keys[i] = null;
+        }
+        numEntries = keep;
+        right.rightSibling = rightSibling;
+        rightSibling = right.getId().getPageNumber();
+    }
+
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData(LEAF);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(1, numEntries);
+        buf.putInt(5, rightSibling);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < numEntries; i++) {
+            writeKey(buf, offset, keys[i]);
+            offset += keyType.getLen();
+            buf.putInt(offset, pageNos[i]);
+            buf.putInt(offset + 4, slots[i]);
+            offset += 8;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BTreePage holds what the page types of a {@link BTreeFile} have in
+ * common: the page id, the dirty flag and the before image, and the helpers
+ * to read and write keys.
+ * <p>
+ * The first byte of every page is its category, {@link #ROOT_PTR},
+ * {@link #INTERNAL} or {@link #LEAF}, so that a page read from disk can be
+ * turned into the right class by {@link #create}. Index entries are ordered
+ * on their key, and then on the page number and slot of the tuple they
+ * point to, which keeps them distinct when keys repeat.
+ */
+public abstract class BTreePage implements Page {
+
+    /** Category of the page holding the number of the root page. */
+    public static final int ROOT_PTR = 0;
+    /** Category of internal pages, which hold separators and children. */
+    public static final int INTERNAL = 1;
+    /** Category of leaf pages, which hold the index entries. */
+    public static final int LEAF = 2;
+
+    protected final BTreePageId pid;
+    protected final Type keyType;
+    private volatile TransactionId dirtier;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected BTreePage(BTreePageId pid, Type keyType) {
+        this.pid = pid;
+        this.keyType = keyType;
+    }
+
+    /**
+     * Creates a page of the category found in its first byte.
+     *
+     * @param pid the id of the page
+     * @param data the contents of the page
+     * @param keyType the type of the keys of the page's file
+     */
+    public static BTreePage create(BTreePageId pid, byte[] data, Type keyType) {
+        switch (data[0]) {
+        case ROOT_PTR:
+            return new BTreeRootPtrPage(pid, data);
+        case INTERNAL:
+            return new BTreeInternalPage(pid, data, keyType);
+        case LEAF:
+            return new BTreeLeafPage(pid, data, keyType);
+        default:
+            throw new IllegalArgumentException("page " + pid.getPageNumber() + " has unknown category " + data[0]);
+        }
+    }
+
+    /**
+     * @param category the category of the page
+     * @return the data of an empty page of the given category
+     */
+    public static byte[] createEmptyPageData(int category) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        data[0] = (byte) category;
+        return data;
+    }
+
+    // the key type of the BTreeFile with the given id, for pages rebuilt by
+    // recovery from their bytes alone
+    static Type keyTypeOf(int fileId) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(fileId)).getKeyType();
+    }
+
+    /** Compares two keys of the same type by value. */
+    static int compareKeys(Field k1, Field k2) {
+        if (k1 instanceof IntField) {
+            return Integer.compare(((IntField) k1).getValue(), ((IntField) k2).getValue());
+        }
+        return ((StringField) k1).getValue().compareTo(((StringField) k2).getValue());
+    }
+
+    /** Compares two entries by key, then page number, then slot. */
+    static int compareEntries(Field k1, int page1, int slot1, Field k2, int page2, int slot2) {
+        int c = compareKeys(k1, k2);
+        if (c != 0) {
+            return c;
+        }
+        c = Integer.compare(page1, page2);
+        return c != 0 ? c : Integer.compare(slot1, slot2);
+    }
+
+    protected void writeKey(ByteBuffer buf, int offset, Field key) {
+        key.serialize(buf, offset);
+    }
+
+    protected Field readKey(ByteBuffer buf, int offset) {
+        return keyType.parse(buf, offset);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public BTreePage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return create(pid, oldData.clone(), keyType);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
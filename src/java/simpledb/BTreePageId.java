@@ -0,0 +1,55 @@
+package simpledb;
+
+/** Unique identifier for the pages of a {@link BTreeFile}. */
+public class BTreePageId implements PageId {
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific B+ tree file.
+     *
+     * @param tableId The id of the BTreeFile that is being referenced
+     * @param pgNo The page number in that file.
+     */
+    public BTreePageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /** @return the id of the BTreeFile associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the file getTableId() associated with
+     *   this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return 31 * tableId + pgNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (!(o instanceof BTreePageId)) {
+            return false;
+        }
+        BTreePageId other = (BTreePageId) o;
+        return tableId == other.tableId && pgNo == other.pgNo;
+    }
+
+    public int[] serialize() {
+        return new int[] { tableId, pgNo };
+    }
+
+    public String toString() {
+        return "BTreePageId(" + tableId + ", " + pgNo + ")";
+    }
+}
@@ -0,0 +1,41 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeRootPtrPage is page 0 of every {@link BTreeFile}. It holds the number
+ * of the tree's root page, which changes when the root splits.
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int rootPageNo;
+
+    /**
+     * Creates a root pointer page from its bytes: the category byte followed
+     * by the root page number.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) {
+        super(id, null);
+        this.rootPageNo = ByteBuffer.wrap(data).getInt(1);
+        setBeforeImage();
+    }
+
+    /** @return the page number of the root page */
+    public int getRootPageNo() {
+        return rootPageNo;
+    }
+
+    /** @param rootPageNo the page number of the new root page */
+    public void setRootPageNo(int rootPageNo) {
+        this.rootPageNo = rootPageNo;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData(ROOT_PTR);
+        ByteBuffer.wrap(data).putInt(1, rootPageNo);
+        return data;
+    }
+}
@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The BlockNestedLoopJoin operator is a nested loops join that reads the
+ * outer relation a block at a time. Each block holds a configurable number
+ * of pages' worth of outer tuples, and the inner relation is scanned once
+ * per block instead of once per outer tuple, with every inner tuple compared
+ * against the whole block. It evaluates any join predicate.
+ * <p>
+ * The results are the fields of child1 (the outer relation) followed by
+ * those of child2 (the inner relation), like {@link Join}.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages of outer tuples in a block. */
+    public static final int DEFAULT_BLOCK_PAGES = 32;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final TupleDesc tupleDesc;
+    private final int blockTuples;
+
+    private final ArrayList<Tuple> block = new ArrayList<Tuple>();
+    // the inner tuple being compared with the block, and the next block
+    // tuple to compare it with
+    private Tuple innerTuple;
+    private int blockPos;
+
+    /**
+     * Constructor for a join with blocks of {@link #DEFAULT_BLOCK_PAGES}
+     * pages.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            how many pages' worth of outer tuples to hold per scan of
+     *            the inner relation
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+            int blockPages) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockTuples = blockTuples(child1.getTupleDesc(), blockPages);
+    }
+
+    /**
+     * @return the number of tuples of the given TupleDesc in a block of the
+     *         given number of pages
+     */
+    public static int blockTuples(TupleDesc td, int blockPages) {
+        return Math.max(1, Math.max(1, blockPages) * HeapPage.slotsPerPage(td));
+    }
+
+    /** @return the number of outer tuples held per scan of the inner relation */
+    public int getBlockTuples() {
+        return blockTuples;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        block.clear();
+        innerTuple = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block.clear();
+        innerTuple = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        block.clear();
+        innerTuple = null;
+    }
+
+    // reads the next block of the outer relation and restarts the inner one;
+    // returns false if the outer relation is exhausted
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        if (block.isEmpty()) {
+            return false;
+        }
+        child2.rewind();
+        return true;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Every inner tuple is compared with each tuple of the
+     * current block before the next inner tuple is read.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (innerTuple != null) {
+                while (blockPos < block.size()) {
+                    Tuple outer = block.get(blockPos++);
+                    if (p.filter(outer, innerTuple)) {
+                        return Tuple.merge(tupleDesc, outer, innerTuple);
+                    }
+                }
+                innerTuple = null;
+            }
+            if (block.isEmpty() || !child2.hasNext()) {
+                if (!nextBlock()) {
+                    return null;
+                }
+                if (!child2.hasNext()) {
+                    return null;
+                }
+            }
+            innerTuple = child2.next();
+            blockPos = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -3,10 +3,10 @@ package simpledb;
 import java.io.*;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
     import java.util.concurrent.ConcurrentHashMap;
 import java.util.HashSet;
+import java.util.Set;
 
 
 /**
@@ -35,17 +35,49 @@ public class BufferPool {
     private int numPages;
     private ConcurrentHashMap<PageId, Page> pages;
     private LockManager lockManager;
+    private ReplacementPolicy replacementPolicy;
+    private FrameArena frameArena;
+    // pages read ahead of a scan that nobody has asked for yet
+    private Set<PageId> prefetched;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using LRU-K
+     * replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new LruKPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and picks
+     * eviction victims with the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacementPolicy decides which page to evict when the pool is full
+     */
+    public BufferPool(int numPages, ReplacementPolicy replacementPolicy) {
         // some code goes here
         this.numPages = numPages;
         this.pages = new ConcurrentHashMap<>();
         this.lockManager = new LockManager();
+        this.replacementPolicy = replacementPolicy;
+        // every cached page holds a frame for its data and one for its
+        // before-image; evicted pages keep theirs until they are garbage
+        // collected, so there are twice as many frames again
+        this.frameArena = new FrameArena(4 * numPages);
+        this.prefetched = ConcurrentHashMap.newKeySet();
+    }
+
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the off-heap frames that pages read through this pool live in */
+    public FrameArena getFrameArena() {
+        return frameArena;
     }
 
     public static int getPageSize() {
@@ -80,22 +112,125 @@ public class BufferPool {
     public  Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        if (this.pages.size() >= numPages) {
-            evictPage();
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, reading it
+     * through the given buffer ring if it is not cached. Used by large scans
+     * so that they recycle a few frames of their own instead of flushing
+     * the rest of the pool.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the access strategy for cache misses, or null to use the
+     *             shared pool like {@link #getPage(TransactionId, PageId, Permissions)}
+     */
+    public  Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+            throws TransactionAbortedException, DbException {
+        this.lockManager.acquire(tid, pid, perm);
+        Page page = this.pages.get(pid);
+        if (page != null) {
+            pageHit(pid);
+            return page;
         }
+        return loadPage(pid, ring);
+    }
+
+    /**
+     * Acquires a lock on a page without reading it into the pool. Used by
+     * bulk appends, which write new pages straight to their file but must
+     * still keep other transactions away from them until they complete.
+     * May block if the lock is held by another transaction.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param pid the ID of the page to lock
+     * @param perm the requested permissions on the page
+     */
+    public void lockPage(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
         this.lockManager.acquire(tid, pid, perm);
+    }
+
+    /**
+     * Reports a hit to the replacement policy. The first hit on a prefetched
+     * page is the access the prefetch anticipated and was already counted
+     * when the page was admitted, so a scan doesn't make its pages look hot.
+     */
+    private void pageHit(PageId pid) {
+        if (!this.prefetched.remove(pid)) {
+            this.replacementPolicy.pageAccessed(pid);
+        }
+    }
+
+    /**
+     * Reads a page that missed in the cache, evicting another page first if
+     * the pool is full. Synchronized so that two transactions missing on the
+     * same page don't both read it.
+     */
+    private synchronized Page loadPage(PageId pid, BufferRing ring) throws DbException {
+        Page page = this.pages.get(pid);
+        if (page != null) {
+            pageHit(pid);
+            return page;
+        }
+        makeRoom(pid, ring);
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        page = file.readPage(pid);
+        this.pages.put(pid, page);
+        this.replacementPolicy.pageAdmitted(pid);
+        return page;
+    }
+
+    /**
+     * Reads a page into the pool ahead of its use, without locking it: the
+     * transaction that later asks for it through getPage still takes its
+     * lock then. Does nothing if the page is already cached or if no page
+     * can be evicted to make room for it.
+     *
+     * @param pid the page to read
+     * @param ring the ring of the scan the page is read for, or null
+     * @return true if the page was read from disk
+     */
+    public synchronized boolean prefetchPage(PageId pid, BufferRing ring) {
         if (this.pages.containsKey(pid)) {
-            return this.pages.get(pid);
-        } else {
-            if (numPages > this.pages.size()) {
-                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                Page page = file.readPage(pid);
-                this.pages.put(pid, page);
-                return page;
-            } else {
-                throw new DbException("No more pages available");
+            return false;
+        }
+        try {
+            makeRoom(pid, ring);
+        } catch (DbException e) {
+            // every page is dirty; the scan will find out when it gets here
+            return false;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Page page = file.readPage(pid);
+        this.pages.put(pid, page);
+        this.replacementPolicy.pageAdmitted(pid);
+        this.prefetched.add(pid);
+        return true;
+    }
+
+    // frees a frame for pid: the ring's oldest page if possible, else a victim
+    private void makeRoom(PageId pid, BufferRing ring) throws DbException {
+        if (ring != null) {
+            // hand the ring's oldest frame over to the new page if we can
+            PageId recycled = ring.recycle(pid);
+            Page old = recycled == null ? null : this.pages.get(recycled);
+            if (old != null && old.isDirty() == null) {
+                removePage(recycled);
             }
         }
+        if (this.pages.size() >= numPages) {
+            evictPage();
+        }
+    }
+
+    // drops a page from the cache and from the replacement policy's books
+    private void removePage(PageId pid) {
+        this.pages.remove(pid);
+        this.prefetched.remove(pid);
+        this.replacementPolicy.pageRemoved(pid);
     }
 
     /**
@@ -162,10 +297,12 @@ public class BufferPool {
         // flush log to disk
         Database.getLogFile().force();
     } else {
-        // discard all dirty pages
+        // put back the pages the transaction dirtied as they were when it
+        // started changing them; commits keep the before images current,
+        // while the files may not have the committed changes yet
         for (Page page : this.pages.values()) {
-            if (page.isDirty() != null) {
-                page.markDirty(false, null);
+            if (tid.equals(page.isDirty())) {
+                this.pages.put(page.getId(), page.getBeforeImage());
             }
         }
     }
@@ -201,6 +338,29 @@ public class BufferPool {
         for (Page page : pages) {
             page.markDirty(true, tid);
             this.pages.put(page.getId(), page);
+            this.replacementPolicy.pageAccessed(page.getId());
+        }
+        insertIndexEntries(tid, tableId, t);
+    }
+
+    /**
+     * Adds the entries of a tuple that was just inserted into a table to the
+     * table's indexes, and marks the index pages that change dirty.
+     * insertTuple does this itself; bulk loads that write heap pages without
+     * it call this for each tuple.
+     *
+     * @param tid the transaction that inserted the tuple
+     * @param tableId the table the tuple was inserted into
+     * @param t the tuple, with its RecordId set
+     */
+    public void insertIndexEntries(TransactionId tid, int tableId, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            for (Page page : index.insertEntry(tid, t)) {
+                page.markDirty(true, tid);
+                this.pages.put(page.getId(), page);
+                this.replacementPolicy.pageAccessed(page.getId());
+            }
         }
     }
 
@@ -225,12 +385,18 @@ public class BufferPool {
 
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
+        // the index entries go first, while the tuple still has its RecordId
+        List<Page> dirtyPages = new ArrayList<Page>();
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            dirtyPages.addAll(index.deleteEntry(tid, t));
+        }
         // stores the page that the tuple was deleted from
-        List<Page> dirtyPages = dbFile.deleteTuple(tid, t);
+        dirtyPages.addAll(dbFile.deleteTuple(tid, t));
         for (Page page : dirtyPages) {
             // iterates through the pages and marks them as dirty
             page.markDirty(true, tid);
             this.pages.put(page.getId(), page);
+            this.replacementPolicy.pageAccessed(page.getId());
         }
     }
 
@@ -259,7 +425,7 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        this.pages.remove(pid);
+        removePage(pid);
     }
 
     /**
@@ -297,25 +463,19 @@ public class BufferPool {
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the replacement policy among clean pages only,
+     * since dirty pages must not reach disk before their transaction commits.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        ArrayList<PageId> pIds = new ArrayList<>(pages.keySet());
-        // use the LRU eviction policy
-        Collections.reverse(pIds);
-        for (PageId pid: pIds) {
+        PageId victim = this.replacementPolicy.chooseVictim(pid -> {
             Page page = pages.get(pid);
-            if (page.isDirty() == null) {
-                try {
-                    flushPage(pid);
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                pages.remove(pid);
-                return;
-            }
+            return page != null && page.isDirty() == null;
+        });
+        if (victim == null) {
+            throw new DbException("No more pages available: every page in the buffer pool is dirty");
         }
+        removePage(victim);
     }
 }
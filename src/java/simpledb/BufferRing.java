@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * BufferRing is a "bulk read" access strategy for the BufferPool, in the
+ * spirit of PostgreSQL's buffer rings. A scan that reads pages through a
+ * ring only ever occupies a small, fixed number of frames: once the ring is
+ * full, the page it loaded longest ago is dropped from the pool to make room
+ * for the next one, instead of evicting some other transaction's page.
+ * <p>
+ * Only pages that missed in the pool are put on the ring; pages the scan
+ * finds already cached are used in place and left alone. A page is dropped
+ * from the ring only if it is still clean, so a ring never causes a dirty
+ * page to be written or lost.
+ * <p>
+ * A ring belongs to a single scan. It is only modified by the BufferPool
+ * while holding its lock, which is what lets the scan's read-ahead load
+ * pages through the same ring from another thread.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, BufferRing)
+ */
+public class BufferRing {
+
+    /** Largest ring handed out for bulk reads, in pages. */
+    public static final int MAX_BULK_READ_PAGES = 16;
+
+    private final PageId[] slots;
+    private int next;
+
+    /**
+     * Creates a ring that holds at most the given number of pages.
+     *
+     * @param capacity number of frames the ring may occupy
+     */
+    public BufferRing(int capacity) {
+        this.slots = new PageId[Math.max(1, capacity)];
+        this.next = 0;
+    }
+
+    /**
+     * Returns a ring sized for bulk reads through a buffer pool of the given
+     * capacity: one eighth of the pool, capped at {@link #MAX_BULK_READ_PAGES}.
+     *
+     * @param poolPages capacity of the buffer pool, in pages
+     */
+    public static BufferRing bulkRead(int poolPages) {
+        return new BufferRing(Math.min(MAX_BULK_READ_PAGES, poolPages / 8));
+    }
+
+    /** @return the number of frames this ring may occupy */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * Puts a newly loaded page on the ring.
+     *
+     * @param pid the page that was just read into the pool
+     * @return the page it replaces on the ring, which the caller should drop
+     *         from the pool, or null if the ring had a free slot
+     */
+    PageId recycle(PageId pid) {
+        PageId old = slots[next];
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+        return old;
+    }
+}
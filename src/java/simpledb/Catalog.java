@@ -20,6 +20,7 @@ public class Catalog {
     // using ConcurrentHashMap for easier implementation on future labs
     private ConcurrentHashMap<Integer, DataTable> databaseFilesMap;
     private ConcurrentHashMap<String, Integer> databaseNamesMap;
+    private ConcurrentHashMap<Integer, IndexFile> indexesMap;
 
     private class DataTable {
         public String name;
@@ -41,6 +42,7 @@ public class Catalog {
         // some code goes here
         this.databaseFilesMap = new ConcurrentHashMap<>();
         this.databaseNamesMap = new ConcurrentHashMap<>();
+        this.indexesMap = new ConcurrentHashMap<>();
 
     }
 
@@ -114,11 +116,70 @@ public class Catalog {
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
         // some code goes here
         if((!databaseFilesMap.containsKey(tableid))) {
-            throw new NoSuchElementException();
+            // the pages of indexes are read through the catalog too
+            IndexFile index = this.indexesMap.get(tableid);
+            if (index == null) {
+                throw new NoSuchElementException();
+            }
+            return index;
         }
         return this.databaseFilesMap.get(tableid).file;
     }
 
+    /**
+     * Adds a secondary index on a table in the catalog. From then on the
+     * BufferPool maintains it as tuples are inserted and deleted, and
+     * getDatabaseFile returns it for its own id.
+     * @param index the index; its table must already be in the catalog
+     */
+    public void addIndex(IndexFile index) {
+        this.indexesMap.put(index.getId(), index);
+    }
+
+    /**
+     * @param tableid the id of a table
+     * @return the indexes on the table, possibly none
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        List<IndexFile> indexes = new ArrayList<IndexFile>();
+        for (IndexFile index : this.indexesMap.values()) {
+            if (index.getTableId() == tableid) {
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * @param tableid the id of a table
+     * @param field the index of a field in the table's TupleDesc
+     * @param op the operator of a predicate on the field
+     * @return an index on the field that can look up the tuples satisfying
+     *     the predicate, or null if there is none
+     */
+    public IndexFile getIndex(int tableid, int field, Predicate.Op op) {
+        for (IndexFile index : this.indexesMap.values()) {
+            if (index.getTableId() == tableid && index.getKeyField() == field && index.supports(op)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tableid the id of a table
+     * @param field the index of a field in the table's TupleDesc
+     * @return an index on the field, or null if there is none
+     */
+    public IndexFile getIndex(int tableid, int field) {
+        for (IndexFile index : this.indexesMap.values()) {
+            if (index.getTableId() == tableid && index.getKeyField() == field) {
+                return index;
+            }
+        }
+        return null;
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         return this.databaseFilesMap.get(tableid).primaryKey;
@@ -137,8 +198,15 @@ public class Catalog {
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
+        // release the file handles of the tables we drop
+        for (DataTable table : this.databaseFilesMap.values()) {
+            if (table.file instanceof HeapFile) {
+                ((HeapFile) table.file).close();
+            }
+        }
         this.databaseFilesMap.clear();
         this.databaseNamesMap.clear();
+        this.indexesMap.clear();
     }
     
     /**
@@ -186,6 +254,12 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (!primaryKey.isEmpty()) {
+                    // reuse the primary key's index unless the table changed since it was built
+                    File idxFile = new File(baseFolder+"/"+name + "." + primaryKey + ".idx");
+                    addIndex(BTreeFile.load(idxFile, tabHf, t.fieldNameToIndex(primaryKey)));
+                    System.out.println("Added index on " + name + "." + primaryKey);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -193,6 +267,10 @@ public class Catalog {
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
+        } catch (DbException | TransactionAbortedException e) {
+            System.out.println ("Can't build index for catalog entry : " + line);
+            e.printStackTrace();
+            System.exit(0);
         }
     }
 }
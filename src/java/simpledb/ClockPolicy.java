@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * CLOCK (second chance) replacement. Resident pages sit in a circular array
+ * of frames, each with a reference bit that is set on every access. The
+ * clock hand sweeps the frames, clearing set bits and evicting the first
+ * evictable page whose bit is already clear.
+ * <p>
+ * Accesses only flip a bit, and each sweep step either clears a bit or
+ * finds a victim, so eviction is amortized O(1).
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private PageId[] frames;
+    private boolean[] referenced;
+    private final HashMap<PageId, Integer> frameOf;
+    private final ArrayDeque<Integer> freeFrames;
+    private int used;
+    private int hand;
+
+    /**
+     * Creates a clock sized for a buffer pool of the given capacity. The clock
+     * grows if more pages than that are ever resident at once.
+     *
+     * @param capacity expected maximum number of resident pages
+     */
+    public ClockPolicy(int capacity) {
+        int size = Math.max(1, capacity);
+        this.frames = new PageId[size];
+        this.referenced = new boolean[size];
+        this.frameOf = new HashMap<>();
+        this.freeFrames = new ArrayDeque<>();
+        this.used = 0;
+        this.hand = 0;
+    }
+
+    public synchronized void pageAdmitted(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            frame = allocateFrame();
+            frames[frame] = pid;
+            frameOf.put(pid, frame);
+        }
+        referenced[frame] = true;
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        Integer frame = frameOf.get(pid);
+        if (frame == null) {
+            // the page got into the pool without going through getPage
+            pageAdmitted(pid);
+            return;
+        }
+        referenced[frame] = true;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer frame = frameOf.remove(pid);
+        if (frame != null) {
+            frames[frame] = null;
+            referenced[frame] = false;
+            freeFrames.push(frame);
+        }
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        // two full turns: the first may only clear reference bits
+        int steps = 2 * used;
+        for (int i = 0; i < steps; i++) {
+            int frame = hand;
+            hand = (hand + 1) % used;
+            PageId pid = frames[frame];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+            } else if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+
+    // returns a free frame index, growing the clock if every frame is taken
+    private int allocateFrame() {
+        if (!freeFrames.isEmpty()) {
+            return freeFrames.pop();
+        }
+        if (used == frames.length) {
+            frames = Arrays.copyOf(frames, used * 2);
+            referenced = Arrays.copyOf(referenced, used * 2);
+        }
+        return used++;
+    }
+}
@@ -0,0 +1,56 @@
+package simpledb;
+
+/**
+ * Estimates the number of distinct values of a field in constant space,
+ * with a HyperLogLog sketch: each value is hashed, the first bits of the
+ * hash pick a register, and the register keeps the longest run of leading
+ * zeros seen in the rest. The estimate is within a few percent.
+ */
+class DistinctCounter {
+
+    private static final int INDEX_BITS = 11;
+    private static final int REGISTERS = 1 << INDEX_BITS;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /** Adds a value; null values are not counted. */
+    void add(Field f) {
+        if (f == null) {
+            return;
+        }
+        long h = mix(f.hashCode());
+        int register = (int) (h >>> (64 - INDEX_BITS));
+        // the guard bit bounds the rank when the rest of the hash is zero
+        long rest = (h << INDEX_BITS) | (1L << (INDEX_BITS - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    /** @return the estimated number of distinct values added */
+    int estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double estimate = 0.7213 / (1 + 1.079 / REGISTERS) * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // few values: count the empty registers instead
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return (int) Math.round(estimate);
+    }
+
+    /** Spreads the bits of a hash code over a long (the splitmix64 finalizer). */
+    private static long mix(int hashCode) {
+        long z = hashCode * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
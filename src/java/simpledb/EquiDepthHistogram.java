@@ -0,0 +1,178 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * A histogram over an integer field whose buckets each hold about the same
+ * number of values, built once from a sample of the field. Unlike
+ * {@link IntHistogram} it doesn't need the range of the values in advance,
+ * and frequent values get buckets of their own.
+ * <p>
+ * The buckets cover [min, max] without gaps. A run of equal values in the
+ * sample is never split, so each bucket ends with a value whose frequency
+ * is known; the other values of the bucket are assumed to be spread evenly
+ * over the rest of it.
+ */
+public class EquiDepthHistogram {
+
+    private final int min;
+    private final int max;
+    /** the last value of each bucket; the first starts at min */
+    private final int[] highs;
+    /** the fraction of the values in each bucket but not equal to its last value */
+    private final double[] rest;
+    /** the fraction of the values equal to the last value of each bucket */
+    private final double[] lasts;
+    /** the estimated number of distinct values in each bucket but its last */
+    private final double[] distincts;
+
+    /**
+     * Builds a histogram from a sample of a field.
+     *
+     * @param buckets the number of buckets to split the sample into
+     * @param sample the sampled values, which this sorts
+     * @param size the number of values of sample to use
+     * @param min the smallest value of the field, which may not be in the sample
+     * @param max the largest value of the field, which may not be in the sample
+     * @param distinct the estimated number of distinct values of the field
+     */
+    public EquiDepthHistogram(int buckets, int[] sample, int size, int min, int max, int distinct) {
+        this.min = min;
+        this.max = max;
+        Arrays.sort(sample, 0, size);
+        int depth = Math.max(1, (size + buckets - 1) / buckets);
+        int[] highs = new int[buckets + 1];
+        int[] lastCounts = new int[buckets + 1];
+        int[] counts = new int[buckets + 1];
+        int[] sampleDistincts = new int[buckets + 1];
+        int n = 0;
+        int sampleDistinct = 0;
+        for (int i = 0; i < size; n++) {
+            int start = i;
+            int value;
+            int lastCount = 0;
+            do {
+                value = sample[i];
+                int runStart = i;
+                while (i < size && sample[i] == value) {
+                    i++;
+                }
+                lastCount = i - runStart;
+                sampleDistincts[n]++;
+            } while (i < size && i - start < depth);
+            highs[n] = value;
+            lastCounts[n] = lastCount;
+            counts[n] = i - start;
+            sampleDistinct += sampleDistincts[n];
+        }
+        if (n > 0 && highs[n - 1] < max) {
+            // an empty bucket up to a maximum the sample missed
+            highs[n++] = max;
+        }
+        this.highs = Arrays.copyOf(highs, n);
+        this.rest = new double[n];
+        this.lasts = new double[n];
+        this.distincts = new double[n];
+        // values seen once in the sample stand for several unseen ones
+        double scale = sampleDistinct == 0 ? 1 : Math.max(1.0, distinct / (double) sampleDistinct);
+        for (int b = 0; b < n; b++) {
+            rest[b] = (counts[b] - lastCounts[b]) / (double) size;
+            lasts[b] = lastCounts[b] / (double) size;
+            long others = (long) this.highs[b] - low(b);
+            double d = (rest[b] == 0 ? 0 : sampleDistincts[b] - (lasts[b] == 0 ? 0 : 1)) * scale;
+            distincts[b] = Math.max(1, Math.min(others, d));
+        }
+    }
+
+    /** @return the first value of bucket b */
+    private long low(int b) {
+        return b == 0 ? min : (long) highs[b - 1] + 1;
+    }
+
+    /** @return the bucket that holds v, which must be in [min, max] */
+    private int bucketOf(int v) {
+        int b = Arrays.binarySearch(highs, v);
+        return b >= 0 ? b : -b - 1;
+    }
+
+    /** @return the fraction of the values that are less than v */
+    private double lessThan(int v) {
+        if (v <= min || highs.length == 0) {
+            return 0;
+        }
+        if (v > max) {
+            return 1;
+        }
+        int b = bucketOf(v);
+        double sel = 0;
+        for (int i = 0; i < b; i++) {
+            sel += rest[i] + lasts[i];
+        }
+        long others = (long) highs[b] - low(b);
+        if (others > 0) {
+            sel += rest[b] * (v - low(b)) / others;
+        }
+        return sel;
+    }
+
+    /** @return the fraction of the values that are equal to v */
+    private double equalTo(int v) {
+        if (v < min || v > max || highs.length == 0) {
+            return 0;
+        }
+        int b = bucketOf(v);
+        return v == highs[b] && lasts[b] > 0 ? lasts[b] : rest[b] / distincts[b];
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on the
+     * field, as a fraction of the values the histogram was built from.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equalTo(v);
+        case NOT_EQUALS:
+            return highs.length == 0 ? 0 : 1 - equalTo(v);
+        case LESS_THAN:
+            return lessThan(v);
+        case LESS_THAN_OR_EQ:
+            return Math.min(1, lessThan(v) + equalTo(v));
+        case GREATER_THAN:
+            return highs.length == 0 ? 0 : Math.max(0, 1 - lessThan(v) - equalTo(v));
+        case GREATER_THAN_OR_EQ:
+            return highs.length == 0 ? 0 : 1 - lessThan(v);
+        default:
+            throw new UnsupportedOperationException("unsupported operator " + op);
+        }
+    }
+
+    /**
+     * @return the chance that two values drawn from the histogram are equal,
+     *         the selectivity of an equality with an unknown value
+     */
+    public double avgSelectivity() {
+        double sel = 0;
+        for (int b = 0; b < highs.length; b++) {
+            sel += lasts[b] * lasts[b] + rest[b] * rest[b] / distincts[b];
+        }
+        return sel;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram[" + min + ", " + max + "]:");
+        for (int b = 0; b < highs.length; b++) {
+            sb.append(" [").append(low(b)).append(", ").append(highs[b]).append("] ")
+                    .append(String.format("%.4f", rest[b] + lasts[b]));
+        }
+        return sb.toString();
+    }
+}
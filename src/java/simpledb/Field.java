@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Interface for values of fields in tuples in SimpleDB.
@@ -14,6 +15,16 @@ public interface Field extends Serializable{
      */
     void serialize(DataOutputStream dos) throws IOException;
 
+    /**
+     * Write the bytes representing this field into buf, starting at the given
+     * absolute offset. Writes exactly {@link Type#getLen()} bytes, in the same
+     * format as {@link #serialize(DataOutputStream)}, and does not move the
+     * buffer's position.
+     * @param buf The buffer to write to.
+     * @param offset Index in buf of the first byte to write.
+     */
+    void serialize(ByteBuffer buf, int offset);
+
     /**
      * Compare the value of this field object to the passed in value.
      * @param op The operator
@@ -0,0 +1,80 @@
+package simpledb;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * FrameArena hands out page-sized frames carved out of one preallocated
+ * direct (off-heap) ByteBuffer. HeapPages keep their raw bytes in a frame,
+ * so the size of the buffer pool adds nothing to the Java heap the garbage
+ * collector has to trace.
+ * <p>
+ * A frame is tied to the object that acquired it and goes back to the arena
+ * once that object has been garbage collected. Nothing is ever returned
+ * explicitly, so a page that was evicted while an iterator still reads it
+ * can never see its bytes reused underneath it. When every frame is taken,
+ * or the page size no longer matches the frame size (tests change it), the
+ * arena falls back to plain heap buffers.
+ *
+ * @Threadsafe
+ */
+public class FrameArena {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final int frameSize;
+    private final ArrayDeque<ByteBuffer> freeFrames;
+
+    /**
+     * Preallocates the given number of frames of the current page size.
+     *
+     * @param numFrames number of off-heap frames in this arena
+     */
+    public FrameArena(int numFrames) {
+        this.frameSize = BufferPool.getPageSize();
+        this.freeFrames = new ArrayDeque<>(numFrames);
+        ByteBuffer slab = ByteBuffer.allocateDirect(numFrames * frameSize);
+        for (int i = 0; i < numFrames; i++) {
+            slab.limit((i + 1) * frameSize);
+            slab.position(i * frameSize);
+            freeFrames.push(slab.slice());
+        }
+    }
+
+    /**
+     * Returns a page-sized frame that stays reserved until <code>owner</code>
+     * becomes unreachable. Recycled frames still hold the bytes of their
+     * previous page; callers overwrite the whole frame.
+     *
+     * @param owner the object whose lifetime bounds the use of the frame
+     */
+    public ByteBuffer acquire(Object owner) {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer frame = null;
+        if (pageSize == frameSize) {
+            synchronized (freeFrames) {
+                frame = freeFrames.poll();
+            }
+        }
+        if (frame == null) {
+            return ByteBuffer.allocate(pageSize);
+        }
+        final ByteBuffer released = frame;
+        CLEANER.register(owner, () -> release(released));
+        return frame;
+    }
+
+    /** @return the number of frames currently free */
+    public int freeFrames() {
+        synchronized (freeFrames) {
+            return freeFrames.size();
+        }
+    }
+
+    private void release(ByteBuffer frame) {
+        synchronized (freeFrames) {
+            freeFrames.push(frame);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile are full, so that an
+ * insert can go straight to a page with a free slot instead of reading and
+ * locking every page from the start of the file.
+ * <p>
+ * The map is a hint. Its HeapFile builds it from the page headers on disk
+ * the first time it is needed, and keeps it current as pages are read,
+ * written, and have tuples inserted or deleted. A page the map wrongly
+ * reports as having room is found full by the insert, which marks it and
+ * moves on; a page it wrongly reports as full is corrected the next time
+ * it is read from disk or has a tuple deleted.
+ *
+ * @Threadsafe
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    // set for the pages known to be full; pages past the end are free
+    private final BitSet full = new BitSet();
+
+    /**
+     * Returns the first page at or after the given one that may have a free
+     * slot. The result may be past the end of the file.
+     *
+     * @param from the page number to start looking at
+     */
+    public synchronized int nextFreePage(int from) {
+        return full.nextClearBit(from);
+    }
+
+    /**
+     * Records whether a page has any free slots.
+     *
+     * @param pageNo the page number
+     * @param isFull true if every slot of the page is in use
+     */
+    public synchronized void setFull(int pageNo, boolean isFull) {
+        full.set(pageNo, isFull);
+    }
+
+    /** @return true if the given page is known to be full */
+    public synchronized boolean isFull(int pageNo) {
+        return full.get(pageNo);
+    }
+}
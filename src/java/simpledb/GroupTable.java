@@ -0,0 +1,229 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * GroupTable numbers the distinct values of a group-by field densely, in
+ * the order they are first seen, so that aggregators can keep their running
+ * aggregates in primitive arrays indexed by group number.
+ * <p>
+ * Int group values go into an open-addressing hash table of primitive ints
+ * with linear probing. String group values are interned in a map from the
+ * string to its number. Without grouping, every tuple is in group 0. Looking
+ * up a group that already exists allocates nothing.
+ * <p>
+ * A table can also group on several fields at once; such composite keys
+ * are interned in a map from the list of their values to their number.
+ */
+public class GroupTable {
+
+    private static final int INITIAL_SLOTS = 64;
+
+    private final int gbfield;
+    private final Type gbfieldtype;
+    // the fields of a composite key, or null if there are fewer than two
+    private final int[] gbfields;
+    private int size;
+
+    // int keys: slot -> group number + 1, or 0 if the slot is empty, and
+    // slot -> key; plus group number -> key
+    private int[] slotGroups;
+    private int[] slotKeys;
+    private int[] intKeys;
+
+    // string keys
+    private HashMap<String, Integer> stringGroups;
+    private ArrayList<String> stringKeys;
+
+    // composite keys
+    private HashMap<List<Field>, Integer> compositeGroups;
+    private ArrayList<List<Field>> compositeKeys;
+
+    /**
+     * Creates an empty table.
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field, or null if there is no
+     *            grouping
+     */
+    public GroupTable(int gbfield, Type gbfieldtype) {
+        this(gbfield, gbfieldtype, null);
+    }
+
+    /**
+     * Creates an empty table grouping on any number of fields.
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     */
+    public GroupTable(int[] gbfields, Type[] gbfieldtypes) {
+        this(gbfields.length == 0 ? Aggregator.NO_GROUPING : gbfields[0],
+                gbfields.length == 0 ? null : gbfieldtypes[0],
+                gbfields.length < 2 ? null : gbfields.clone());
+    }
+
+    private GroupTable(int gbfield, Type gbfieldtype, int[] gbfields) {
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfieldtype;
+        this.gbfields = gbfields;
+        if (gbfields != null) {
+            compositeGroups = new HashMap<List<Field>, Integer>();
+            compositeKeys = new ArrayList<List<Field>>();
+        } else if (gbfield != Aggregator.NO_GROUPING) {
+            if (gbfieldtype == Type.INT_TYPE) {
+                slotGroups = new int[INITIAL_SLOTS];
+                slotKeys = new int[INITIAL_SLOTS];
+                intKeys = new int[INITIAL_SLOTS / 2];
+            } else {
+                stringGroups = new HashMap<String, Integer>();
+                stringKeys = new ArrayList<String>();
+            }
+        }
+    }
+
+    /** @return the number of groups */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of the group of the given tuple, adding the group
+     * if it is new. New groups are numbered size() - 1.
+     */
+    public int groupOf(Tuple t) {
+        if (gbfield == Aggregator.NO_GROUPING) {
+            size = 1;
+            return 0;
+        }
+        if (gbfields != null) {
+            List<Field> key = compositeKey(t);
+            Integer group = compositeGroups.get(key);
+            if (group == null) {
+                group = size++;
+                compositeGroups.put(key, group);
+                compositeKeys.add(key);
+            }
+            return group;
+        }
+        Field f = t.getField(gbfield);
+        if (gbfieldtype == Type.INT_TYPE) {
+            return intGroup(((IntField) f).getValue());
+        }
+        String key = ((StringField) f).getValue();
+        Integer group = stringGroups.get(key);
+        if (group == null) {
+            group = size++;
+            stringGroups.put(key, group);
+            stringKeys.add(key);
+        }
+        return group;
+    }
+
+    /**
+     * @return true if the group of the given tuple is in the table; unlike
+     *         {@link #groupOf}, a missing group isn't added
+     */
+    public boolean contains(Tuple t) {
+        if (gbfield == Aggregator.NO_GROUPING) {
+            return size > 0;
+        }
+        if (gbfields != null) {
+            return compositeGroups.containsKey(compositeKey(t));
+        }
+        Field f = t.getField(gbfield);
+        if (gbfieldtype == Type.INT_TYPE) {
+            int key = ((IntField) f).getValue();
+            return slotGroups[findSlot(key)] != 0;
+        }
+        return stringGroups.containsKey(((StringField) f).getValue());
+    }
+
+    private List<Field> compositeKey(Tuple t) {
+        Field[] key = new Field[gbfields.length];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = t.getField(gbfields[i]);
+        }
+        return Arrays.asList(key);
+    }
+
+    // the slot holding the given key, or the empty slot where it would go
+    private int findSlot(int key) {
+        int mask = slotGroups.length - 1;
+        int slot = hash(key) & mask;
+        while (slotGroups[slot] != 0 && slotKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private int intGroup(int key) {
+        int slot = findSlot(key);
+        if (slotGroups[slot] != 0) {
+            return slotGroups[slot] - 1;
+        }
+        int group = size++;
+        if (group == intKeys.length) {
+            intKeys = Arrays.copyOf(intKeys, group * 2);
+        }
+        intKeys[group] = key;
+        slotGroups[slot] = group + 1;
+        slotKeys[slot] = key;
+        if (size * 2 > slotGroups.length) {
+            rehash();
+        }
+        return group;
+    }
+
+    // doubles the table, keeping it at most half full
+    private void rehash() {
+        int[] groups = new int[slotGroups.length * 2];
+        int[] keys = new int[groups.length];
+        int mask = groups.length - 1;
+        for (int g = 0; g < size; g++) {
+            int slot = hash(intKeys[g]) & mask;
+            while (groups[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            groups[slot] = g + 1;
+            keys[slot] = intKeys[g];
+        }
+        slotGroups = groups;
+        slotKeys = keys;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the group-by value of the given group, or null if there is no
+     *         grouping
+     */
+    public Field groupKey(int group) {
+        return groupKey(group, 0);
+    }
+
+    /**
+     * @return the value of the i-th group-by field of the given group, or
+     *         null if there is no grouping
+     */
+    public Field groupKey(int group, int i) {
+        if (gbfield == Aggregator.NO_GROUPING) {
+            return null;
+        }
+        if (gbfields != null) {
+            return compositeKeys.get(group).get(i);
+        }
+        if (gbfieldtype == Type.INT_TYPE) {
+            return new IntField(intKeys[group]);
+        }
+        return new StringField(stringKeys.get(group), Type.STRING_LEN);
+    }
+}
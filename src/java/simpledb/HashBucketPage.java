@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HashBucketPage holds the index entries whose key hashes end in the same
+ * local depth bits, in no particular order. Each entry is a key and the
+ * page number and slot of the tuple with that key. A bucket that can't
+ * split any more chains to overflow pages, which are buckets too.
+ * <p>
+ * The page is the local depth, the number of entries, the page number of
+ * the next overflow page (0 if there is none, since page 0 is the
+ * directory) and then the entries, each one key followed by two ints.
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 12;
+
+    private final int capacity;
+    private int localDepth;
+    private int numEntries;
+    private int overflow;
+    private final Field[] keys;
+    private final int[] pageNos;
+    private final int[] slots;
+
+    /**
+     * Creates a bucket page from its bytes; used by recovery.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     */
+    public HashBucketPage(HashPageId id, byte[] data) {
+        this(id, data, keyTypeOf(id.getTableId()));
+    }
+
+    /**
+     * Creates a bucket page from its bytes.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     * @param keyType the type of the keys
+     */
+    public HashBucketPage(HashPageId id, byte[] data, Type keyType) {
+        super(id, keyType);
+        this.capacity = maxEntries(keyType);
+        this.keys = new Field[capacity];
+        this.pageNos = new int[capacity];
+        this.slots = new int[capacity];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.localDepth = buf.getInt(0);
+        this.numEntries = buf.getInt(4);
+        this.overflow = buf.getInt(8);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < numEntries; i++) {
+            keys[i] = keyType.parse(buf, offset);
+            offset += keyType.getLen();
+            pageNos[i] = buf.getInt(offset);
+            slots[i] = buf.getInt(offset + 4);
+            offset += 8;
+        }
+        setBeforeImage();
+    }
+
+    /** @return the number of entries that fit on a bucket with the given key type */
+    public static int maxEntries(Type keyType) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (keyType.getLen() + 8);
+    }
+
+    public int getLocalDepth() {
+        return localDepth;
+    }
+
+    public void setLocalDepth(int localDepth) {
+        this.localDepth = localDepth;
+    }
+
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public boolean isFull() {
+        return numEntries == capacity;
+    }
+
+    public Field getKey(int i) {
+        return keys[i];
+    }
+
+    /** @return the page number of the tuple of the i-th entry */
+    public int getEntryPage(int i) {
+        return pageNos[i];
+    }
+
+    /** @return the slot of the tuple of the i-th entry */
+    public int getEntrySlot(int i) {
+        return slots[i];
+    }
+
+    /** @return the page number of the next overflow page, or 0 if there is none */
+    public int getOverflow() {
+        return overflow;
+    }
+
+    public void setOverflow(int pageNo) {
+        this.overflow = pageNo;
+    }
+
+    /** Adds an entry to a bucket that isn't full. */
+    public void insertEntry(Field key, int pageNo, int slot) {
+        if (isFull()) {
+            throw new IllegalStateException("the bucket is full");
+        }
+        keys[numEntries] = key;
+        pageNos[numEntries] = pageNo;
+        slots[numEntries] = slot;
+        numEntries++;
+    }
+
+    /**
+     * Removes an entry.
+     *
+     * @return false if the page has no such entry
+     */
+    public boolean deleteEntry(Field key, int pageNo, int slot) {
+        for (int i = 0; i < numEntries; i++) {
+            if (pageNos[i] == pageNo && slots[i] == slot && keys[i].equals(key)) {
+                removeEntry(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Removes the i-th entry; the last entry takes its place. */
+    public void removeEntry(int i) {
+        numEntries--;
+        keys[i] = keys[numEntries];
+        pageNos[i] = pageNos[numEntries];
+        slots[i] = slots[numEntries];
+        keys[numEntries] = null;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(0, localDepth);
+        buf.putInt(4, numEntries);
+        buf.putInt(8, overflow);
+        int offset = HEADER_SIZE;
+        for (int i = 0; i < numEntries; i++) {
+            keys[i].serialize(buf, offset);
+            offset += keyType.getLen();
+            buf.putInt(offset, pageNos[i]);
+            buf.putInt(offset + 4, slots[i]);
+            offset += 8;
+        }
+        return data;
+    }
+}
@@ -0,0 +1,91 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HashDirectoryPage is page 0 of every {@link HashIndexFile}. It holds the
+ * global depth d of the directory and its 2^d slots, each the page number
+ * of the bucket that holds the keys whose hash ends in the slot's d bits.
+ * Several slots share a bucket whose local depth is below d.
+ * <p>
+ * The directory lives on this one page, which bounds d by
+ * {@link #maxDepth}; buckets at that depth grow overflow pages instead of
+ * splitting.
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private static final int HEADER_SIZE = 4;
+
+    private int globalDepth;
+    private int[] buckets;
+
+    /**
+     * Creates a directory page from its bytes: the global depth followed by
+     * the bucket page numbers.
+     *
+     * @param id the id of this page
+     * @param data the raw data of this page
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) {
+        super(id, null);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.globalDepth = buf.getInt(0);
+        this.buckets = new int[1 << globalDepth];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = buf.getInt(HEADER_SIZE + 4 * i);
+        }
+        setBeforeImage();
+    }
+
+    /** @return the largest global depth whose directory fits on a page */
+    public static int maxDepth() {
+        int slots = (BufferPool.getPageSize() - HEADER_SIZE) / 4;
+        return 31 - Integer.numberOfLeadingZeros(slots);
+    }
+
+    public int getGlobalDepth() {
+        return globalDepth;
+    }
+
+    /** @return the page number of the bucket of the given hash */
+    public int getBucket(int hash) {
+        return buckets[hash & ((1 << globalDepth) - 1)];
+    }
+
+    /**
+     * Points every slot whose low depth bits equal those of the hash at the
+     * given bucket.
+     *
+     * @param hash a hash whose low depth bits select the slots
+     * @param depth the local depth of the bucket
+     * @param bucket the page number of the bucket
+     */
+    public void setBucket(int hash, int depth, int bucket) {
+        int low = hash & ((1 << depth) - 1);
+        for (int i = low; i < buckets.length; i += 1 << depth) {
+            buckets[i] = bucket;
+        }
+    }
+
+    /** Doubles the directory, each new slot sharing the bucket of its twin. */
+    public void grow() {
+        if (globalDepth == maxDepth()) {
+            throw new IllegalStateException("the directory is at its largest");
+        }
+        int[] grown = new int[buckets.length * 2];
+        System.arraycopy(buckets, 0, grown, 0, buckets.length);
+        System.arraycopy(buckets, 0, grown, buckets.length, buckets.length);
+        buckets = grown;
+        globalDepth++;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = createEmptyPageData();
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(0, globalDepth);
+        for (int i = 0; i < buckets.length; i++) {
+            buf.putInt(HEADER_SIZE + 4 * i, buckets[i]);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,484 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashIndexFile is an extendible hash index on one int or string field of a
+ * HeapFile, for exact-match lookups. Like a {@link BTreeFile} its entries
+ * map keys to the page number and slot of a tuple, but they are spread over
+ * {@link HashBucketPage}s by the hash of the key, and page 0 is a
+ * {@link HashDirectoryPage} that maps hashes to buckets. A lookup reads the
+ * directory and one bucket, whatever the size of the index.
+ * <p>
+ * Pages are read and written through the BufferPool and locked like heap
+ * pages. Inserts and deletes lock the directory for writing, so one
+ * transaction at a time modifies an index. A full bucket splits in two on
+ * the next bit of the hash, doubling the directory if its local depth was
+ * the global depth. Once the directory can't grow, full buckets chain to
+ * overflow pages, as do buckets of many equal keys. Deletes only remove the
+ * entry: buckets are never merged.
+ */
+public class HashIndexFile implements IndexFile {
+
+    private final File f;
+    private final int id;
+    private final int tableid;
+    private final int keyField;
+    private final Type keyType;
+    private final TupleDesc td;
+
+    /**
+     * Opens the index stored in the given file, writing an empty index to it
+     * if the file is empty.
+     *
+     * @param f the file that stores the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     * @throws IOException if an empty index can't be written
+     */
+    public HashIndexFile(File f, DbFile table, int keyField) throws IOException {
+        this.f = f;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.tableid = table.getId();
+        this.keyField = keyField;
+        TupleDesc tableTd = table.getTupleDesc();
+        this.keyType = tableTd.getFieldType(keyField);
+        this.td = new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { tableTd.getFieldName(keyField), "page", "slot" });
+        if (f.length() == 0) {
+            HashDirectoryPage directory = new HashDirectoryPage(new HashPageId(id, 0),
+                    HashPage.createEmptyPageData());
+            directory.setBucket(0, 0, 1);
+            writePage(directory);
+            writePageData(1, HashPage.createEmptyPageData());
+        }
+    }
+
+    /**
+     * Builds an index on a field of a table from the table's current
+     * contents, replacing whatever the file held before. The directory is
+     * sized for buckets about two thirds full, and the pages are written
+     * straight to the file.
+     *
+     * @param f the file to store the index in
+     * @param table the table to index
+     * @param keyField the index of the field to index in the table's TupleDesc
+     * @param tid the transaction scanning the table
+     * @return the new index
+     */
+    public static HashIndexFile create(File f, HeapFile table, int keyField, TransactionId tid)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+
+        int fileId = f.getAbsoluteFile().hashCode();
+        int oldPages = (int) (f.length() / BufferPool.getPageSize());
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.setLength(0);
+        }
+        for (int i = 0; i < oldPages; i++) {
+            // cached pages of the file's old contents are stale now
+            Database.getBufferPool().discardPage(new HashPageId(fileId, i));
+        }
+        HashIndexFile index = new HashIndexFile(f, table, keyField);
+
+        Type keyType = table.getTupleDesc().getFieldType(keyField);
+        int perBucket = HashBucketPage.maxEntries(keyType);
+        int depth = 0;
+        while (depth < HashDirectoryPage.maxDepth()
+                && (1L << depth) * perBucket * 2 < (long) tuples.size() * 3) {
+            depth++;
+        }
+        HashDirectoryPage directory = new HashDirectoryPage(new HashPageId(fileId, 0),
+                HashPage.createEmptyPageData());
+        while (directory.getGlobalDepth() < depth) {
+            directory.grow();
+        }
+        HashBucketPage[] buckets = new HashBucketPage[1 << depth];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new HashBucketPage(new HashPageId(fileId, i + 1),
+                    HashPage.createEmptyPageData(), keyType);
+            buckets[i].setLocalDepth(depth);
+            directory.setBucket(i, depth, i + 1);
+        }
+        // overflow pages follow the buckets
+        int nextPage = buckets.length + 1;
+        for (Tuple t : tuples) {
+            Field key = t.getField(keyField);
+            int b = hash(key) & (buckets.length - 1);
+            if (buckets[b].isFull()) {
+                buckets[b].setOverflow(nextPage);
+                index.writePage(buckets[b]);
+                buckets[b] = new HashBucketPage(new HashPageId(fileId, nextPage++),
+                        HashPage.createEmptyPageData(), keyType);
+                buckets[b].setLocalDepth(depth);
+            }
+            RecordId rid = t.getRecordId();
+            buckets[b].insertEntry(key, rid.getPageId().getPageNumber(), rid.getTupleNumber());
+        }
+        for (HashBucketPage bucket : buckets) {
+            index.writePage(bucket);
+        }
+        index.writePage(directory);
+        return index;
+    }
+
+    /**
+     * Opens the index in the given file if it is at least as recent as the
+     * table's file, and otherwise builds it anew from the table.
+     *
+     * @param f the file of the index
+     * @param table the indexed table
+     * @param keyField the index of the indexed field in the table's TupleDesc
+     * @return the index
+     */
+    public static HashIndexFile load(File f, HeapFile table, int keyField)
+            throws IOException, DbException, TransactionAbortedException {
+        if (f.length() > 0 && f.lastModified() >= table.getFile().lastModified()) {
+            return new HashIndexFile(f, table, keyField);
+        }
+        TransactionId tid = new TransactionId();
+        HashIndexFile index = create(f, table, keyField, tid);
+        Database.getBufferPool().transactionComplete(tid);
+        return index;
+    }
+
+    /**
+     * The hash of a key. It must not change between runs, since the index
+     * is stored, so it is computed from the key's value rather than taken
+     * from hashCode(). The low bits select the bucket.
+     */
+    static int hash(Field key) {
+        int h = key instanceof IntField ? ((IntField) key).getValue()
+                : ((StringField) key).getValue().hashCode();
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /** @return the file backing this index */
+    public File getFile() {
+        return f;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * @return the TupleDesc of the entries: the key, and the page number and
+     *         slot of the tuple
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /** @return the type of the keys */
+    public Type getKeyType() {
+        return keyType;
+    }
+
+    /** Only exact-match lookups can use the hash. */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /** @return the number of pages in this file */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    public Page readPage(PageId pid) {
+        int pageSize = BufferPool.getPageSize();
+        if (pid.getPageNumber() < 0 || pid.getPageNumber() >= numPages()) {
+            throw new IllegalArgumentException("page " + pid.getPageNumber() + " is not in the index");
+        }
+        byte[] data = new byte[pageSize];
+        synchronized (this) {
+            try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+                raf.seek((long) pid.getPageNumber() * pageSize);
+                raf.readFully(data);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("can't read page " + pid.getPageNumber()
+                        + " of the index: " + e.getMessage());
+            }
+        }
+        return HashPage.create((HashPageId) pid, data, keyType);
+    }
+
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    private synchronized void writePageData(int pageNo, byte[] data) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) pageNo * BufferPool.getPageSize());
+            raf.write(data);
+        }
+    }
+
+    // adds an empty bucket page at the end of the file and returns its page
+    // number
+    private synchronized int allocatePage() throws IOException {
+        int pageNo = numPages();
+        writePageData(pageNo, HashPage.createEmptyPageData());
+        return pageNo;
+    }
+
+    private HashPage getPage(TransactionId tid, int pageNo, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashPage) Database.getBufferPool().getPage(tid, new HashPageId(id, pageNo), perm);
+    }
+
+    private ArrayList<Page> insert(TransactionId tid, Field key, int pageNo, int slot)
+            throws DbException, IOException, TransactionAbortedException {
+        if (key.getType() != keyType) {
+            throw new DbException("key " + key + " is not of type " + keyType);
+        }
+        ArrayList<Page> dirty = new ArrayList<Page>();
+        HashDirectoryPage directory = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_WRITE);
+        int h = hash(key);
+        HashBucketPage bucket = (HashBucketPage) getPage(tid, directory.getBucket(h),
+                Permissions.READ_WRITE);
+        while (bucket.isFull() && bucket.getLocalDepth() < HashDirectoryPage.maxDepth()) {
+            split(tid, directory, bucket, h, dirty);
+            bucket = (HashBucketPage) getPage(tid, directory.getBucket(h), Permissions.READ_WRITE);
+        }
+
+        // a bucket at the largest depth takes the entry on its first
+        // overflow page with room, or on a new one
+        HashBucketPage page = bucket;
+        while (page.isFull() && page.getOverflow() != 0) {
+            page = (HashBucketPage) getPage(tid, page.getOverflow(), Permissions.READ_WRITE);
+        }
+        if (page.isFull()) {
+            HashBucketPage next = newBucketPage(tid, page.getLocalDepth(), dirty);
+            page.setOverflow(next.getId().getPageNumber());
+            dirty.add(page);
+            page = next;
+        }
+        page.insertEntry(key, pageNo, slot);
+        dirty.add(page);
+        return dirty;
+    }
+
+    // splits a full bucket on the bit after its local depth; h is the hash
+    // of a key in the bucket. The entries of the bucket's overflow pages are
+    // split too, and the overflow pages are relinked into the two new chains.
+    // Pages the smaller chains don't need stay empty in the file, since the
+    // file has no list of free pages.
+    private void split(TransactionId tid, HashDirectoryPage directory, HashBucketPage bucket,
+            int h, List<Page> dirty) throws DbException, IOException, TransactionAbortedException {
+        int depth = bucket.getLocalDepth();
+        if (depth == directory.getGlobalDepth()) {
+            directory.grow();
+        }
+        ArrayList<Field> keys = new ArrayList<Field>();
+        ArrayList<Integer> pageNos = new ArrayList<Integer>();
+        ArrayList<Integer> slots = new ArrayList<Integer>();
+        ArrayDeque<HashBucketPage> spare = new ArrayDeque<HashBucketPage>();
+        HashBucketPage page = bucket;
+        while (true) {
+            for (int i = page.getNumEntries() - 1; i >= 0; i--) {
+                keys.add(page.getKey(i));
+                pageNos.add(page.getEntryPage(i));
+                slots.add(page.getEntrySlot(i));
+                page.removeEntry(i);
+            }
+            int next = page.getOverflow();
+            page.setOverflow(0);
+            page.setLocalDepth(depth + 1);
+            dirty.add(page);
+            if (page != bucket) {
+                spare.add(page);
+            }
+            if (next == 0) {
+                break;
+            }
+            page = (HashBucketPage) getPage(tid, next, Permissions.READ_WRITE);
+        }
+
+        HashBucketPage sibling = spare.isEmpty() ? newBucketPage(tid, depth + 1, dirty) : spare.poll();
+        HashBucketPage[] tails = { bucket, sibling };
+        for (int i = 0; i < keys.size(); i++) {
+            int side = hash(keys.get(i)) >>> depth & 1;
+            if (tails[side].isFull()) {
+                HashBucketPage next = spare.isEmpty() ? newBucketPage(tid, depth + 1, dirty) : spare.poll();
+                tails[side].setOverflow(next.getId().getPageNumber());
+                tails[side] = next;
+            }
+            tails[side].insertEntry(keys.get(i), pageNos.get(i), slots.get(i));
+        }
+        directory.setBucket(h | (1 << depth), depth + 1, sibling.getId().getPageNumber());
+        dirty.add(directory);
+    }
+
+    // adds an empty bucket page of the given local depth to the file
+    private HashBucketPage newBucketPage(TransactionId tid, int localDepth, List<Page> dirty)
+            throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage page = (HashBucketPage) getPage(tid, allocatePage(), Permissions.READ_WRITE);
+        page.setLocalDepth(localDepth);
+        dirty.add(page);
+        return page;
+    }
+
+    private ArrayList<Page> delete(TransactionId tid, Field key, int pageNo, int slot)
+            throws DbException, TransactionAbortedException {
+        HashDirectoryPage directory = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_WRITE);
+        int next = directory.getBucket(hash(key));
+        while (next != 0) {
+            HashBucketPage page = (HashBucketPage) getPage(tid, next, Permissions.READ_WRITE);
+            if (page.deleteEntry(key, pageNo, slot)) {
+                ArrayList<Page> dirty = new ArrayList<Page>();
+                dirty.add(page);
+                return dirty;
+            }
+            next = page.getOverflow();
+        }
+        throw new DbException("the index has no entry " + key + " for page " + pageNo
+                + ", slot " + slot);
+    }
+
+    /**
+     * Inserts an entry, given as a tuple of this file's TupleDesc.
+     *
+     * @see #insertEntry
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return insert(tid, t.getField(0), ((IntField) t.getField(1)).getValue(),
+                ((IntField) t.getField(2)).getValue());
+    }
+
+    /**
+     * Deletes an entry, given as a tuple of this file's TupleDesc.
+     *
+     * @see #deleteEntry
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return delete(tid, t.getField(0), ((IntField) t.getField(1)).getValue(),
+                ((IntField) t.getField(2)).getValue());
+    }
+
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return insert(tid, t.getField(keyField), rid.getPageId().getPageNumber(),
+                rid.getTupleNumber());
+    }
+
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        return delete(tid, t.getField(keyField), rid.getPageId().getPageNumber(),
+                rid.getTupleNumber());
+    }
+
+    /** @return an iterator over all entries, in no particular order */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new EntryIterator(tid, null, null);
+    }
+
+    /**
+     * Returns the entries whose key satisfies a comparison with a value.
+     * Equality reads only the bucket of the value; other operators read
+     * every bucket.
+     *
+     * @param tid the transaction reading the index
+     * @param op the comparison
+     * @param operand the value to compare the keys with
+     */
+    public DbFileIterator entryIterator(TransactionId tid, Predicate.Op op, Field operand) {
+        return new EntryIterator(tid, op, operand);
+    }
+
+    public DbFileIterator indexIterator(TransactionId tid, Predicate p) {
+        return new IndexTupleIterator(tid, tableid, entryIterator(tid, p.getOp(), p.getOperand()));
+    }
+
+    // walks one bucket chain for equality, and all bucket pages otherwise
+    private class EntryIterator extends AbstractDbFileIterator {
+        private final TransactionId tid;
+        private final Predicate.Op op;
+        private final Field operand;
+        private HashBucketPage page;
+        private int pos;
+        // the next page to read in a scan of all pages
+        private int nextPage;
+        private int lastPage;
+
+        EntryIterator(TransactionId tid, Predicate.Op op, Field operand) {
+            this.tid = tid;
+            this.op = op;
+            this.operand = operand;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            HashDirectoryPage directory = (HashDirectoryPage) getPage(tid, 0, Permissions.READ_ONLY);
+            if (op == Predicate.Op.EQUALS) {
+                page = (HashBucketPage) getPage(tid, directory.getBucket(hash(operand)),
+                        Permissions.READ_ONLY);
+            } else {
+                nextPage = 1;
+                lastPage = numPages() - 1;
+                page = advance();
+            }
+            pos = 0;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            page = null;
+            nextPage = lastPage + 1;
+        }
+
+        // the page after the current one, or null at the end
+        private HashBucketPage advance() throws DbException, TransactionAbortedException {
+            if (op == Predicate.Op.EQUALS) {
+                int next = page.getOverflow();
+                return next == 0 ? null : (HashBucketPage) getPage(tid, next, Permissions.READ_ONLY);
+            }
+            return nextPage > lastPage ? null
+                    : (HashBucketPage) getPage(tid, nextPage++, Permissions.READ_ONLY);
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (page != null) {
+                if (pos >= page.getNumEntries()) {
+                    page = advance();
+                    pos = 0;
+                    continue;
+                }
+                int i = pos++;
+                Field key = page.getKey(i);
+                if (op == null || key.compare(op, operand)) {
+                    Tuple t = new Tuple(td);
+                    t.setField(0, key);
+                    t.setField(1, new IntField(page.getEntryPage(i)));
+                    t.setField(2, new IntField(page.getEntrySlot(i)));
+                    return t;
+                }
+            }
+            return null;
+        }
+    }
+}
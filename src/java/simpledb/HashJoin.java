@@ -0,0 +1,436 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * The HashJoin operator implements an equi-join by loading one input into an
+ * in-memory hash table on its join field and probing that table with the
+ * tuples of the other input. Each input is read once, instead of once per
+ * outer tuple as in a nested loops join.
+ * <p>
+ * The hash table is built on the smaller input. Since operators don't know
+ * their cardinality up front, open() reads both children in step until one
+ * of them runs out; that one becomes the build side, and the tuples already
+ * read from the other are probed first. Whichever side is built, the
+ * results are the fields of child1 followed by those of child2, like
+ * {@link Join}.
+ * <p>
+ * If both inputs outgrow the memory budget before either runs out, the join
+ * turns into a hybrid hash join. Both inputs are split into
+ * {@link #PARTITIONS} partitions by the hash of their join field. The build
+ * tuples of partition 0 stay in the hash table and its probe tuples are
+ * joined as they arrive; the other partitions are written to
+ * {@link SpillFile}s and joined one at a time afterwards, each with its own
+ * build tuples in the hash table. A partition is always joined in memory,
+ * even if it turns out to exceed the budget by itself.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the tuples of each input, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 4L << 20;
+
+    /** Number of partitions the inputs are split into when they spill. */
+    public static final int PARTITIONS = 16;
+    private static final int PARTITION_BITS = 4;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final TupleDesc tupleDesc;
+    private final long memoryBytes;
+
+    // join field value -> tuples of the build side with that value
+    private HashMap<Field, List<Tuple>> table;
+    // true if the table holds child1's tuples and child2 is probed
+    private boolean buildLeft;
+    // probe-side tuples read while looking for the smaller input
+    private Iterator<Tuple> bufferedProbe;
+    private Tuple probeTuple;
+    private Iterator<Tuple> matches;
+
+    // hybrid mode: spill files of partitions 1 and up (index 0 is unused),
+    // the partition being joined, and the reader of its probe tuples, which
+    // is null while the probe input itself is being read
+    private boolean spilling;
+    private SpillFile[] buildSpills;
+    private SpillFile[] probeSpills;
+    private int partition;
+    private DbFileIterator probeSpill;
+    private long spillBytes;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public HashJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Constructor for a join with the given memory budget. Tuples are
+     * accounted for by their size on disk.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param memoryBytes
+     *            how many bytes of tuples of one input may be held in memory
+     *            before the inputs are partitioned to disk
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public HashJoin(JoinPredicate p, OpIterator child1, OpIterator child2, long memoryBytes) {
+        this.memoryBytes = memoryBytes;
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("HashJoin only evaluates EQUALS predicates");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        build();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        deleteSpills();
+        table = null;
+        bufferedProbe = null;
+        probeTuple = null;
+        matches = null;
+    }
+
+    /**
+     * Restarts the join. In memory, the hash table is kept, so only the probe
+     * side is read again; a join that spilled starts over from both inputs.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (spilling) {
+            deleteSpills();
+            child1.rewind();
+            child2.rewind();
+            build();
+            return;
+        }
+        probeChild().rewind();
+        bufferedProbe = Collections.emptyIterator();
+        probeTuple = null;
+        matches = null;
+    }
+
+    /** @return true if the hash table was built on child1 */
+    public boolean isBuildLeft() {
+        return buildLeft;
+    }
+
+    /** @return true if the inputs were partitioned to disk */
+    public boolean isSpilling() {
+        return spilling;
+    }
+
+    /** @return the number of bytes written to spill files so far */
+    public long getSpillBytes() {
+        return spillBytes;
+    }
+
+    /**
+     * Estimates how many bytes a hybrid hash join writes to disk.
+     *
+     * @param buildBytes size of the smaller input
+     * @param probeBytes size of the larger input
+     * @param memoryBytes the join's memory budget
+     * @return 0 if the smaller input fits in memory, or the size of all
+     *         partitions but the one kept in memory otherwise
+     */
+    public static long estimateSpillBytes(long buildBytes, long probeBytes, long memoryBytes) {
+        if (Math.min(buildBytes, probeBytes) <= memoryBytes) {
+            return 0;
+        }
+        return (buildBytes + probeBytes) / PARTITIONS * (PARTITIONS - 1);
+    }
+
+    // reads both inputs in step until one runs out, and hashes that one;
+    // switches to partitioning if both outgrow the memory budget first
+    private void build() throws DbException, TransactionAbortedException {
+        List<Tuple> left = new ArrayList<Tuple>();
+        List<Tuple> right = new ArrayList<Tuple>();
+        long leftSize = child1.getTupleDesc().getSize();
+        long rightSize = child2.getTupleDesc().getSize();
+        spilling = false;
+        spillBytes = 0;
+        while (true) {
+            if (!child1.hasNext()) {
+                buildLeft = true;
+                break;
+            }
+            left.add(child1.next());
+            if (!child2.hasNext()) {
+                buildLeft = false;
+                break;
+            }
+            right.add(child2.next());
+            if (Math.min(left.size() * leftSize, right.size() * rightSize) > memoryBytes) {
+                buildLeft = false;
+                spilling = true;
+                break;
+            }
+        }
+        table = new HashMap<Field, List<Tuple>>();
+        probeTuple = null;
+        matches = null;
+        probeSpill = null;
+        if (spilling) {
+            partitionBuild(buildLeft ? left : right);
+        } else {
+            int buildField = buildLeft ? p.getField1() : p.getField2();
+            for (Tuple t : buildLeft ? left : right) {
+                addToTable(t, buildField);
+            }
+        }
+        bufferedProbe = (buildLeft ? right : left).iterator();
+    }
+
+    private void addToTable(Tuple t, int buildField) {
+        table.computeIfAbsent(t.getField(buildField), k -> new ArrayList<Tuple>(1)).add(t);
+    }
+
+    // splits the build input into the table (partition 0) and spill files
+    private void partitionBuild(List<Tuple> buffered) throws DbException, TransactionAbortedException {
+        int buildField = buildLeft ? p.getField1() : p.getField2();
+        OpIterator build = buildLeft ? child1 : child2;
+        OpIterator probe = probeChild();
+        buildSpills = new SpillFile[PARTITIONS];
+        probeSpills = new SpillFile[PARTITIONS];
+        boolean partitioned = false;
+        try {
+            for (int i = 1; i < PARTITIONS; i++) {
+                buildSpills[i] = new SpillFile(build.getTupleDesc());
+                probeSpills[i] = new SpillFile(probe.getTupleDesc());
+            }
+            Iterator<Tuple> it = buffered.iterator();
+            while (true) {
+                Tuple t = it.hasNext() ? it.next() : build.hasNext() ? build.next() : null;
+                if (t == null) {
+                    break;
+                }
+                int part = partitionOf(t.getField(buildField));
+                if (part == 0) {
+                    addToTable(t, buildField);
+                } else {
+                    buildSpills[part].add(t);
+                }
+            }
+            buffered.clear();
+            for (int i = 1; i < PARTITIONS; i++) {
+                buildSpills[i].finish();
+            }
+            partitioned = true;
+        } catch (IOException e) {
+            throw new DbException("can't spill hash join input: " + e.getMessage());
+        } finally {
+            if (!partitioned) {
+                deleteSpills();
+            }
+        }
+        partition = 0;
+    }
+
+    // the partition of a join field value; uses the high bits of a
+    // multiplicative hash, so partition 0 still spreads over the table
+    private static int partitionOf(Field f) {
+        return (f.hashCode() * 0x9E3779B9) >>> (32 - PARTITION_BITS);
+    }
+
+    private OpIterator probeChild() {
+        return buildLeft ? child2 : child1;
+    }
+
+    // the next tuple of the probe input, or null if it is exhausted
+    private Tuple nextProbeInput() throws DbException, TransactionAbortedException {
+        if (bufferedProbe.hasNext()) {
+            return bufferedProbe.next();
+        }
+        OpIterator probe = probeChild();
+        return probe.hasNext() ? probe.next() : null;
+    }
+
+    // the next probe-side tuple to look up in the table, or null if the
+    // join is done
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        int probeField = buildLeft ? p.getField2() : p.getField1();
+        while (true) {
+            if (probeSpill == null) {
+                if (spilling && partition >= PARTITIONS) {
+                    return null;
+                }
+                Tuple t = nextProbeInput();
+                if (t == null) {
+                    if (!spilling) {
+                        return null;
+                    }
+                    finishProbeSpills();
+                    if (!loadNextPartition()) {
+                        return null;
+                    }
+                    continue;
+                }
+                if (spilling) {
+                    int part = partitionOf(t.getField(probeField));
+                    if (part != 0) {
+                        try {
+                            probeSpills[part].add(t);
+                        } catch (IOException e) {
+                            throw new DbException("can't spill hash join input: " + e.getMessage());
+                        }
+                        continue;
+                    }
+                }
+                return t;
+            }
+            if (probeSpill.hasNext()) {
+                return probeSpill.next();
+            }
+            if (!loadNextPartition()) {
+                return null;
+            }
+        }
+    }
+
+    // the probe input is exhausted: the spilled partitions are next
+    private void finishProbeSpills() throws DbException {
+        try {
+            for (int i = 1; i < PARTITIONS; i++) {
+                probeSpills[i].finish();
+                spillBytes += buildSpills[i].getBytes() + probeSpills[i].getBytes();
+            }
+        } catch (IOException e) {
+            throw new DbException("can't spill hash join input: " + e.getMessage());
+        }
+    }
+
+    // loads the build tuples of the next spilled partition that has both
+    // build and probe tuples; returns false when there is none left
+    private boolean loadNextPartition() throws DbException, TransactionAbortedException {
+        int buildField = buildLeft ? p.getField1() : p.getField2();
+        if (probeSpill != null) {
+            probeSpill.close();
+        }
+        while (++partition < PARTITIONS) {
+            if (buildSpills[partition].getNumTuples() == 0
+                    || probeSpills[partition].getNumTuples() == 0) {
+                continue;
+            }
+            table.clear();
+            DbFileIterator it = buildSpills[partition].iterator();
+            it.open();
+            while (it.hasNext()) {
+                addToTable(it.next(), buildField);
+            }
+            it.close();
+            probeSpill = probeSpills[partition].iterator();
+            probeSpill.open();
+            return true;
+        }
+        table.clear();
+        probeSpill = null;
+        return false;
+    }
+
+    private void deleteSpills() {
+        SpillFile.deleteAll(buildSpills);
+        SpillFile.deleteAll(probeSpills);
+        buildSpills = null;
+        probeSpills = null;
+        probeSpill = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Each probe tuple is joined with every build tuple whose
+     * join field equals its own.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (table == null) {
+            return null;
+        }
+        int probeField = buildLeft ? p.getField2() : p.getField1();
+        while (true) {
+            if (matches != null && matches.hasNext()) {
+                Tuple match = matches.next();
+                return buildLeft ? Tuple.merge(tupleDesc, match, probeTuple)
+                        : Tuple.merge(tupleDesc, probeTuple, match);
+            }
+            probeTuple = nextProbe();
+            if (probeTuple == null) {
+                return null;
+            }
+            List<Tuple> bucket = table.get(probeTuple.getField(probeField));
+            matches = bucket == null ? null : bucket.iterator();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * HashPage holds what the page types of a {@link HashIndexFile} have in
+ * common: the page id, the dirty flag and the before image. Page 0 of a
+ * file is its {@link HashDirectoryPage}; every other page is a
+ * {@link HashBucketPage}.
+ */
+public abstract class HashPage implements Page {
+
+    protected final HashPageId pid;
+    protected final Type keyType;
+    private volatile TransactionId dirtier;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    protected HashPage(HashPageId pid, Type keyType) {
+        this.pid = pid;
+        this.keyType = keyType;
+    }
+
+    /**
+     * Creates the directory page or a bucket page, depending on the page
+     * number.
+     *
+     * @param pid the id of the page
+     * @param data the contents of the page
+     * @param keyType the type of the keys of the page's file
+     */
+    public static HashPage create(HashPageId pid, byte[] data, Type keyType) {
+        if (pid.getPageNumber() == 0) {
+            return new HashDirectoryPage(pid, data);
+        }
+        return new HashBucketPage(pid, data, keyType);
+    }
+
+    /** @return the data of an empty page */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    // the key type of the HashIndexFile with the given id, for pages rebuilt
+    // by recovery from their bytes alone
+    static Type keyTypeOf(int fileId) {
+        return ((HashIndexFile) Database.getCatalog().getDatabaseFile(fileId)).getKeyType();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public HashPage getBeforeImage() {
+        synchronized (oldDataLock) {
+            return create(pid, oldData.clone(), keyType);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,16 +12,39 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * Page I/O goes through one FileChannel per table, opened on first use and
+ * kept open until {@link #close}, with positional reads and writes. In
+ * memory-mapped mode, pages that lie entirely inside the file are copied to
+ * and from MappedByteBuffer segments instead of going through read/write
+ * system calls.
  * 
  * @see simpledb.HeapPage#HeapPage
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
+    /** Number of pages mapped at a time in memory-mapped mode. */
+    public static final int MAPPED_SEGMENT_PAGES = 256;
+
+    /** Number of pages a bulk append fills in memory and writes at once. */
+    public static final int EXTENT_PAGES = 64;
+
     private File f;
     private TupleDesc td;
     private int id;
-    private int pageSize;
+    private final boolean memoryMapped;
+    private int readAheadPages;
+    // built on the first insert, guarded by this
+    private FreeSpaceMap freeSpace;
+
+    // opened lazily by channel(), guarded by this
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private boolean writable;
+    // mapped segments by segment number, and the page size they were mapped with
+    private final HashMap<Integer, MappedByteBuffer> segments;
+    private int segmentPageSize;
 
 
     /**
@@ -29,10 +55,27 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            true to read and write pages through memory-mapped regions
+     *            of the file rather than positional channel I/O
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
         this.f = f;
         this.td = td;
         this.id = f.getAbsoluteFile().hashCode();
+        this.memoryMapped = memoryMapped;
+        this.segments = new HashMap<>();
+        this.readAheadPages = ReadAhead.DEFAULT_MAX_PAGES;
     }
 
     /**
@@ -69,24 +112,51 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Sets the maximum number of pages a scan of this file reads ahead of
+     * itself in the background. The actual window adapts to the scan.
+     *
+     * @param maxPages the read-ahead limit; 0 disables read-ahead
+     */
+    public void setReadAheadPages(int maxPages) {
+        this.readAheadPages = maxPages;
+    }
+
+    /** @return the maximum number of pages a scan of this file reads ahead */
+    public int getReadAheadPages() {
+        return readAheadPages;
+    }
+
+    /** @return true if pages of this file are accessed through mapped memory */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
+        int pageSize = BufferPool.getPageSize();
+        long offset = (long) pageSize * pid.getPageNumber();
+        // checks if the page isn't out of bounds
+        if (pid.getPageNumber() < 0 || offset + pageSize > this.f.length()) {
+            throw new IllegalArgumentException("page offset is resulting in a out of bounds");
+        }
         try {
-            int pageSize = BufferPool.getPageSize();
-            byte[] pageData = new byte[pageSize];
-            RandomAccessFile raf = new RandomAccessFile(this.f, "r");
-            int offset = pageSize * pid.getPageNumber();
-            // checks if the page isn't out of bounds
-            if (offset + pageSize > raf.length()) {
-                throw new IllegalArgumentException("page offset is resulting in a out of bounds");
+            HeapPage page = null;
+            if (memoryMapped) {
+                ByteBuffer mapped = mappedPage(pid.getPageNumber());
+                if (mapped != null) {
+                    page = new HeapPage((HeapPageId) pid, mapped);
+                }
+            }
+            if (page == null) {
+                // reads the page straight into its frame
+                page = new HeapPage((HeapPageId) pid, channel(), offset);
             }
-            raf.seek(offset);
-            raf.read(pageData);
-            // reads a random page of data and returns the page
-            Page page = new HeapPage((HeapPageId) pid, pageData);
+            page.markSynced();
+            noteFreeSpace(page);
             return page;
-        } catch (IllegalArgumentException | IOException e) {
+        } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
@@ -96,19 +166,36 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        try {
-            // creates a raf
-            RandomAccessFile write = new RandomAccessFile(getFile(), "rw");
-            pageSize = BufferPool.getPageSize();
-            byte[] pageData = page.getPageData();
-            // conducts the write feature and closes the raf.
-            write.seek((long) pageSize * page.getId().getPageNumber());
-            write.write(pageData);
-            write.close();
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new IOException();
+        int pageNo = page.getId().getPageNumber();
+        if (!(page instanceof HeapPage)) {
+            writeRange(pageNo, ByteBuffer.wrap(page.getPageData()));
+            return;
+        }
+        // only the parts of the page that changed since it was last read or
+        // written need to go to the file
+        HeapPage heapPage = (HeapPage) page;
+        ByteBuffer pageData = heapPage.getPageBuffer();
+        for (int[] range : heapPage.getUnsyncedRanges()) {
+            pageData.limit(range[1]).position(range[0]);
+            writeRange(pageNo, pageData);
+        }
+        heapPage.markSynced();
+        noteFreeSpace(heapPage);
+    }
+
+    // writes the remaining bytes of data to the given page, at the offset
+    // within the page given by data's position
+    private void writeRange(int pageNo, ByteBuffer data) throws IOException {
+        int inPage = data.position();
+        if (memoryMapped) {
+            ByteBuffer mapped = mappedPage(pageNo);
+            if (mapped != null) {
+                mapped.position(inPage);
+                mapped.put(data);
+                return;
+            }
         }
+        writeFully(data, (long) BufferPool.getPageSize() * pageNo + inPage);
     }
 
     /**
@@ -116,7 +203,82 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) Math.ceil(this.f.length() / BufferPool.getPageSize());
+        return (int) (this.f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Closes the channel and drops the mapped segments of this file. The
+     * HeapFile stays usable; the next page access reopens the file.
+     */
+    public synchronized void close() {
+        segments.clear();
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        raf = null;
+        channel = null;
+    }
+
+    // returns the channel of this file, opening it on first use
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            try {
+                raf = new RandomAccessFile(this.f, "rw");
+                writable = true;
+            } catch (FileNotFoundException e) {
+                // read-only table
+                raf = new RandomAccessFile(this.f, "r");
+                writable = false;
+            }
+            channel = raf.getChannel();
+            segments.clear();
+        }
+        return channel;
+    }
+
+    // writes all of data at the given offset of the file
+    private void writeFully(ByteBuffer data, long offset) throws IOException {
+        FileChannel ch = channel();
+        long position = offset;
+        while (data.hasRemaining()) {
+            position += ch.write(data, position);
+        }
+    }
+
+    /**
+     * Returns a page-sized view of the given page inside a mapped segment, or
+     * null if the page is not entirely inside the file. Segments are mapped
+     * on first use and remapped if the file has grown past a partial one;
+     * a mapping never extends the file.
+     */
+    private synchronized ByteBuffer mappedPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        if (pageSize != segmentPageSize) {
+            segments.clear();
+            segmentPageSize = pageSize;
+        }
+        FileChannel ch = channel();
+        int segment = pageNo / MAPPED_SEGMENT_PAGES;
+        long segmentStart = (long) segment * MAPPED_SEGMENT_PAGES * pageSize;
+        int inSegment = (pageNo % MAPPED_SEGMENT_PAGES) * pageSize;
+        MappedByteBuffer region = segments.get(segment);
+        if (region == null || region.capacity() < inSegment + pageSize) {
+            long length = Math.min((long) MAPPED_SEGMENT_PAGES * pageSize, ch.size() - segmentStart);
+            if (length < inSegment + pageSize) {
+                return null;
+            }
+            region = ch.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY,
+                    segmentStart, length);
+            segments.put(segment, region);
+        }
+        ByteBuffer view = region.duplicate();
+        view.limit(inSegment + pageSize);
+        view.position(inSegment);
+        return view.slice();
     }
 
     // see DbFile.java for javadocs
@@ -124,22 +286,27 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        // the free-space map sends the insert to a page with a free slot,
+        // without locking the full pages before it
+        FreeSpaceMap fsm = getFreeSpaceMap();
         HeapPage page = null;
-        int currentPageNumber = 0;
-        // iterates through the current page number to insert tuple
-        for (currentPageNumber = 0; currentPageNumber < numPages(); currentPageNumber++) {
-            page = (HeapPage) Database.getBufferPool().getPage(tid,
+        int currentPageNumber;
+        for (currentPageNumber = fsm.nextFreePage(0); currentPageNumber < numPages();
+                currentPageNumber = fsm.nextFreePage(currentPageNumber + 1)) {
+            HeapPage candidate = (HeapPage) Database.getBufferPool().getPage(tid,
                     new HeapPageId(getId(), currentPageNumber), Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() > 0) {
+            if (candidate.getNumEmptySlots() > 0) {
+                page = candidate;
                 break;
             }
+            fsm.setFull(currentPageNumber, true);
         }
         // if no pages have space then will write out pages and then insert the tupl
-        if (currentPageNumber == numPages()) {
+        if (page == null) {
+            currentPageNumber = numPages();
             try {
-                FileOutputStream write = new FileOutputStream(getFile(), true);
-                write.write(new HeapPage(new HeapPageId(getId(), numPages()), new byte[BufferPool.getPageSize()]).getPageData());
-                write.close();
+                writeFully(ByteBuffer.wrap(HeapPage.createEmptyPageData()),
+                        (long) BufferPool.getPageSize() * currentPageNumber);
                 page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), currentPageNumber), Permissions.READ_WRITE);
             } catch (Exception e) {
                 e.printStackTrace();
@@ -147,6 +314,9 @@ public class HeapFile implements DbFile {
             }
         }
         page.insertTuple(t);
+        if (page.getNumEmptySlots() == 0) {
+            fsm.setFull(currentPageNumber, true);
+        }
         return new ArrayList<>(List.of(page));
     }
 
@@ -158,27 +328,222 @@ public class HeapFile implements DbFile {
         // don't need to account if not enough pages and simply delete the tuple
         HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
+        noteFreeSpace(page);
         return new ArrayList<>(List.of(page));
 
     }
 
+    /**
+     * Returns the free-space map of this file, building it from the headers
+     * of the pages on disk on first use. Only the header of each page is
+     * read, and no locks are taken, since the map is only a hint.
+     */
+    public synchronized FreeSpaceMap getFreeSpaceMap() throws IOException {
+        if (freeSpace == null) {
+            FreeSpaceMap fsm = new FreeSpaceMap();
+            int pageSize = BufferPool.getPageSize();
+            int numSlots = HeapPage.slotsPerPage(td);
+            ByteBuffer header = ByteBuffer.allocate((numSlots + 7) / 8);
+            FileChannel ch = channel();
+            int pages = numPages();
+            for (int pageNo = 0; pageNo < pages; pageNo++) {
+                header.clear();
+                while (header.hasRemaining()) {
+                    if (ch.read(header, (long) pageSize * pageNo + header.position()) < 0)
+                        break;
+                }
+                fsm.setFull(pageNo, HeapPage.countUsedSlots(header, numSlots) == numSlots);
+            }
+            freeSpace = fsm;
+        }
+        return freeSpace;
+    }
+
+    // brings the free-space map, if there is one yet, up to date with a page
+    private void noteFreeSpace(HeapPage page) {
+        noteFreeSpace(page.getId().getPageNumber(), page.getNumEmptySlots() == 0);
+    }
+
+    private void noteFreeSpace(int pageNo, boolean isFull) {
+        FreeSpaceMap fsm;
+        synchronized (this) {
+            fsm = freeSpace;
+        }
+        if (fsm != null) {
+            fsm.setFull(pageNo, isFull);
+        }
+    }
+
+    /**
+     * Returns an appender that adds tuples to the end of this file on behalf
+     * of the given transaction, for loading many tuples at once.
+     *
+     * @param tid the transaction performing the load
+     * @see BulkAppender
+     */
+    public BulkAppender bulkAppender(TransactionId tid) {
+        return new BulkAppender(tid);
+    }
+
+    /**
+     * BulkAppender packs tuples into new pages in memory and writes them to
+     * the end of the file {@link #EXTENT_PAGES} pages at a time, with one
+     * write per extent. The pages never go through the buffer pool, so a
+     * load isn't limited by how many dirty pages the pool can hold, and no
+     * free slots of existing pages are reused.
+     * <p>
+     * The new pages are write-locked for the transaction before they are
+     * filled, and each one is logged with an empty before image ahead of
+     * its extent being written, so an abort or recovery rolls the load back
+     * like any other update. Tuples are only guaranteed to be in the file
+     * after {@link #flush} or {@link #close}.
+     */
+    public class BulkAppender {
+        private final TransactionId tid;
+        private final int pageSize;
+        private final int numSlots;
+        private final int headerSize;
+        private final int tupleSize;
+        private final ByteBuffer extent;
+        private final ByteBuffer emptyPage;
+        // page number of the first page in the extent, and pages started in it
+        private int firstPage;
+        private int pages;
+        // next free slot of the last page started
+        private int slot;
+        private int appended;
+
+        BulkAppender(TransactionId tid) {
+            this.tid = tid;
+            this.pageSize = BufferPool.getPageSize();
+            this.numSlots = HeapPage.slotsPerPage(td);
+            this.headerSize = (numSlots + 7) / 8;
+            this.tupleSize = td.getSize();
+            this.extent = ByteBuffer.allocateDirect(EXTENT_PAGES * pageSize);
+            this.emptyPage = ByteBuffer.wrap(HeapPage.createEmptyPageData());
+        }
+
+        /**
+         * Adds a tuple to the file and sets its RecordId.
+         *
+         * @param t the tuple to add
+         * @throws DbException if the tuple doesn't match the file's TupleDesc
+         */
+        public void append(Tuple t) throws DbException, IOException, TransactionAbortedException {
+            if (!td.equals(t.getTupleDesc())) {
+                throw new DbException("tupleDesc has to be the same to insert");
+            }
+            if (pages == 0 || slot == numSlots) {
+                if (pages == EXTENT_PAGES) {
+                    flush();
+                }
+                startPage();
+            }
+            int pageStart = (pages - 1) * pageSize;
+            int offset = pageStart + headerSize + slot * tupleSize;
+            for (int j = 0; j < td.numFields(); j++) {
+                t.getField(j).serialize(extent, offset);
+                offset += td.getFieldType(j).getLen();
+            }
+            int headerByte = pageStart + slot / 8;
+            extent.put(headerByte, (byte) (extent.get(headerByte) | (1 << (slot % 8))));
+            t.setRecordId(new RecordId(new HeapPageId(getId(), firstPage + pages - 1), slot));
+            slot++;
+            appended++;
+        }
+
+        // starts a new, empty page at the end of the extent
+        private void startPage() throws TransactionAbortedException {
+            if (pages == 0) {
+                firstPage = numPages();
+            }
+            HeapPageId pid = new HeapPageId(getId(), firstPage + pages);
+            Database.getBufferPool().lockPage(tid, pid, Permissions.READ_WRITE);
+            ByteBuffer page = extent.duplicate();
+            page.limit((pages + 1) * pageSize).position(pages * pageSize);
+            while (page.hasRemaining()) {
+                page.put((byte) 0);
+            }
+            pages++;
+            slot = 0;
+        }
+
+        /**
+         * Logs and writes the pages filled so far. Later tuples go to new
+         * pages, even if the last page written still has room.
+         */
+        public void flush() throws IOException {
+            if (pages == 0) {
+                return;
+            }
+            LogFile log = Database.getLogFile();
+            for (int i = 0; i < pages; i++) {
+                ByteBuffer page = extent.duplicate();
+                page.limit((i + 1) * pageSize).position(i * pageSize);
+                log.logWrite(tid, HeapPage.class, new HeapPageId(getId(), firstPage + i), emptyPage, page);
+            }
+            log.force();
+
+            ByteBuffer data = extent.duplicate();
+            data.limit(pages * pageSize).position(0);
+            writeFully(data, (long) pageSize * firstPage);
+            for (int i = 0; i < pages; i++) {
+                // any cached copy of these page numbers is stale now
+                Database.getBufferPool().discardPage(new HeapPageId(getId(), firstPage + i));
+                noteFreeSpace(firstPage + i, i < pages - 1 || slot == numSlots);
+            }
+            pages = 0;
+        }
+
+        /**
+         * Writes the remaining pages.
+         *
+         * @return the number of tuples appended
+         */
+        public int close() throws IOException {
+            flush();
+            return appended;
+        }
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         return new HeapFileIterator(this, tid);
     }
 
+    /**
+     * Returns an iterator over the tuples of this file that pass every one of
+     * the given predicates. The predicates are evaluated on the raw page
+     * bytes, so tuples that fail them are never decoded.
+     *
+     * @param tid the transaction the scan runs in
+     * @param predicates predicates over the fields of this file's TupleDesc
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new HeapFileIterator(this, tid, predicates);
+    }
+
     // using the DbFileIterator interface to allow the HeapFile iterator to identify if there are empty
     // pages or not which will save a lot of space
     public class HeapFileIterator implements DbFileIterator {
         private final HeapFile heapFile;
         private final TransactionId transactionId;
+        private final Predicate[] predicates;
         private int currPageNo;
         private Iterator<Tuple> iterator;
+        // bulk-read strategy for tables that don't fit in the buffer pool
+        private BufferRing ring;
+        private ReadAhead readAhead;
 
         public HeapFileIterator(HeapFile hf, TransactionId tid) {
+            this(hf, tid, new Predicate[0]);
+        }
+
+        public HeapFileIterator(HeapFile hf, TransactionId tid, Predicate[] predicates) {
             heapFile = hf;
             transactionId = tid;
+            this.predicates = predicates;
         }
 
         /**
@@ -187,6 +552,13 @@ public class HeapFile implements DbFile {
          */
         public void open()
                 throws DbException, TransactionAbortedException {
+            // a table bigger than the whole pool would only flush it, so such
+            // scans read through a small private ring of frames instead
+            BufferPool pool = Database.getBufferPool();
+            int poolPages = pool.getNumPages();
+            ring = heapFile.numPages() > poolPages ? BufferRing.bulkRead(poolPages) : null;
+            readAhead = heapFile.getReadAheadPages() > 0
+                    ? new ReadAhead(heapFile, pool, ring, heapFile.getReadAheadPages()) : null;
             currPageNo = 0;
             iterator = getTupleIterator(currPageNo);
         }
@@ -238,14 +610,19 @@ public class HeapFile implements DbFile {
          */
         public void close() {
             iterator = null;
+            ring = null;
+            readAhead = null;
         }
 
         // private helper method
         private Iterator<Tuple> getTupleIterator(int pageNo)
                 throws NoSuchElementException, TransactionAbortedException, DbException {
+            if (readAhead != null) {
+                readAhead.pageRequested(pageNo);
+            }
             HeapPage tempPage = (HeapPage) Database.getBufferPool().getPage(
-                    transactionId, new HeapPageId(heapFile.getId(), pageNo), Permissions.READ_ONLY);
-            return tempPage.iterator();
+                    transactionId, new HeapPageId(heapFile.getId(), pageNo), Permissions.READ_ONLY, ring);
+            return tempPage.iterator(predicates);
         }
     }
 
@@ -1,14 +1,23 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
  * an array of tuples and converts it to
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
- * data file.
+ * data file. Text files are parsed and encoded in parallel.
  */
 
 public class HeapFileEncoder {
@@ -77,6 +86,9 @@ public class HeapFileEncoder {
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * Large inputs are converted in parallel on the common fork-join pool;
+    * see {@link #convert(File, File, int, int, Type[], char, ForkJoinPool)}.
     *
     * @see HeapPage
     * @see HeapFile
@@ -90,137 +102,342 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              ForkJoinPool.commonPool());
+  }
+
+   /** Convert the specified input text file into a binary page file, using
+    * the given fork-join pool. <br>
+    * The input is split at line boundaries into chunks of at least
+    * {@link #MIN_CHUNK_BYTES} bytes, about one per worker of the pool. A
+    * first parallel pass counts the records of each chunk, which fixes the
+    * page and slot every record goes to; a second pass parses and encodes
+    * the chunks in parallel, each writing its records to their offsets in
+    * the output file. The output is the same as converting the file on a
+    * single thread: every page but the last is full.
+    * <p>
+    * Blank lines and carriage returns are ignored. An integer field that
+    * can't be parsed is reported and stored as 0.
+    *
+    * @param pool the pool that parses and encodes the chunks
+    * @see #convert(File, File, int, int, Type[], char)
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, ForkJoinPool pool)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, pool,
+              MIN_CHUNK_BYTES);
+  }
+
+  // the parallel conversion, with the chunk size as a parameter for tests
+  static void convert(File inFile, File outFile, int npagebytes, int numFields,
+                 Type[] typeAr, char fieldSeparator, ForkJoinPool pool, int minChunkBytes)
+      throws IOException {
+      PageLayout layout = new PageLayout(npagebytes, numFields, typeAr);
+      try (FileChannel in = new FileInputStream(inFile).getChannel();
+           RandomAccessFile out = new RandomAccessFile(outFile, "rw")) {
+          long[] bounds = chunkBounds(in, minChunkBytes, pool.getParallelism());
+          int chunks = bounds.length - 1;
+
+          // first pass: count the records in each chunk
+          List<Callable<Long>> counts = new ArrayList<Callable<Long>>();
+          for (int i = 0; i < chunks; i++) {
+              final long from = bounds[i], to = bounds[i + 1];
+              counts.add(() -> countRecords(in, from, to));
+          }
+          long[] firstRecord = new long[chunks + 1];
+          List<Long> counted = runAll(pool, counts);
+          for (int i = 0; i < chunks; i++) {
+              firstRecord[i + 1] = firstRecord[i] + counted.get(i);
+          }
+          final long totalRecords = firstRecord[chunks];
+
+          // an empty input still gets one (empty) page; the pages are
+          // preallocated as zeroes, which is also the padding
+          long npages = Math.max(1, (totalRecords + layout.nrecords - 1) / layout.nrecords);
+          out.setLength(0);
+          out.setLength(npages * npagebytes);
+          FileChannel outChannel = out.getChannel();
+
+          // second pass: parse and encode every chunk into its pages
+          List<Callable<Long>> encodes = new ArrayList<Callable<Long>>();
+          for (int i = 0; i < chunks; i++) {
+              final long from = bounds[i], to = bounds[i + 1], first = firstRecord[i];
+              encodes.add(() -> encodeChunk(in, from, to, outChannel, layout, fieldSeparator,
+                      first, totalRecords));
+          }
+          runAll(pool, encodes);
+      }
+  }
+
+  /** Smallest number of input bytes handed to one conversion task. */
+  public static final int MIN_CHUNK_BYTES = 1 << 20;
+
+  // sizes of the records, header and slots of the pages being written
+  private static class PageLayout {
+      final int npagebytes;
+      final int numFields;
+      final Type[] typeAr;
+      final int nrecbytes;
+      final int nrecords;
+      final int nheaderbytes;
+
+      PageLayout(int npagebytes, int numFields, Type[] typeAr) {
+          this.npagebytes = npagebytes;
+          this.numFields = numFields;
+          this.typeAr = typeAr;
+          int recbytes = 0;
+          for (int i = 0; i < numFields ; i++) {
+              recbytes += typeAr[i].getLen();
+          }
+          this.nrecbytes = recbytes;
+          this.nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
+          // one header bit per record, rounded up to whole bytes
+          this.nheaderbytes = (nrecords + 7) / 8;
+      }
+
+      int slotOffset(int slot) {
+          return nheaderbytes + slot * nrecbytes;
+      }
+  }
+
+  // splits the input into chunks that start at the beginning of a line;
+  // returns the chunk boundaries, starting with 0 and ending with the size
+  private static long[] chunkBounds(FileChannel in, int minChunkBytes, int parallelism)
+      throws IOException {
+      long size = in.size();
+      int chunks = (int) Math.max(1, Math.min(parallelism, size / Math.max(1, minChunkBytes)));
+      long[] bounds = new long[chunks + 1];
+      ByteBuffer buf = ByteBuffer.allocate(4096);
+      for (int i = 1; i < chunks; i++) {
+          // the chunk starts after the first newline at or after its nominal
+          // start, or where the previous chunk starts if that is later
+          long pos = Math.max(bounds[i - 1], size * i / chunks - 1);
+          long start = size;
+          while (pos < size && start == size) {
+              buf.clear();
+              int n = in.read(buf, pos);
+              if (n <= 0)
+                  break;
+              for (int j = 0; j < n; j++) {
+                  if (buf.get(j) == '\n') {
+                      start = pos + j + 1;
+                      break;
+                  }
+              }
+              pos += n;
+          }
+          bounds[i] = start;
+      }
+      bounds[chunks] = size;
+      return bounds;
+  }
+
+  // whether a character, other than a newline, makes its line a record
+  // rather than a blank line. Both passes classify lines with this, since
+  // the first fixes the slot of every record the second writes.
+  private static boolean isRecordChar(int c) {
+      return c != '\r';
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+  // counts the non-blank lines in bytes [from, to) of the input
+  private static long countRecords(FileChannel in, long from, long to) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+      long records = 0;
+      boolean blank = true;
+      for (long pos = from; pos < to; ) {
+          buf.clear();
+          buf.limit((int) Math.min(buf.capacity(), to - pos));
+          int n = in.read(buf, pos);
+          if (n <= 0)
+              break;
+          for (int j = 0; j < n; j++) {
+              byte b = buf.get(j);
+              if (b == '\n') {
+                  if (!blank)
+                      records++;
+                  blank = true;
+              } else if (isRecordChar(b)) {
+                  blank = false;
+              }
+          }
+          pos += n;
+      }
+      // a last line without a newline
+      if (!blank)
+          records++;
+      return records;
+  }
+
+  // parses bytes [from, to) of the input and writes its records to the
+  // output, the first of them as record number firstRecord of the file
+  private static long encodeChunk(FileChannel in, long from, long to, FileChannel out,
+                 PageLayout layout, char fieldSeparator, long firstRecord, long totalRecords)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new InputStreamReader(
+              new RegionInputStream(in, from, to), Charset.defaultCharset()), 1 << 16);
+      ByteBuffer page = ByteBuffer.allocate(layout.npagebytes);
+      String[] fields = new String[layout.numFields];
+      StringBuilder field = new StringBuilder();
+      long record = firstRecord;
+      long pageNo = -1;
+      int firstSlot = 0;
+      int endSlot = 0;
+      int fieldNo = 0;
+      // a line is blank until it has a record character; a field may be
+      // empty on a line that isn't
+      boolean blank = true;
+      while (true) {
+          int c = br.read();
+          if (c == '\n' || c == -1) {
+              if (!blank) {
+                  fields[fieldNo++] = field.toString();
+                  if (fieldNo < layout.numFields)
+                      throw new IOException("Line has fewer than " + layout.numFields + " fields");
+                  long recordPage = record / layout.nrecords;
+                  int slot = (int) (record % layout.nrecords);
+                  if (recordPage != pageNo) {
+                      writePage(out, page, pageNo, firstSlot, endSlot, layout, totalRecords);
+                      pageNo = recordPage;
+                      firstSlot = slot;
+                      Arrays.fill(page.array(), (byte) 0);
+                  }
+                  encodeRecord(page, layout.slotOffset(slot), fields, layout);
+                  endSlot = slot + 1;
+                  record++;
+              }
+              field.setLength(0);
+              fieldNo = 0;
+              blank = true;
+              if (c == -1)
+                  break;
+              continue;
+          }
+          // Ignore Windows/Notepad special line endings
+          if (!isRecordChar(c))
+              continue;
+          blank = false;
+          if (c == fieldSeparator) {
+              if (fieldNo >= layout.numFields - 1)
+                  throw new IOException("Line has more than " + layout.numFields + " fields");
+              fields[fieldNo++] = field.toString();
+              field.setLength(0);
+          } else {
+              field.append((char) c);
+          }
+      }
+      writePage(out, page, pageNo, firstSlot, endSlot, layout, totalRecords);
+      br.close();
+      return record - firstRecord;
+  }
+
+  // serializes one record's fields at the given offset of the page
+  private static void encodeRecord(ByteBuffer page, int offset, String[] fields, PageLayout layout) {
+      for (int i = 0; i < layout.numFields; i++) {
+          String s = fields[i];
+          if (layout.typeAr[i] == Type.INT_TYPE) {
+              int value = 0;
+              try {
+                  value = Integer.parseInt(s.trim());
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + s);
+              }
+              page.putInt(offset, value);
+          }
+          else   if (layout.typeAr[i] == Type.STRING_TYPE) {
+              s = s.trim();
+              if (s.length() > Type.STRING_LEN)
+                  s = s.substring(0, Type.STRING_LEN);
+              page.putInt(offset, s.length());
+              // one byte per character, like DataOutputStream.writeBytes
+              for (int j = 0; j < s.length(); j++)
+                  page.put(offset + 4 + j, (byte) s.charAt(j));
+          }
+          offset += layout.typeAr[i].getLen();
+      }
+  }
+
+  // writes the header of a page and its slots [firstSlot, endSlot); the
+  // rest of the page belongs to other chunks or is padding
+  private static void writePage(FileChannel out, ByteBuffer page, long pageNo, int firstSlot,
+                 int endSlot, PageLayout layout, long totalRecords) throws IOException {
+      if (pageNo < 0)
+          return;
+      // every chunk writing to the page writes the same header: a 1 for
+      // each slot holding one of the records of the file
+      long recordsOnPage = Math.min(layout.nrecords, totalRecords - pageNo * layout.nrecords);
+      for (int i = 0; i < layout.nheaderbytes; i++) {
+          long bits = Math.max(0, Math.min(8, recordsOnPage - i * 8L));
+          page.put(i, (byte) ((1 << bits) - 1));
+      }
+      long pageStart = pageNo * layout.npagebytes;
+      ByteBuffer header = page.duplicate();
+      header.limit(layout.nheaderbytes).position(0);
+      ByteBuffer slots = page.duplicate();
+      slots.limit(layout.slotOffset(endSlot)).position(layout.slotOffset(firstSlot));
+      if (firstSlot == 0) {
+          header.limit(slots.limit());
+          slots.limit(slots.position());
+      }
+      writeFully(out, header, pageStart);
+      writeFully(out, slots, pageStart + slots.position());
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer data, long position) throws IOException {
+      while (data.hasRemaining()) {
+          position += out.write(data, position);
+      }
+  }
+
+  // runs the tasks on the pool and returns their results in order
+  private static <T> List<T> runAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+      List<T> results = new ArrayList<T>();
+      for (Future<T> f : pool.invokeAll(tasks)) {
+          try {
+              results.add(f.get());
+          } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new IOException("conversion interrupted", e);
+          } catch (ExecutionException e) {
+              // the pool wraps a task's checked exception in a
+              // RuntimeException of its own
+              for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                  if (cause instanceof IOException)
+                      throw (IOException) cause;
+              }
+              throw new RuntimeException(e.getCause());
+          }
+      }
+      return results;
+  }
+
+  // reads bytes [from, to) of a channel with positional reads, so several
+  // streams can read one channel at once
+  private static class RegionInputStream extends InputStream {
+      private final FileChannel channel;
+      private final long to;
+      private long pos;
+
+      RegionInputStream(FileChannel channel, long from, long to) {
+          this.channel = channel;
+          this.pos = from;
+          this.to = to;
+      }
+
+      public int read() throws IOException {
+          byte[] b = new byte[1];
+          return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+      }
+
+      public int read(byte[] b, int off, int len) throws IOException {
+          if (pos >= to)
+              return -1;
+          ByteBuffer dst = ByteBuffer.wrap(b, off, (int) Math.min(len, to - pos));
+          int n = channel.read(dst, pos);
+          if (n < 0)
+              return -1;
+          pos += n;
+          return n;
+      }
   }
 }
@@ -2,10 +2,17 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page remembers which slots were modified since its last
+ * {@link #setBeforeImage} and since it last matched the copy in its file, so
+ * that updating the before image and writing the page back only copy the
+ * header and the slots that changed.
  *
  * @see HeapFile
  * @see BufferPool
@@ -13,13 +20,29 @@ import java.io.*;
  */
 public class HeapPage implements Page {
 
+    /**
+     * Largest number of separate byte ranges a partial copy or write of a
+     * page is split into; pages changed in more places are copied whole.
+     */
+    public static final int MAX_DIRTY_RANGES = 8;
+
     final HeapPageId pid;
     final TupleDesc td;
-    final byte header[];
-    final Tuple tuples[];
     final int numSlots;
-
-    byte[] oldData;
+    final int headerSize;
+    final int tupleSize;
+    // byte offset of each field within a tuple slot
+    final int[] fieldOffsets;
+
+    // raw bytes of the page, usually an off-heap frame from the FrameArena;
+    // the header and the tuple slots are read and written in place
+    final ByteBuffer frame;
+    // contents of the page as of the last setBeforeImage()
+    final ByteBuffer oldFrame;
+    // slots changed since the last setBeforeImage() and since the page last
+    // matched its file
+    private final ChangedSlots sinceBeforeImage = new ChangedSlots();
+    private final ChangedSlots unsynced = new ChangedSlots();
     private TransactionId dirtyId;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -35,32 +58,94 @@ public class HeapPage implements Page {
      * <p>
      *      ceiling(no. tuple slots / 8)
      * <p>
+     * The bytes are copied into a page frame and tuples are only decoded
+     * from it when they are iterated over. The whole page counts as not yet
+     * written to its file; see {@link #markSynced}.
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, Database.getBufferPool().getFrameArena());
+        ByteBuffer dst = frame.duplicate();
+        dst.clear();
+        dst.put(data, 0, Math.min(data.length, dst.capacity()));
+        while (dst.hasRemaining())
+            dst.put((byte) 0);
+
+        setBeforeImage();
+    }
+
+    /**
+     * Create a HeapPage from the remaining bytes of a buffer, e.g. a region
+     * of a memory-mapped file. The bytes are copied; data's position is not
+     * changed.
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    HeapPage(HeapPageId id, ByteBuffer data) {
+        this(id, data, Database.getBufferPool().getFrameArena());
+    }
+
+    // copies a page from a buffer into frames of the given arena, or into
+    // heap buffers if it is null
+    private HeapPage(HeapPageId id, ByteBuffer data, FrameArena arena) {
+        this(id, arena);
+        ByteBuffer src = data.duplicate();
+        if (src.remaining() > frame.capacity())
+            src.limit(src.position() + frame.capacity());
+        ByteBuffer dst = frame.duplicate();
+        dst.clear();
+        dst.put(src);
+        while (dst.hasRemaining())
+            dst.put((byte) 0);
+
+        setBeforeImage();
+    }
+
+    /**
+     * Create a HeapPage by reading it straight from a file channel into the
+     * page frame, without an intermediate byte array. Bytes past the end of
+     * the file read as zeroes.
+     * @param channel the channel of the file holding the page
+     * @param position offset of the page within the file
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    HeapPage(HeapPageId id, FileChannel channel, long position) throws IOException {
+        this(id, Database.getBufferPool().getFrameArena());
+        ByteBuffer dst = frame.duplicate();
+        dst.clear();
+        while (dst.hasRemaining()) {
+            if (channel.read(dst, position + dst.position()) < 0)
+                break;
+        }
+        while (dst.hasRemaining())
+            dst.put((byte) 0);
+
+        setBeforeImage();
+    }
+
+    // sets up the layout and frames of a page, taking the frames from the
+    // given arena or the heap if it is null; the caller fills in the data
+    private HeapPage(HeapPageId id, FrameArena arena) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
         }
-        dis.close();
 
-        setBeforeImage();
+        if (arena != null) {
+            this.frame = arena.acquire(this);
+            this.oldFrame = arena.acquire(this);
+        } else {
+            this.frame = ByteBuffer.allocate(BufferPool.getPageSize());
+            this.oldFrame = ByteBuffer.allocate(BufferPool.getPageSize());
+        }
+        sinceBeforeImage.markAll();
+        unsynced.markAll();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -89,28 +174,53 @@ public class HeapPage implements Page {
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
-        try {
-            byte[] oldDataRef = null;
-            synchronized(oldDataLock)
-            {
-                oldDataRef = oldData;
-            }
-            return new HeapPage(pid,oldDataRef);
-        } catch (IOException e) {
-            e.printStackTrace();
-            //should never happen -- we parsed it OK before!
-            System.exit(1);
+        synchronized(oldDataLock)
+        {
+            ByteBuffer oldData = oldFrame.duplicate();
+            oldData.clear();
+            // a short-lived copy, so it doesn't take frames from the arena
+            return new HeapPage(pid, oldData, null);
         }
-        return null;
     }
     
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        for (int[] range : sinceBeforeImage.ranges()) {
+            ByteBuffer src = frame.duplicate();
+            src.limit(range[1]).position(range[0]);
+            ByteBuffer dst = oldFrame.duplicate();
+            dst.position(range[0]);
+            dst.put(src);
+        }
+        sinceBeforeImage.clear();
         }
     }
 
+    /**
+     * Returns the byte ranges of this page that may differ from the copy in
+     * its file, as {from, to} pairs in ascending order. A page the file has
+     * never seen returns the whole page.
+     * @see #markSynced
+     */
+    List<int[]> getUnsyncedRanges() {
+        return unsynced.ranges();
+    }
+
+    /**
+     * Records that the bytes of this page are now the same as in its file,
+     * because the page was just read from or written to it.
+     */
+    void markSynced() {
+        unsynced.clear();
+    }
+
+    // records that the given slot and its header bit were modified
+    private void slotChanged(int slotId) {
+        sinceBeforeImage.mark(slotId);
+        unsynced.mark(slotId);
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -120,37 +230,84 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * @return the byte offset of the given slot within the page
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    private int slotOffset(int slotId) {
+        return headerSize + slotId * tupleSize;
+    }
 
-        // read fields in the tuple
+    /**
+     * Decodes the tuple stored in the given slot. The slot must be in use.
+     */
+    private Tuple readTuple(int slotId) {
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+        t.setRecordId(new RecordId(pid, slotId));
+        int offset = slotOffset(slotId);
+        for (int j=0; j<td.numFields(); j++) {
+            t.setField(j, td.getFieldType(j).parse(frame, offset + fieldOffsets[j]));
+        }
+        return t;
+    }
+
+    /**
+     * Returns the tuple in the given slot, with its RecordId set.
+     * @param slotId the slot holding the tuple; it must be in use
+     * @throws NoSuchElementException if the slot is empty or out of range
+     */
+    public Tuple getTuple(int slotId) {
+        checkUsedSlot(slotId);
+        return readTuple(slotId);
+    }
+
+    /**
+     * Decodes a single field straight from the page bytes, without
+     * materializing the rest of the tuple.
+     * @param slotId the slot holding the tuple; it must be in use
+     * @param field the index of the field in the page's TupleDesc
+     * @throws NoSuchElementException if the slot is empty or out of range
+     */
+    public Field getField(int slotId, int field) {
+        checkUsedSlot(slotId);
+        return td.getFieldType(field).parse(frame, slotOffset(slotId) + fieldOffsets[field]);
+    }
+
+    /**
+     * Reads an integer field straight from the page bytes, without
+     * allocating a Field.
+     * @param slotId the slot holding the tuple; it must be in use
+     * @param field the index of an INT_TYPE field in the page's TupleDesc
+     * @throws NoSuchElementException if the slot is empty or out of range
+     * @throws IllegalArgumentException if the field is not an integer
+     */
+    public int getInt(int slotId, int field) {
+        checkUsedSlot(slotId);
+        if (td.getFieldType(field) != Type.INT_TYPE) {
+            throw new IllegalArgumentException("field " + field + " is not an integer");
+        }
+        return frame.getInt(slotOffset(slotId) + fieldOffsets[field]);
+    }
+
+    /**
+     * Returns true if the tuple in the given slot passes every predicate.
+     * The predicates are evaluated on the page bytes; no Tuple is built.
+     * @param slotId the slot holding the tuple; it must be in use
+     * @param predicates predicates over the fields of the page's TupleDesc
+     */
+    public boolean matches(int slotId, Predicate[] predicates) {
+        int offset = slotOffset(slotId);
+        for (Predicate p : predicates) {
+            int field = p.getField();
+            if (!td.getFieldType(field).compare(frame, offset + fieldOffsets[field], p.getOp(), p.getOperand())) {
+                return false;
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+        return true;
+    }
 
-        return t;
+    private void checkUsedSlot(int slotId) {
+        if (slotId < 0 || slotId >= numSlots || !isSlotUsed(slotId)) {
+            throw new NoSuchElementException("slot " + slotId + " is empty");
+        }
     }
 
     /**
@@ -165,64 +322,28 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        // the frame already holds the serialized page
+        return copyOf(frame);
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Returns a read-only view of the bytes of this page, positioned at the
+     * start of the page. Lets a file write the page without copying it into
+     * a byte array first.
+     */
+    public ByteBuffer getPageBuffer() {
+        ByteBuffer view = frame.asReadOnlyBuffer();
+        view.clear();
+        return view;
+    }
 
-        return baos.toByteArray();
+    // copies a whole page frame into a new array
+    private static byte[] copyOf(ByteBuffer buf) {
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        byte[] data = new byte[src.capacity()];
+        src.get(data);
+        return data;
     }
 
     /**
@@ -255,14 +376,19 @@ public class HeapPage implements Page {
             throw new DbException(String.format("", rid.getPageId().getTableId(), rid.getPageId().getPageNumber(),
                     this.pid.getTableId(), this.pid.getPageNumber()));
         }
-        if (tupleId < 0 || tupleId >= this.tuples.length) {
+        if (tupleId < 0 || tupleId >= this.numSlots) {
             throw new DbException("The tuple is out of bounds");
         }
-        if (this.tuples[tupleId] == null) {
+        if (!isSlotUsed(tupleId)) {
             throw new DbException("The tuple doesn't exist in the tupleId");
         }
-        this.tuples[tupleId] = null;
         markSlotUsed(tupleId, false);
+        slotChanged(tupleId);
+        // empty slots are stored as zeroes
+        int offset = slotOffset(tupleId);
+        for (int i = 0; i < tupleSize; i++) {
+            frame.put(offset + i, (byte) 0);
+        }
     }
 
     /**
@@ -282,9 +408,14 @@ public class HeapPage implements Page {
         for (int i = 0; i < numSlots; ++i) {
             // inserts the tuple into any open space
             if (!(isSlotUsed(i))) {
+                int offset = slotOffset(i);
+                for (int j = 0; j < td.numFields(); j++) {
+                    t.getField(j).serialize(frame, offset);
+                    offset += td.getFieldType(j).getLen();
+                }
                 t.setRecordId(new RecordId(getId(), i));
-                tuples[i] = t;
                 markSlotUsed(i, true);
+                slotChanged(i);
                 return;
             }
         }
@@ -320,14 +451,34 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         // some code goes here
-        int emptySlots = 0;
-        for (int i = 0; i < numSlots; i++) {
-            // checks the number empty slots
-            if(!(isSlotUsed(i))) {
-                emptySlots++;
+        return numSlots - countUsedSlots(frame, numSlots);
+    }
+
+    /**
+     * Counts the slots marked as used in a page header.
+     * @param header a buffer holding the header at index 0
+     * @param numSlots the number of slots on the page
+     */
+    static int countUsedSlots(ByteBuffer header, int numSlots) {
+        int headerSize = (numSlots + 7) / 8;
+        int usedSlots = 0;
+        for (int i = 0; i < headerSize; i++) {
+            int bits = header.get(i) & 0xff;
+            // ignore the unused high bits of the last header byte
+            if (i == headerSize - 1 && numSlots % 8 != 0) {
+                bits &= (1 << (numSlots % 8)) - 1;
             }
+            usedSlots += Integer.bitCount(bits);
         }
-        return emptySlots;
+        return usedSlots;
+    }
+
+    /**
+     * @return the number of tuple slots on a page holding tuples of the given
+     * TupleDesc, at the current page size
+     */
+    static int slotsPerPage(TupleDesc td) {
+        return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
     }
 
     /**
@@ -335,7 +486,7 @@ public class HeapPage implements Page {
      */
     public boolean isSlotUsed(int i) {
         // some code goes here
-        byte headerbyte = header[i/8];
+        byte headerbyte = frame.get(i/8);
         return((headerbyte >> (i % 8)) & 1) == 1;
     }
 
@@ -347,29 +498,118 @@ public class HeapPage implements Page {
         // not necessary for lab1
         int iByte = i / 8;
         int iBit = i & (8 - 1);
+        byte headerbyte = frame.get(iByte);
         if (!(value)) {
-            this.header[iByte] ^= (1 << (iBit));
+            headerbyte &= ~(1 << (iBit));
         } else {
-            this.header[iByte] |= (1 << (iBit));
-
+            headerbyte |= (1 << (iBit));
         }
+        frame.put(iByte, headerbyte);
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * Tuples are decoded from the page bytes one at a time, as next() is called.
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        List<Tuple> viableTuples = new ArrayList<>();
-        for (int i = 0; i < numSlots; i++) {
-            if (isSlotUsed(i)) {
-                viableTuples.add(tuples[i]);
+        return iterator(new Predicate[0]);
+    }
+
+    /**
+     * @return an iterator over the tuples on this page that pass every one of
+     * the given predicates. Slots are tested against the page bytes and only
+     * the tuples that pass are decoded.
+     * @param predicates predicates over the fields of the page's TupleDesc
+     */
+    public Iterator<Tuple> iterator(final Predicate[] predicates) {
+        return new Iterator<Tuple>() {
+            private int slot = nextMatchingSlot(0, predicates);
+
+            public boolean hasNext() {
+                return slot < numSlots;
+            }
+
+            public Tuple next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(slot);
+                slot = nextMatchingSlot(slot + 1, predicates);
+                return t;
             }
+        };
+    }
+
+    // returns the first used slot at or after from that passes the
+    // predicates, or numSlots if there is none
+    private int nextMatchingSlot(int from, Predicate[] predicates) {
+        int slot = nextUsedSlot(from);
+        while (slot < numSlots && predicates.length > 0 && !matches(slot, predicates)) {
+            slot = nextUsedSlot(slot + 1);
         }
-        return viableTuples.iterator();
+        return slot;
     }
 
+    // returns the first used slot at or after from, or numSlots if there is none
+    private int nextUsedSlot(int from) {
+        int slot = from;
+        while (slot < numSlots && !isSlotUsed(slot)) {
+            slot++;
+        }
+        return slot;
+    }
 
-}
+    /**
+     * The slots of a page modified since some point in time. The header is
+     * always treated as modified along with any slot, since a slot is only
+     * ever changed together with its header bit.
+     */
+    private final class ChangedSlots {
+        private final BitSet slots = new BitSet();
+        private boolean all;
+
+        void mark(int slotId) {
+            slots.set(slotId);
+        }
+
+        void markAll() {
+            all = true;
+        }
+
+        void clear() {
+            slots.clear();
+            all = false;
+        }
+
+        // returns the modified byte ranges of the page as {from, to} pairs
+        List<int[]> ranges() {
+            List<int[]> ranges = new ArrayList<int[]>();
+            if (all) {
+                ranges.add(new int[] {0, frame.capacity()});
+                return ranges;
+            }
+            if (slots.isEmpty()) {
+                return ranges;
+            }
+            ranges.add(new int[] {0, headerSize});
+            for (int from = slots.nextSetBit(0); from >= 0; from = slots.nextSetBit(from)) {
+                int to = slots.nextClearBit(from);
+                int[] last = ranges.get(ranges.size() - 1);
+                if (last[1] == slotOffset(from)) {
+                    last[1] = slotOffset(to);
+                } else {
+                    ranges.add(new int[] {slotOffset(from), slotOffset(to)});
+                }
+                from = to;
+            }
+            if (ranges.size() > MAX_DIRTY_RANGES) {
+                ranges.clear();
+                ranges.add(new int[] {0, frame.capacity()});
+            }
+            return ranges;
+        }
+    }
 
+}
@@ -0,0 +1,61 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * The interface for secondary indexes: DbFiles that map the values of one
+ * field of a table to the locations of the table's tuples with those values.
+ * An index is registered with {@link Catalog#addIndex}, after which the
+ * BufferPool keeps it up to date as tuples are inserted into and deleted
+ * from its table.
+ * <p>
+ * As a DbFile, an index's own tuples are its entries. Callers that want the
+ * indexed table's tuples use {@link #indexIterator}.
+ */
+public interface IndexFile extends DbFile {
+
+    /** @return the id of the indexed table */
+    public int getTableId();
+
+    /** @return the index of the indexed field in the table's TupleDesc */
+    public int getKeyField();
+
+    /**
+     * @return true if {@link #indexIterator} can find the tuples satisfying
+     *         a predicate with the given operator without reading the whole
+     *         index
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Adds the entry of a tuple that was just inserted into the table.
+     *
+     * @param tid the transaction inserting the tuple
+     * @param t the inserted tuple; its RecordId must be set
+     * @return the pages of the index that were modified
+     */
+    public ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Removes the entry of a tuple that is about to be deleted from the
+     * table.
+     *
+     * @param tid the transaction deleting the tuple
+     * @param t the tuple; its RecordId must still be set
+     * @return the pages of the index that were modified
+     * @throws DbException if the index has no entry for the tuple
+     */
+    public ArrayList<Page> deleteEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException;
+
+    /**
+     * Returns the tuples of the indexed table whose key field satisfies a
+     * predicate, reading their pages through the BufferPool.
+     *
+     * @param tid the transaction reading the tuples
+     * @param p a predicate whose field is {@link #getKeyField}
+     */
+    public DbFileIterator indexIterator(TransactionId tid, Predicate p);
+}
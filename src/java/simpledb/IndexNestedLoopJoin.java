@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator is a nested loops join whose inner
+ * relation is a base table with an index on its join field. Instead of
+ * scanning the inner table once per outer tuple, it looks the outer tuple's
+ * join value up in the index, so its running time depends on the size of
+ * the outer relation and the number of matches rather than on the size of
+ * the inner table.
+ * <p>
+ * The inner relation is given as the SeqScan it replaces: the predicates
+ * pushed down into that scan are applied to the tuples the index returns,
+ * and its alias names the inner fields. The results are the fields of
+ * child1 followed by those of child2, like {@link Join}.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private SeqScan child2;
+    private final IndexFile index;
+    private final Predicate.Op probeOp;
+    private final TupleDesc tupleDesc;
+
+    private Tuple outer;
+    private DbFileIterator matches;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            the scan of the right(inner) table
+     * @param index
+     *            an index on the inner table's join field that supports the
+     *            join predicate, see {@link #supports}
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2, IndexFile index) {
+        if (!supports(index, p)) {
+            throw new IllegalArgumentException("the index can't evaluate the join predicate");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.index = index;
+        this.probeOp = probeOp(p.getOperator());
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    // the operator that compares inner keys with an outer value, so that
+    // "outer op inner" holds when "inner probeOp outer" does
+    private static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    /**
+     * @return true if the given index is on field2 of the join predicate and
+     *         can look up the inner tuples that match an outer tuple
+     */
+    public static boolean supports(IndexFile index, JoinPredicate p) {
+        return index.getKeyField() == p.getField2() && p.getOperator() != Predicate.Op.LIKE
+                && index.supports(probeOp(p.getOperator()));
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /** @return the index this join probes */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the field name of join field1, quantified by alias or table
+     *         name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, quantified by alias or table
+     *         name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        super.open();
+        child1.open();
+        outer = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        closeMatches();
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        closeMatches();
+        outer = null;
+    }
+
+    private void closeMatches() {
+        if (matches != null) {
+            matches.close();
+            matches = null;
+        }
+    }
+
+    /**
+     * Returns the next outer tuple joined with the next inner tuple that the
+     * index finds for it and that passes the inner scan's predicates.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        List<Predicate> innerPredicates = child2.getPredicates();
+        while (true) {
+            if (matches == null) {
+                if (!child1.hasNext()) {
+                    return null;
+                }
+                outer = child1.next();
+                matches = index.indexIterator(child2.getTransactionId(),
+                        new Predicate(p.getField2(), probeOp, outer.getField(p.getField1())));
+                matches.open();
+            }
+            while (matches.hasNext()) {
+                Tuple inner = matches.next();
+                boolean pass = true;
+                for (Predicate ip : innerPredicates) {
+                    pass &= ip.filter(inner);
+                }
+                if (pass) {
+                    return Tuple.merge(tupleDesc, outer, inner);
+                }
+            }
+            closeMatches();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = (SeqScan) children[1];
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads only the tuples of a table whose
+ * indexed field satisfies a predicate, by looking them up in an
+ * {@link IndexFile} on that field instead of reading the whole table.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+    private final IndexFile index;
+    private final Predicate indexPredicate;
+    private final String tableAlias;
+    private DbFileIterator iterator;
+    // selections on other fields, applied to the tuples the index returns
+    private final List<Predicate> predicates = new ArrayList<Predicate>();
+
+    /**
+     * Creates a scan of the tuples that an index finds for a predicate.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to read
+     * @param indexPredicate
+     *            a predicate on the index's key field
+     * @param tableAlias
+     *            the alias of the indexed table; the returned tupleDesc has
+     *            fields named tableAlias.fieldName, as in {@link SeqScan}
+     */
+    public IndexScan(TransactionId tid, IndexFile index, Predicate indexPredicate, String tableAlias) {
+        if (indexPredicate.getField() != index.getKeyField()) {
+            throw new IllegalArgumentException("the predicate is not on the index's key field");
+        }
+        this.tid = tid;
+        this.index = index;
+        this.indexPredicate = indexPredicate;
+        this.tableAlias = tableAlias;
+    }
+
+    /** @return the name of the table this operator scans */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(index.getTableId());
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the index this operator reads */
+    public IndexFile getIndex() {
+        return index;
+    }
+
+    /** @return the predicate this operator looks up in the index */
+    public Predicate getIndexPredicate() {
+        return indexPredicate;
+    }
+
+    /**
+     * Adds a selection that the tuples found in the index must also pass.
+     * Must be called before open().
+     *
+     * @param p a predicate over the fields of this scan's TupleDesc
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /** @return the predicates added with {@link #addPredicate} */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        final DbFileIterator found = index.indexIterator(tid, indexPredicate);
+        iterator = new AbstractDbFileIterator() {
+            public void open() throws DbException, TransactionAbortedException {
+                found.open();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                found.rewind();
+            }
+
+            public void close() {
+                super.close();
+                found.close();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (found.hasNext()) {
+                    Tuple t = found.next();
+                    boolean pass = true;
+                    for (Predicate p : predicates) {
+                        pass &= p.filter(t);
+                    }
+                    if (pass) {
+                        return t;
+                    }
+                }
+                return null;
+            }
+        };
+        iterator.open();
+    }
+
+    /**
+     * @return the TupleDesc of the indexed table, with its field names
+     *         prefixed by the table alias
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+        Type[] types = new Type[td.numFields()];
+        String[] fields = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            fields[i] = tableAlias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, fields);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return iterator != null && iterator.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (iterator == null) {
+            throw new NoSuchElementException();
+        }
+        return iterator.next();
+    }
+
+    public void close() {
+        if (iterator != null) {
+            iterator.close();
+        }
+        iterator = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+        if (iterator == null) {
+            throw new IllegalStateException("the scan is not open");
+        }
+        iterator.rewind();
+    }
+}
@@ -0,0 +1,48 @@
+package simpledb;
+
+/**
+ * Turns an iterator over index entries, whose second and third fields are
+ * the page number and slot of a tuple in a HeapFile, into an iterator over
+ * those tuples. The heap pages are read through the BufferPool.
+ */
+class IndexTupleIterator extends AbstractDbFileIterator {
+
+    private final TransactionId tid;
+    private final int tableid;
+    private final DbFileIterator entries;
+
+    /**
+     * @param tid the transaction reading the tuples
+     * @param tableid the id of the indexed HeapFile
+     * @param entries the entries of the tuples to return
+     */
+    IndexTupleIterator(TransactionId tid, int tableid, DbFileIterator entries) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.entries = entries;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        entries.open();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        entries.rewind();
+    }
+
+    public void close() {
+        super.close();
+        entries.close();
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (!entries.hasNext()) {
+            return null;
+        }
+        Tuple e = entries.next();
+        HeapPageId pid = new HeapPageId(tableid, ((IntField) e.getField(1)).getValue());
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        return page.getTuple(((IntField) e.getField(2)).getValue());
+    }
+}
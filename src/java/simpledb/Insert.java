@@ -14,6 +14,7 @@ public class Insert extends Operator {
     private int tableId;
     private TupleDesc tupleDesc;
     private boolean alreadyCalled;
+    private final boolean bulk;
 
 
     /**
@@ -31,7 +32,31 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
-        // some code goes here
+        this(t, child, tableId, false);
+    }
+
+    /**
+     * Constructor for an insert that may run as a bulk load. In bulk mode,
+     * tuples inserted into a HeapFile are packed into new pages at the end
+     * of the file and written an extent at a time, bypassing the buffer pool
+     * and without reusing free slots of existing pages. The table's indexes
+     * are still updated through the buffer pool.
+     *
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableId
+     *            The table in which to insert tuples.
+     * @param bulk
+     *            true to append the tuples with a {@link HeapFile.BulkAppender}
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     */
+    public Insert(TransactionId t, OpIterator child, int tableId, boolean bulk)
+            throws DbException {
+        this.bulk = bulk;
         this.t = t;
         this.child = child;
         this.tableId = tableId;
@@ -81,6 +106,23 @@ public class Insert extends Operator {
         }
         int insertCount = 0;
         alreadyCalled = true;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (bulk && file instanceof HeapFile) {
+            HeapFile.BulkAppender appender = ((HeapFile) file).bulkAppender(t);
+            try {
+                while (child.hasNext()) {
+                    Tuple next = child.next();
+                    appender.append(next);
+                    Database.getBufferPool().insertIndexEntries(t, tableId, next);
+                }
+                insertCount = appender.close();
+            } catch (IOException e) {
+                throw new DbException("Insert did not work");
+            }
+            Tuple tuple = new Tuple(getTupleDesc());
+            tuple.setField(0, new IntField(insertCount));
+            return tuple;
+        }
         // inserts the tuple into the buffer pool while there is still a child tuple
         while (child.hasNext()) {
             Tuple tuple = child.next();
@@ -4,6 +4,13 @@ package simpledb;
  */
 public class IntHistogram {
 
+    private final int min;
+    private final int max;
+    /** the number of integers each bucket covers; the last may cover fewer */
+    private final long width;
+    private final int[] counts;
+    private int total;
+
     /**
      * Create a new IntHistogram.
      * 
@@ -22,6 +29,51 @@ public class IntHistogram {
      */
     public IntHistogram(int buckets, int min, int max) {
     	// some code goes here
+        this.min = min;
+        this.max = max;
+        long range = (long) max - min + 1;
+        this.width = (range + buckets - 1) / buckets;
+        this.counts = new int[(int) ((range + width - 1) / width)];
+    }
+
+    private int bucketOf(int v) {
+        return (int) (((long) v - min) / width);
+    }
+
+    /** @return the first value in bucket b */
+    private long bucketLow(int b) {
+        return min + b * width;
+    }
+
+    /** @return the number of integers in bucket b */
+    private long bucketWidth(int b) {
+        return Math.min(bucketLow(b) + width - 1, max) - bucketLow(b) + 1;
+    }
+
+    /** @return the fraction of the values that are less than v */
+    private double lessThan(int v) {
+        if (v <= min) {
+            return 0;
+        }
+        if (v > max) {
+            return 1;
+        }
+        int b = bucketOf(v);
+        double count = 0;
+        for (int i = 0; i < b; i++) {
+            count += counts[i];
+        }
+        count += counts[b] * (double) (v - bucketLow(b)) / bucketWidth(b);
+        return count / total;
+    }
+
+    /** @return the fraction of the values that are equal to v */
+    private double equalTo(int v) {
+        if (v < min || v > max) {
+            return 0;
+        }
+        int b = bucketOf(v);
+        return counts[b] / (double) bucketWidth(b) / total;
     }
 
     /**
@@ -30,6 +82,11 @@ public class IntHistogram {
      */
     public void addValue(int v) {
     	// some code goes here
+        if (v < min || v > max) {
+            throw new IllegalArgumentException("value " + v + " is outside [" + min + ", " + max + "]");
+        }
+        counts[bucketOf(v)]++;
+        total++;
     }
 
     /**
@@ -45,7 +102,26 @@ public class IntHistogram {
     public double estimateSelectivity(Predicate.Op op, int v) {
 
     	// some code goes here
-        return -1.0;
+        if (total == 0) {
+            return 0;
+        }
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equalTo(v);
+        case NOT_EQUALS:
+            return 1 - equalTo(v);
+        case LESS_THAN:
+            return lessThan(v);
+        case LESS_THAN_OR_EQ:
+            return lessThan(v) + equalTo(v);
+        case GREATER_THAN:
+            return 1 - lessThan(v) - equalTo(v);
+        case GREATER_THAN_OR_EQ:
+            return 1 - lessThan(v);
+        default:
+            throw new UnsupportedOperationException("unsupported operator " + op);
+        }
     }
     
     /**
@@ -59,7 +135,16 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        return 1.0;
+        // the chance that two values drawn from the histogram are equal
+        if (total == 0) {
+            return 0;
+        }
+        double sel = 0;
+        for (int b = 0; b < counts.length; b++) {
+            double fraction = counts[b] / (double) total;
+            sel += fraction * fraction / bucketWidth(b);
+        }
+        return sel;
     }
     
     /**
@@ -67,6 +152,10 @@ public class IntHistogram {
      */
     public String toString() {
         // some code goes here
-        return null;
+        StringBuilder sb = new StringBuilder("IntHistogram[" + min + ", " + max + "] " + total + " values:");
+        for (int b = 0; b < counts.length; b++) {
+            sb.append(' ').append(counts[b]);
+        }
+        return sb.toString();
     }
 }
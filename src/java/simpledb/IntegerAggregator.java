@@ -1,29 +1,32 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are numbered by a {@link GroupTable}, and the running aggregate of
+ * each group is kept in primitive arrays indexed by its number, so merging a
+ * tuple into an existing group allocates nothing.
  */
 public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
+    private static final int INITIAL_GROUPS = 16;
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private ConcurrentHashMap<Field, Integer> gbfieldVal;
-    private ConcurrentHashMap<Field, Integer> gbfieldCounts;
+    private GroupTable groups;
+    // running aggregates by group number: the sum (for SUM and AVG), the
+    // count (for COUNT and AVG), or the extreme value (for MIN and MAX)
+    private long[] sums;
+    private long[] counts;
+    private int[] extremes;
     private TupleDesc tupleDesc;
-    private Field fieldKey;
-    private int tupleValue;
-    List<Tuple> tuples = new ArrayList<Tuple>();
     TupleDesc newTupleDesc;
-    private String gbfieldName;
 
     /**
      * Aggregate constructor
@@ -46,10 +49,10 @@ public class IntegerAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        // initializes on ConcurrencyHashMap to the aggregate counts and values
-        this.gbfieldCounts = new ConcurrentHashMap<Field, Integer>();
-        this.gbfieldVal = new ConcurrentHashMap<Field, Integer>();
-
+        this.groups = new GroupTable(gbfield, gbfieldtype);
+        this.sums = new long[INITIAL_GROUPS];
+        this.counts = new long[INITIAL_GROUPS];
+        this.extremes = new int[INITIAL_GROUPS];
     }
 
     /**
@@ -62,50 +65,57 @@ public class IntegerAggregator implements Aggregator {
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
         tupleDesc = tup.getTupleDesc();
-        if (this.gbfield != NO_GROUPING) {
-            // sets the fieldKey to the merging Tuple
-            fieldKey = tup.getField(gbfield);
+        int before = groups.size();
+        int g = groups.groupOf(tup);
+        int value = ((IntField) tup.getField(afield)).getValue();
+        if (g == before) {
+            // a new group starts from its first value
+            if (g == sums.length) {
+                sums = Arrays.copyOf(sums, g * 2);
+                counts = Arrays.copyOf(counts, g * 2);
+                extremes = Arrays.copyOf(extremes, g * 2);
+            }
+            sums[g] = value;
+            counts[g] = 1;
+            extremes[g] = value;
+            return;
         }
-        tupleValue = ((IntField) tup.getField(afield)).getValue();
-        // goes through the cases based on the Op operator
         switch (what) {
             case COUNT:
-                if (!(gbfieldVal.containsKey(fieldKey))) {
-                    gbfieldVal.put(fieldKey, 1);
-                } else {
-                    gbfieldVal.put(fieldKey, gbfieldVal.get(fieldKey) + 1);
-                }
+                counts[g]++;
                 break;
             case MAX:
-                if (!(gbfieldVal.containsKey(fieldKey))) {
-                    gbfieldVal.put(fieldKey, tupleValue);
-                } else {
-                    gbfieldVal.put(fieldKey, Math.max(gbfieldVal.get(fieldKey), tupleValue));
-                }
+                extremes[g] = Math.max(extremes[g], value);
                 break;
             case MIN:
-                if (!(gbfieldVal.containsKey(fieldKey))) {
-                    gbfieldVal.put(fieldKey, tupleValue);
-                } else {
-                    gbfieldVal.put(fieldKey, Math.min(gbfieldVal.get(fieldKey), tupleValue));
-                }
+                extremes[g] = Math.min(extremes[g], value);
                 break;
             case SUM:
-                if (!(gbfieldVal.containsKey(fieldKey))) {
-                    gbfieldVal.put(fieldKey, tupleValue);
-                } else {
-                    gbfieldVal.put(fieldKey, gbfieldVal.get(fieldKey) + tupleValue);
-                }
+                sums[g] += value;
                 break;
             case AVG:
-                if (!(gbfieldVal.containsKey(fieldKey))) {
-                    gbfieldCounts.put(fieldKey, 1);
-                    gbfieldVal.put(fieldKey, tupleValue);
-                } else {
-                    gbfieldVal.put(fieldKey, gbfieldVal.get(fieldKey) + tupleValue);
-                    gbfieldCounts.put(fieldKey, gbfieldCounts.get(fieldKey) + 1);
-                }
+                sums[g] += value;
+                counts[g]++;
                 break;
+            default:
+                throw new UnsupportedOperationException("unsupported aggregate " + what);
+        }
+    }
+
+    // the aggregate value of the given group
+    private int aggregateValue(int g) {
+        switch (what) {
+            case COUNT:
+                return (int) counts[g];
+            case MAX:
+            case MIN:
+                return extremes[g];
+            case SUM:
+                return (int) sums[g];
+            case AVG:
+                return (int) (sums[g] / counts[g]);
+            default:
+                throw new UnsupportedOperationException("unsupported aggregate " + what);
         }
     }
 
@@ -119,41 +129,31 @@ public class IntegerAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        // I used the TupleIterator that implements the OpIterator
         if (gbfield != NO_GROUPING) {
-            // if grouped then we group by the groupValue and the aggregateValue
             newTupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
-                    new String[]{tupleDesc.getFieldName(gbfield),
-                            tupleDesc.getFieldName(afield)});
-            for (Field gbfieldKey : gbfieldVal.keySet()) {
-                int aggregateVal = gbfieldVal.get(gbfieldKey);
-                // the case if the Op was computing the average
-                if (what == Op.AVG) {
-                    aggregateVal = (aggregateVal / gbfieldCounts.get(gbfieldKey));
-                }
-                Tuple tuple = new Tuple(newTupleDesc);
-                // sets the field type and the groupValue and adds it to the arraylist
-                // of tuples.
-                tuple.setField(0, gbfieldKey);
-                tuple.setField(1, new IntField(aggregateVal));
-                tuples.add(tuple);
-            }
+                    new String[]{tupleDesc == null ? null : tupleDesc.getFieldName(gbfield),
+                            tupleDesc == null ? null : tupleDesc.getFieldName(afield)});
         } else {
-            // the case where there is no grouping
             newTupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE});
-            // we traverse through the the grouped values and aggregate
-            for (Field fieldKey : gbfieldVal.keySet()) {
-                int aggregateVal = gbfieldVal.get(fieldKey);
-                // the case if the Op was computing the average
-                if (what == Op.AVG) {
-                    aggregateVal = (aggregateVal / gbfieldCounts.get(fieldKey));
-                }
-                Tuple tuple = new Tuple(newTupleDesc);
-                tuples.add(tuple);
-                // adds and set the fields of the aggregateValues
-                tuple.setField(0, new IntField(aggregateVal));
+        }
+        List<Tuple> tuples = new ArrayList<Tuple>(groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            Tuple tuple = new Tuple(newTupleDesc);
+            int i = 0;
+            if (gbfield != NO_GROUPING) {
+                tuple.setField(i++, groups.groupKey(g));
             }
+            tuple.setField(i, new IntField(aggregateValue(g)));
+            tuples.add(tuple);
         }
         return new TupleIterator(newTupleDesc, tuples);
     }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.contains(tup);
+    }
 }
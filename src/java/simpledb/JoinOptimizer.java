@@ -14,6 +14,23 @@ public class JoinOptimizer {
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
 
+    /** The join operators the optimizer can choose between. */
+    public enum JoinAlgorithm {
+        /** {@link HashJoin}; equality joins only */
+        HASH,
+        /** {@link SortMergeJoin}; equality and inequality joins */
+        SORT_MERGE,
+        /**
+         * {@link IndexNestedLoopJoin}; the right-hand side must be a table
+         * with an index on its join field that supports the operator
+         */
+        INDEX_NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}; any predicate */
+        BLOCK_NESTED_LOOP,
+        /** {@link Join}; any predicate */
+        NESTED_LOOP
+    }
+
     /**
      * Constructor
      * 
@@ -44,6 +61,29 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, 0, 0);
+    }
+
+    /**
+     * Return the cheapest iterator for computing a given logical join, given
+     * estimates of the cardinalities of the left and right subplans. Each
+     * subplan is assumed to cost one unit per tuple to read.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param card1
+     *            Estimated cardinality of plan1
+     * @param card2
+     *            Estimated cardinality of plan2
+     * @see #chooseJoinAlgorithm
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2,
+                                             int card1, int card2) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -68,12 +108,179 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        IndexFile index = null;
+        JoinAlgorithm algorithm;
+        if (lj instanceof LogicalSubplanJoinNode) {
+            // there's no estimate of a subquery's cardinality to cost its join
+            // with, so hash it when possible and else read it once per block
+            algorithm = lj.p == Predicate.Op.EQUALS ? JoinAlgorithm.HASH
+                    : JoinAlgorithm.BLOCK_NESTED_LOOP;
+        } else {
+            int blockTuples = BlockNestedLoopJoin.blockTuples(plan1.getTupleDesc(),
+                    BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+            index = innerIndex(plan2, p);
+            double probeCost2 = index == null ? Double.MAX_VALUE
+                    : estimateProbeCost(((SeqScan) plan2).getTableName(), t2id, lj.p, card2);
+            algorithm = chooseJoinAlgorithm(lj.p, card1, card2, card1, card2,
+                    SortMergeJoin.isSortedOn(plan1, t1id), SortMergeJoin.isSortedOn(plan2, t2id),
+                    blockTuples, probeCost2);
+        }
+        switch (algorithm) {
+        case HASH:
+            j = new HashJoin(p, plan1, plan2);
+            break;
+        case SORT_MERGE:
+            j = new SortMergeJoin(p, plan1, plan2);
+            break;
+        case INDEX_NESTED_LOOP:
+            j = new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2, index);
+            break;
+        case BLOCK_NESTED_LOOP:
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+            break;
+        default:
+            j = new Join(p, plan1, plan2);
+        }
 
         return j;
 
     }
 
+    // an index that an IndexNestedLoopJoin can probe for plan2, if plan2 is
+    // a scan of a table with one
+    private static IndexFile innerIndex(OpIterator plan2, JoinPredicate p) {
+        if (!(plan2 instanceof SeqScan)) {
+            return null;
+        }
+        String table = ((SeqScan) plan2).getTableName();
+        int tableId = Database.getCatalog().getTableId(table);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (IndexNestedLoopJoin.supports(index, p)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the cheapest join algorithm that can evaluate the given
+     * operator, when the right-hand side has no usable index.
+     *
+     * @see #chooseJoinAlgorithm(Predicate.Op, int, int, double, double,
+     *      boolean, boolean, int, double)
+     */
+    public static JoinAlgorithm chooseJoinAlgorithm(Predicate.Op op, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2, int blockTuples) {
+        return chooseJoinAlgorithm(op, card1, card2, cost1, cost2, sorted1, sorted2, blockTuples,
+                Double.MAX_VALUE);
+    }
+
+    /**
+     * Returns the cheapest join algorithm that can evaluate the given
+     * operator, according to {@link #estimateJoinCost(JoinAlgorithm,
+     * Predicate.Op, int, int, double, double, boolean, boolean, int, double)}.
+     * Ties go to the algorithm listed first in {@link JoinAlgorithm}.
+     */
+    public static JoinAlgorithm chooseJoinAlgorithm(Predicate.Op op, int card1, int card2,
+            double cost1, double cost2, boolean sorted1, boolean sorted2, int blockTuples,
+            double probeCost2) {
+        JoinAlgorithm best = JoinAlgorithm.NESTED_LOOP;
+        double bestCost = Double.MAX_VALUE;
+        for (JoinAlgorithm a : JoinAlgorithm.values()) {
+            double cost = estimateJoinCost(a, op, card1, card2, cost1, cost2, sorted1, sorted2,
+                    blockTuples, probeCost2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Estimates the cost of evaluating a join with the given algorithm, when
+     * the right-hand side has no usable index.
+     *
+     * @see #estimateJoinCost(JoinAlgorithm, Predicate.Op, int, int, double,
+     *      double, boolean, boolean, int, double)
+     */
+    public static double estimateJoinCost(JoinAlgorithm a, Predicate.Op op, int card1,
+            int card2, double cost1, double cost2, boolean sorted1, boolean sorted2,
+            int blockTuples) {
+        return estimateJoinCost(a, op, card1, card2, cost1, cost2, sorted1, sorted2,
+                blockTuples, Double.MAX_VALUE);
+    }
+
+    /**
+     * Estimates the cost of evaluating a join with the given algorithm, as
+     * the cost of reading the inputs plus one unit per tuple comparison,
+     * hash table insert or probe. An index nested loops join reads the
+     * left-hand side once and looks each of its tuples up in the index.
+     *
+     * @param a
+     *            the join algorithm
+     * @param op
+     *            the join operator
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param card2
+     *            Estimated cardinality of the right-hand side of the query
+     * @param cost1
+     *            Estimated cost of one full scan of the left-hand side
+     * @param cost2
+     *            Estimated cost of one full scan of the right-hand side
+     * @param sorted1
+     *            true if the left-hand side is already sorted on its join
+     *            field
+     * @param sorted2
+     *            true if the right-hand side is already sorted on its join
+     *            field
+     * @param blockTuples
+     *            how many left-hand tuples a block nested loops join holds
+     *            per scan of the right-hand side
+     * @param probeCost2
+     *            Estimated cost of looking up the matches of one left-hand
+     *            tuple in an index on the right-hand side, or
+     *            Double.MAX_VALUE if it has no usable index
+     * @return the estimated cost, or Double.MAX_VALUE if the algorithm can't
+     *         evaluate the operator
+     */
+    public static double estimateJoinCost(JoinAlgorithm a, Predicate.Op op, int card1,
+            int card2, double cost1, double cost2, boolean sorted1, boolean sorted2,
+            int blockTuples, double probeCost2) {
+        switch (a) {
+        case HASH:
+            if (op != Predicate.Op.EQUALS) {
+                return Double.MAX_VALUE;
+            }
+            // one pass over each input, plus building the table on the smaller
+            return cost1 + cost2 + card1 + card2 + Math.min(card1, card2);
+        case SORT_MERGE:
+            if (!SortMergeJoin.supports(op)) {
+                return Double.MAX_VALUE;
+            }
+            return cost1 + cost2 + (sorted1 ? 0 : sortCost(card1))
+                    + (sorted2 ? 0 : sortCost(card2)) + card1 + card2;
+        case INDEX_NESTED_LOOP:
+            if (probeCost2 == Double.MAX_VALUE) {
+                return Double.MAX_VALUE;
+            }
+            return cost1 + card1 * probeCost2;
+        case BLOCK_NESTED_LOOP:
+            // the inner input is read once per block of outer tuples
+            double blocks = Math.ceil((double) card1 / Math.max(1, blockTuples));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
+        default:
+            // the inner input is read once per outer tuple
+            return cost1 + card1 * cost2 + (double) card1 * card2;
+        }
+    }
+
+    // comparisons made by sorting n tuples
+    private static double sortCost(int n) {
+        return n < 2 ? 0 : n * (Math.log(n) / Math.log(2));
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -82,7 +289,9 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * This is the cost of the cheapest algorithm that can evaluate the join;
+     * see {@link #chooseJoinAlgorithm}.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -107,12 +316,68 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            int blockTuples = BlockNestedLoopJoin.blockTuples(
+                    Database.getCatalog().getTupleDesc(p.getTableId(j.t1Alias)),
+                    BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+            double probeCost2 = estimateProbeCost(j, card2);
+            JoinAlgorithm a = chooseJoinAlgorithm(j.p, card1, card2, cost1, cost2, false, false,
+                    blockTuples, probeCost2);
+            return estimateJoinCost(a, j.p, card1, card2, cost1, cost2, false, false, blockTuples,
+                    probeCost2);
+        }
+    }
+
+    /**
+     * Estimates the cost of looking up the matches of one left-hand tuple in
+     * an index on the right-hand table's join field; see
+     * {@link #estimateProbeCost(String, int, Predicate.Op, int)}.
+     *
+     * @return the estimated cost, or Double.MAX_VALUE if the right-hand table
+     *         has no index that supports the join or no statistics
+     */
+    private double estimateProbeCost(LogicalJoinNode j, int card2) {
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null) {
+            return Double.MAX_VALUE;
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.MAX_VALUE;
+        }
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (IndexNestedLoopJoin.supports(index, new JoinPredicate(0, j.p, field))) {
+                return estimateProbeCost(Database.getCatalog().getTableName(tableId), field, j.p,
+                        card2);
+            }
+        }
+        return Double.MAX_VALUE;
+    }
+
+    /**
+     * Estimates the cost of looking up the matches of one left-hand tuple in
+     * an index on a field of the right-hand table. Like the other terms of
+     * {@link #estimateJoinCost} that grow with the inputs, it counts tuples:
+     * one per index page read to find the first match, and one per match.
+     *
+     * @param table
+     *            the name of the right-hand table
+     * @param field
+     *            the indexed join field of the right-hand table
+     * @param op
+     *            the join operator
+     * @param card2
+     *            Estimated cardinality of the right-hand side of the query
+     * @return the estimated cost, or Double.MAX_VALUE if the table has no
+     *         statistics to estimate the matches with
+     */
+    static double estimateProbeCost(String table, int field, Predicate.Op op, int card2) {
+        TableStats s = TableStats.getTableStats(table);
+        if (s == null) {
+            return Double.MAX_VALUE;
         }
+        return TableStats.INDEX_PROBE_PAGES + s.avgSelectivity(field, op) * card2;
     }
 
     /**
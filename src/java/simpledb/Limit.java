@@ -0,0 +1,77 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit is an operator that returns only the first tuples of its child, for
+ * LIMIT n without an ORDER BY. It stops reading the child once it has
+ * returned n tuples.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private int returned;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            The child operator
+     */
+    public Limit(int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.limit = limit;
+        this.child = child;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit || !child.hasNext()) {
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
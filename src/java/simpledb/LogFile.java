@@ -4,6 +4,8 @@ package simpledb;
 import java.io.*;
 import java.util.*;
 import java.lang.reflect.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -226,8 +228,46 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /**
+     * Write an UPDATE record to disk for a page given by its raw bytes rather
+     * than as a Page object. Used by bulk appends, which fill pages outside
+     * the buffer pool. The record is the same as one written by
+     * {@link #logWrite(TransactionId, Page, Page)} for pages of pageClass.
+     *
+     * @param tid       The transaction performing the write
+     * @param pageClass The class of the page, which recovery instantiates
+     * @param pid       The id of the page
+     * @param before    The before image of the page, from its position to its limit
+     * @param after     The after image of the page, from its position to its limit
+     */
+    public synchronized void logWrite(TransactionId tid, Class<? extends Page> pageClass,
+            PageId pid, ByteBuffer before, ByteBuffer after)
+            throws IOException {
+        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        preAppend();
+        raf.writeInt(UPDATE_RECORD);
+        raf.writeLong(tid.getId());
+
+        writePageData(raf, pageClass.getName(), pid, before.duplicate());
+        writePageData(raf, pageClass.getName(), pid, after.duplicate());
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+
+        Debug.log("WRITE OFFSET = " + currentOffset);
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException {
-        PageId pid = p.getId();
+        // HeapPages are written from the page frame, without copying it
+        // into an array
+        ByteBuffer pageData = p instanceof HeapPage
+                ? ((HeapPage) p).getPageBuffer()
+                : ByteBuffer.wrap(p.getPageData());
+        writePageData(raf, p.getClass().getName(), p.getId(), pageData);
+    }
+
+    // writes the remaining bytes of pageData as the data of a page
+    private void writePageData(RandomAccessFile raf, String pageClassName, PageId pid,
+            ByteBuffer pageData) throws IOException {
         int pageInfo[] = pid.serialize();
 
         // page data is:
@@ -238,7 +278,6 @@ public class LogFile {
         // page class bytes
         // page class data
 
-        String pageClassName = p.getClass().getName();
         String idClassName = pid.getClass().getName();
 
         raf.writeUTF(pageClassName);
@@ -248,9 +287,11 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        raf.writeInt(pageData.remaining());
+        FileChannel ch = raf.getChannel();
+        while (pageData.hasRemaining()) {
+            ch.write(pageData);
+        }
         // Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +
         // pid.getTableId() + ", page = " + pid.pageno());
     }
@@ -274,7 +315,8 @@ public class LogFile {
             }
             pid = (PageId) idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // pages may have other constructors too; pick Page(PageId, byte[])
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -284,13 +326,16 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
             // Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " +
             // newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         } catch (InstantiationException e) {
             e.printStackTrace();
             throw new IOException();
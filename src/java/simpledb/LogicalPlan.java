@@ -29,12 +29,15 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
+    private boolean hasOrderBy = false;
+    private Vector<String> oByFields = new Vector<String>();
+    private Vector<Boolean> oByAsc = new Vector<Boolean>();
+    private long sortMemoryBytes = OrderBy.DEFAULT_MEMORY_BYTES;
+    private int limit = -1;
     private String query;
 //    private Query owner;
 
@@ -186,36 +189,81 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  Each call adds another aggregate; all of them are
+        computed in a single pass, grouped by every GROUP BY field added.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or * to count tuples
+        @param gfield a field to group by, or null to add no grouping
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
         hasAgg = true;
+        if (aggregateIndex(op, afield) < 0) {
+            aggOps.addElement(op);
+            aggFields.addElement(afield);
+        }
+    }
+
+    /** Add a GROUP BY field to the query.  Groups are formed on the
+        combined values of all GROUP BY fields, in the order they were added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
+    // the position of an aggregate among the aggregates of the query, or -1
+    private int aggregateIndex(String op, String afield) {
+        for (int i = 0; i < aggOps.size(); i++) {
+            if (aggOps.get(i).equals(op) && aggFields.get(i).equals(afield)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds
+        a field that only orders tuples which tie on the fields added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAsc.add(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT to this plan: only the first limit result tuples are returned.
+        With an ORDER BY, the plan keeps just the best limit tuples instead of
+        sorting the whole result.
+        @param limit the number of tuples to return
+     * @throws ParsingException if limit is negative
+    */
+    public void addLimit(int limit) throws ParsingException {
+        if (limit < 0) {
+            throw new ParsingException("Invalid LIMIT " + limit);
+        }
+        this.limit = limit;
+    }
+
+    /** Set how much memory the ORDER BY of this plan may use to sort in memory;
+        larger results are sorted externally.
+        @param bytes the sort's memory budget, in bytes
+    */
+    public void setSortMemoryBytes(long bytes) {
+        this.sortMemoryBytes = bytes;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -289,6 +337,9 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        // per table, the most selective filter that one of its indexes can evaluate
+        HashMap<String,Predicate> indexPredicates = new HashMap<String,Predicate>();
+        HashMap<String,Double> indexSelectivities = new HashMap<String,Double>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -334,20 +385,66 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan) {
+                // evaluated on the raw pages, so rejected tuples are never decoded
+                ((SeqScan) subplan).addPredicate(p);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
             double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
+            IndexFile index = Database.getCatalog().getIndex(this.getTableId(lf.tableAlias), p.getField(), lf.p);
+            if (index != null
+                    && (!indexPredicates.containsKey(lf.tableAlias) || sel < indexSelectivities.get(lf.tableAlias))) {
+                indexPredicates.put(lf.tableAlias, p);
+                indexSelectivities.put(lf.tableAlias, sel);
+            }
+
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
+        // read a table through an index instead when that is estimated cheaper
+        for (Map.Entry<String,Predicate> e : indexPredicates.entrySet()) {
+            String alias = e.getKey();
+            if (!(subplanMap.get(alias) instanceof SeqScan)) {
+                continue;
+            }
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(alias)));
+            double scanCost = s.estimateScanCost();
+            double indexCost = s.estimateIndexScanCost(indexSelectivities.get(alias));
+            if (indexCost >= scanCost) {
+                continue;
+            }
+            SeqScan ss = (SeqScan) subplanMap.get(alias);
+            Predicate ip = e.getValue();
+            IndexScan is = new IndexScan(t, Database.getCatalog().getIndex(this.getTableId(alias), ip.getField(), ip.getOp()), ip, alias);
+            for (Predicate p : ss.getPredicates()) {
+                if (p != ip) {
+                    is.addPredicate(p);
+                }
+            }
+            subplanMap.put(alias, is);
+            if (explain) {
+                System.out.println("IndexScan " + is.getTupleDesc().getFieldName(ip.getField()) + " " + ip.getOp()
+                        + " " + ip.getOperand() + ": estimated cost " + indexCost + ", " + scanCost + " for a SeqScan");
+            }
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
         joins = jo.orderJoins(statsMap,filterSelectivities,explain);
 
+        // estimated cardinality of each subplan, for choosing join operators
+        HashMap<String,Integer> cardMap = new HashMap<String,Integer>();
+        for (Map.Entry<String,Double> e : filterSelectivities.entrySet()) {
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(e.getKey())));
+            cardMap.put(e.getKey(), s == null ? 0 : s.estimateTableCardinality(e.getValue()));
+        }
+
         Iterator<LogicalJoinNode> joinIt = joins.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
@@ -381,10 +478,27 @@ public class LogicalPlan {
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
+            int card1 = cardMap.getOrDefault(t1name, 0);
+            // a subquery's cardinality isn't estimated; instantiateJoin doesn't cost its joins
+            int card2 = isSubqueryJoin ? 0 : cardMap.getOrDefault(t2name, 0);
             OpIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,card1,card2);
             subplanMap.put(t1name, j);
 
+            if (explain) {
+                String line = j.getClass().getSimpleName() + " " + lj.f1QuantifiedName + " " + lj.p
+                        + " " + (isSubqueryJoin ? "(subquery)" : lj.f2QuantifiedName);
+                if (j instanceof HashJoin) {
+                    long spill = HashJoin.estimateSpillBytes(
+                            (long) card1 * plan1.getTupleDesc().getSize(),
+                            (long) card2 * plan2.getTupleDesc().getSize(),
+                            HashJoin.DEFAULT_MEMORY_BYTES);
+                    line += ": estimated spill " + spill + " bytes";
+                }
+                System.out.println(line);
+            }
+            cardMap.put(t1name, jo.estimateJoinCardinality(lj, card1, card2, false, false, statsMap));
+
             if (!isSubqueryJoin) {
                 subplanMap.remove(t2name);
                 equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
@@ -414,28 +528,25 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
-                TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                int agg = aggregateIndex(si.aggOp, si.fname);
+                if (agg < 0) {
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the query");
                 }
+                outFields.add(groupByFields.size() + agg);
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int group = groupByFields.indexOf(si.fname);
+                    if (group < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(group);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -460,22 +571,52 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            int[] gfields = new int[groupByFields.size()];
+            int[] afields = new int[aggOps.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                }
+                for (int i = 0; i < afields.length; i++) {
+                    aops[i] = getAggOp(aggOps.get(i));
+                    if (aggFields.get(i).equals("null.*")) {
+                        // COUNT(*) counts tuples, which any field does
+                        if (aops[i] != Aggregator.Op.COUNT) {
+                            throw new ParsingException("Only COUNT can be computed over *");
+                        }
+                        afields[i] = 0;
+                    } else {
+                        afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    }
+                }
+                node = new Aggregate(node, afields, gfields, aops);
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] asc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                oByIndexes[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                asc[i] = oByAsc.get(i);
+            }
+            // TopN keeps all of its tuples in memory, so a limit that doesn't
+            // fit in the sort's budget sorts externally and then cuts
+            if (limit >= 0 && (long) limit * node.getTupleDesc().getSize() <= sortMemoryBytes) {
+                node = new TopN(oByIndexes, asc, limit, node);
+            } else {
+                node = new OrderBy(oByIndexes, asc, node, sortMemoryBytes);
+                if (limit >= 0) {
+                    node = new Limit(limit, node);
+                }
+            }
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LoserTree merges several sorted streams of tuples into one sorted stream.
+ * <p>
+ * It is a tournament tree: every internal node remembers the stream that
+ * lost the match played there, and the overall winner sits at the root.
+ * After the winner's tuple is taken, only the matches on the path from its
+ * leaf to the root are replayed, so each tuple costs about log2(k)
+ * comparisons for k streams, against up to 2*log2(k) for a binary heap.
+ * <p>
+ * Ties go to the stream with the lower index, so merging runs that were cut
+ * from the input in order keeps the merge stable.
+ */
+public class LoserTree {
+
+    private final List<DbFileIterator> sources;
+    private final Comparator<Tuple> comparator;
+    private final int k;
+    // the current tuple of each stream, or null once it is exhausted
+    private final Tuple[] heads;
+    // tree[0] is the winning stream; tree[1..k-1] hold the losers
+    private final int[] tree;
+
+    /**
+     * Creates a merge of the given streams, and opens them.
+     *
+     * @param sources iterators returning tuples in the comparator's order
+     * @param comparator the order of the streams and of the merge
+     */
+    public LoserTree(List<DbFileIterator> sources, Comparator<Tuple> comparator)
+            throws DbException, TransactionAbortedException {
+        this.sources = sources;
+        this.comparator = comparator;
+        this.k = sources.size();
+        this.heads = new Tuple[k];
+        this.tree = new int[Math.max(1, k)];
+        for (int i = 0; i < k; i++) {
+            DbFileIterator source = sources.get(i);
+            source.open();
+            heads[i] = source.hasNext() ? source.next() : null;
+        }
+        if (k > 0) {
+            tree[0] = build(1);
+        }
+    }
+
+    // plays the matches below the given node; returns the winner
+    private int build(int node) {
+        if (node >= k) {
+            return node - k;
+        }
+        int left = build(2 * node);
+        int right = build(2 * node + 1);
+        if (beats(left, right)) {
+            tree[node] = right;
+            return left;
+        }
+        tree[node] = left;
+        return right;
+    }
+
+    // true if stream a's head comes before stream b's
+    private boolean beats(int a, int b) {
+        if (heads[a] == null) {
+            return false;
+        }
+        if (heads[b] == null) {
+            return true;
+        }
+        int c = comparator.compare(heads[a], heads[b]);
+        return c < 0 || (c == 0 && a < b);
+    }
+
+    /** @return true if any stream has tuples left */
+    public boolean hasNext() {
+        return k > 0 && heads[tree[0]] != null;
+    }
+
+    /**
+     * Returns the smallest tuple left in any stream.
+     *
+     * @throws NoSuchElementException if all streams are exhausted
+     */
+    public Tuple next() throws DbException, TransactionAbortedException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        int winner = tree[0];
+        Tuple result = heads[winner];
+        DbFileIterator source = sources.get(winner);
+        heads[winner] = source.hasNext() ? source.next() : null;
+        for (int node = (winner + k) / 2; node >= 1; node /= 2) {
+            if (beats(tree[node], winner)) {
+                int t = tree[node];
+                tree[node] = winner;
+                winner = t;
+            }
+        }
+        tree[0] = winner;
+        return result;
+    }
+
+    /** Closes all streams. */
+    public void close() {
+        for (DbFileIterator source : sources) {
+            source.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-K style replacement with O(1) bookkeeping. Pages that have been
+ * referenced fewer than K times live on a FIFO "history" list and are always
+ * evicted before pages that have been referenced at least K times, which
+ * live on an LRU "hot" list. A page read once by a large sequential scan
+ * therefore never pushes out a page that is hit repeatedly (e.g. the inner
+ * side of a join or a small dimension table).
+ * <p>
+ * Ordering the hot list by last access instead of by the K-th most recent
+ * access is what keeps every operation O(1); it is the usual approximation
+ * (as in 2Q). Reference counts of recently evicted pages are remembered in a
+ * bounded ghost list so that a page that comes straight back is promoted
+ * without having to earn its K references again.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** Default number of references needed before a page is considered hot. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final LinkedHashMap<PageId, Integer> history;
+    private final LinkedHashMap<PageId, Boolean> hot;
+    private final LinkedHashMap<PageId, Integer> ghosts;
+
+    /**
+     * Creates an LRU-2 policy for a buffer pool of the given capacity.
+     *
+     * @param capacity number of pages in the buffer pool
+     */
+    public LruKPolicy(int capacity) {
+        this(capacity, DEFAULT_K);
+    }
+
+    /**
+     * Creates an LRU-K policy for a buffer pool of the given capacity.
+     *
+     * @param capacity number of pages in the buffer pool; also the number of
+     *                 evicted pages whose reference counts are remembered
+     * @param k        number of references that make a page hot
+     */
+    public LruKPolicy(int capacity, int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        final int ghostCapacity = Math.max(1, capacity);
+        this.k = k;
+        this.history = new LinkedHashMap<>();
+        this.hot = new LinkedHashMap<>(16, 0.75f, true);
+        this.ghosts = new LinkedHashMap<PageId, Integer>() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, Integer> eldest) {
+                return size() > ghostCapacity;
+            }
+        };
+    }
+
+    public synchronized void pageAdmitted(PageId pid) {
+        if (history.containsKey(pid) || hot.containsKey(pid)) {
+            pageAccessed(pid);
+            return;
+        }
+        Integer previous = ghosts.remove(pid);
+        int count = previous == null ? 1 : previous + 1;
+        if (count >= k) {
+            hot.put(pid, Boolean.TRUE);
+        } else {
+            history.put(pid, count);
+        }
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (hot.get(pid) != null) {
+            // access-ordered map: get() moved it to the MRU end
+            return;
+        }
+        Integer count = history.get(pid);
+        if (count == null) {
+            // the page got into the pool without going through getPage
+            pageAdmitted(pid);
+            return;
+        }
+        if (count + 1 >= k) {
+            history.remove(pid);
+            hot.put(pid, Boolean.TRUE);
+        } else {
+            history.put(pid, count + 1);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer count = history.remove(pid);
+        if (count == null && hot.remove(pid) != null) {
+            count = k;
+        }
+        if (count != null) {
+            ghosts.put(pid, count);
+        }
+    }
+
+    public synchronized PageId chooseVictim(java.util.function.Predicate<PageId> evictable) {
+        PageId victim = firstEvictable(history.keySet().iterator(), evictable);
+        if (victim == null) {
+            victim = firstEvictable(hot.keySet().iterator(), evictable);
+        }
+        return victim;
+    }
+
+    // returns the first page in iteration order that may be evicted
+    private static PageId firstEvictable(Iterator<PageId> candidates,
+                                         java.util.function.Predicate<PageId> evictable) {
+        while (candidates.hasNext()) {
+            PageId pid = candidates.next();
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,176 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Knows how to compute several aggregates at once, grouped on any number of
+ * fields, so that a single pass over the input yields all of them.
+ * <p>
+ * Like {@link IntegerAggregator}, it numbers groups with a
+ * {@link GroupTable} and keeps the running aggregates in primitive arrays
+ * indexed by group number: one count of tuples per group, shared by every
+ * COUNT and AVG, and one array per aggregate for its sum or extreme value.
+ * Aggregates over string fields only support COUNT, like
+ * {@link StringAggregator}.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_GROUPS = 16;
+    private final int[] gbfields;
+    private final Type[] gbfieldtypes;
+    private final int[] afields;
+    private final Op[] whats;
+    private final GroupTable groups;
+    // tuples per group, and per aggregate and group the sum (for SUM and
+    // AVG) or the extreme value (for MIN and MAX)
+    private long[] counts;
+    private final long[][] values;
+    private TupleDesc tupleDesc;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param afieldtypes
+     *            the types of the aggregate fields
+     * @param whats
+     *            the aggregation operator of each aggregate field
+     * @throws IllegalArgumentException if the arrays don't match, or an
+     *             aggregate over a string field isn't COUNT
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbfieldtypes, int[] afields,
+            Type[] afieldtypes, Op[] whats) {
+        if (gbfields.length != gbfieldtypes.length || afields.length != afieldtypes.length
+                || afields.length != whats.length || afields.length == 0) {
+            throw new IllegalArgumentException("need one type for each field and one operator for each of at least one aggregate");
+        }
+        for (int i = 0; i < whats.length; i++) {
+            Op what = whats[i];
+            boolean overInts = what == Op.MIN || what == Op.MAX || what == Op.SUM || what == Op.AVG;
+            if (what != Op.COUNT && !(overInts && afieldtypes[i] == Type.INT_TYPE)) {
+                throw new IllegalArgumentException("unsupported aggregate " + what
+                        + " over " + afieldtypes[i]);
+            }
+        }
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afields = afields.clone();
+        this.whats = whats.clone();
+        this.groups = new GroupTable(gbfields, gbfieldtypes);
+        this.counts = new long[INITIAL_GROUPS];
+        this.values = new long[afields.length][INITIAL_GROUPS];
+    }
+
+    /**
+     * Merge a new tuple into every aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        tupleDesc = tup.getTupleDesc();
+        int before = groups.size();
+        int g = groups.groupOf(tup);
+        if (g == before && g == counts.length) {
+            counts = Arrays.copyOf(counts, g * 2);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Arrays.copyOf(values[i], g * 2);
+            }
+        }
+        counts[g]++;
+        for (int i = 0; i < afields.length; i++) {
+            if (whats[i] == Op.COUNT) {
+                continue;
+            }
+            int value = ((IntField) tup.getField(afields[i])).getValue();
+            long[] v = values[i];
+            if (g == before) {
+                // a new group starts from its first value
+                v[g] = value;
+                continue;
+            }
+            switch (whats[i]) {
+                case MAX:
+                    v[g] = Math.max(v[g], value);
+                    break;
+                case MIN:
+                    v[g] = Math.min(v[g], value);
+                    break;
+                default:
+                    v[g] += value;
+                    break;
+            }
+        }
+    }
+
+    // the value of the i-th aggregate of the given group
+    private int aggregateValue(int i, int g) {
+        switch (whats[i]) {
+            case COUNT:
+                return (int) counts[g];
+            case AVG:
+                return (int) (values[i][g] / counts[g]);
+            default:
+                return (int) values[i][g];
+        }
+    }
+
+    /**
+     * @return the TupleDesc of the results: the group-by fields, followed by
+     *         an int field for each aggregate
+     */
+    public TupleDesc getTupleDesc() {
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = gbfieldtypes[i];
+            names[i] = tupleDesc == null ? null : tupleDesc.getFieldName(gbfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gbfields.length + i] = Type.INT_TYPE;
+            names[gbfields.length + i] = tupleDesc == null ? null : tupleDesc.getFieldName(afields[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the group-by values followed by
+     *         the value of each aggregate, in the order given to the
+     *         constructor
+     */
+    public OpIterator iterator() {
+        TupleDesc td = getTupleDesc();
+        List<Tuple> tuples = new ArrayList<Tuple>(groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            Tuple tuple = new Tuple(td);
+            for (int i = 0; i < gbfields.length; i++) {
+                tuple.setField(i, groups.groupKey(g, i));
+            }
+            for (int i = 0; i < afields.length; i++) {
+                tuple.setField(gbfields.length + i, new IntField(aggregateValue(i, g)));
+            }
+            tuples.add(tuple);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.contains(tup);
+    }
+}
@@ -1,13 +1,27 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or
+ * more fields, each ascending or descending.
+ * <p>
+ * Inputs that fit in the operator's memory budget are sorted in memory.
+ * Larger inputs are sorted externally: the input is cut into runs that fit
+ * in memory, each run is sorted and written to a {@link SpillFile}, and the
+ * runs are merged with a {@link LoserTree}. Each run being merged needs a
+ * page of memory, so if there are more runs than pages in the budget, runs
+ * are merged into longer runs first. The last merge is streamed to the
+ * parent operator.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the tuples being sorted, in bytes. */
+    public static final long DEFAULT_MEMORY_BYTES = 4L << 20;
+
     private OpIterator child;
     private TupleDesc td;
     private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
@@ -15,6 +29,13 @@ public class OrderBy extends Operator {
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int[] orderByFields;
+    private final boolean[] ascending;
+    private final TupleComparator comparator;
+    private final long memoryBytes;
+    // the sorted runs of an external sort, and their merge
+    private List<SpillFile> runs;
+    private LoserTree merge;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -27,11 +48,50 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_BYTES);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts in at most the given amount of
+     * memory. Tuples are accounted for by their size on disk.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBytes
+     *            how many bytes of tuples may be held in memory
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, long memoryBytes) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, child, memoryBytes);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields in at most the
+     * given amount of memory.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryBytes
+     *            how many bytes of tuples may be held in memory
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, long memoryBytes) {
+        this.memoryBytes = memoryBytes;
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.comparator = new TupleComparator(orderbyFields, asc);
+        this.orderByFields = orderbyFields.clone();
+        this.ascending = asc.clone();
+        this.orderByField = orderbyFields[0];
+        this.orderByFieldName = td.getFieldName(orderByField);
+        this.asc = asc[0];
     }
     
     public boolean isASC()
@@ -43,6 +103,16 @@ public class OrderBy extends Operator {
     {
         return this.orderByField;
     }
+
+    /** @return the fields sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each field sorted on, true if it is sorted ascending */
+    public boolean[] getAscending() {
+        return ascending.clone();
+    }
     
     public String getOrderFieldName()
     {
@@ -53,24 +123,147 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /** @return the number of sorted runs written to disk; 0 if the sort fit in memory */
+    public int getNumRuns() {
+        return runs == null ? 0 : runs.size();
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        childTups.clear();
+        deleteRuns();
+        long maxTuples = Math.max(1, memoryBytes / td.getSize());
+        boolean sorted = false;
+        try {
+            // load as many tuples as fit in a collection, and sort it; write
+            // it out as a run if there are more
+            while (child.hasNext()) {
+                childTups.add((Tuple) child.next());
+                if (childTups.size() >= maxTuples && child.hasNext()) {
+                    comparator.sort(childTups);
+                    writeRun();
+                }
+            }
+            comparator.sort(childTups);
+            if (runs != null) {
+                if (!childTups.isEmpty()) {
+                    writeRun();
+                }
+                mergeRuns();
+                merge = new LoserTree(runIterators(runs), comparator);
+                it = null;
+            } else {
+                it = childTups.iterator();
+            }
+            sorted = true;
+        } finally {
+            if (!sorted) {
+                deleteRuns();
+            }
+        }
         super.open();
     }
 
+    // writes the sorted tuples in memory to a new run
+    private void writeRun() throws DbException {
+        if (runs == null) {
+            runs = new ArrayList<SpillFile>();
+        }
+        try {
+            SpillFile run = new SpillFile(td);
+            runs.add(run);
+            for (Tuple t : childTups) {
+                run.add(t);
+            }
+            run.finish();
+        } catch (IOException e) {
+            throw new DbException("can't write sort run: " + e.getMessage());
+        }
+        childTups.clear();
+    }
+
+    // merges runs until they can all be merged at once
+    private void mergeRuns()
+            throws DbException, TransactionAbortedException {
+        int fanIn = (int) Math.max(2, Math.min(Integer.MAX_VALUE,
+                memoryBytes / BufferPool.getPageSize()));
+        while (runs.size() > fanIn) {
+            List<SpillFile> merged = new ArrayList<SpillFile>();
+            boolean done = false;
+            try {
+                for (int i = 0; i < runs.size(); i += fanIn) {
+                    List<SpillFile> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+                    if (group.size() == 1) {
+                        merged.add(group.get(0));
+                        continue;
+                    }
+                    LoserTree tree = new LoserTree(runIterators(group), comparator);
+                    try {
+                        SpillFile run = new SpillFile(td);
+                        merged.add(run);
+                        while (tree.hasNext()) {
+                            run.add(tree.next());
+                        }
+                        run.finish();
+                    } catch (IOException e) {
+                        throw new DbException("can't write sort run: " + e.getMessage());
+                    } finally {
+                        tree.close();
+                    }
+                    for (SpillFile f : group) {
+                        f.delete();
+                    }
+                }
+                done = true;
+            } finally {
+                // the merged runs aren't in runs yet, so deleteRuns misses them
+                if (!done) {
+                    for (SpillFile f : merged) {
+                        f.delete();
+                    }
+                }
+            }
+            runs = merged;
+        }
+    }
+
+    private static List<DbFileIterator> runIterators(List<SpillFile> runs) {
+        List<DbFileIterator> its = new ArrayList<DbFileIterator>();
+        for (SpillFile run : runs) {
+            its.add(run.iterator());
+        }
+        return its;
+    }
+
+    private void deleteRuns() {
+        if (merge != null) {
+            merge.close();
+            merge = null;
+        }
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
+        child.close();
         it = null;
+        childTups.clear();
+        deleteRuns();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs != null) {
+            merge.close();
+            merge = new LoserTree(runIterators(runs), comparator);
+        } else {
+            it = childTups.iterator();
+        }
     }
 
     /**
@@ -82,6 +275,9 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null) {
+            return merge.hasNext() ? merge.next() : null;
+        }
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -99,25 +295,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
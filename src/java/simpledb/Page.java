@@ -7,8 +7,9 @@ package simpledb;
  * Pages may be "dirty", indicating that they have been modified since they
  * were last written out to disk.
  *
- * For recovery purposes, pages MUST have a single constructor of the form:
+ * For recovery purposes, pages MUST have a constructor of the form:
  *     Page(PageId id, byte[] data)
+ * whose first parameter is the concrete PageId class of the page.
  */
 public interface Page {
 
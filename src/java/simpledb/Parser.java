@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -182,23 +184,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
             }
 
         }
@@ -207,8 +205,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        Vector<String> aggFields = new Vector<String>();
+        Vector<String> aggFuns = new Vector<String>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +216,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                aggFields.addElement(aggField);
+                aggFuns.addElement(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,37 +237,143 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), null);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             Vector<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.elementAt(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
+        lp.setSortMemoryBytes(sortMemoryBytes);
         return lp;
     }
 
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
+    private long sortMemoryBytes = OrderBy.DEFAULT_MEMORY_BYTES;
+    // the LIMIT of the statement being processed, or -1
+    private int limit = -1;
+
+    // Zql doesn't know LIMIT, so a trailing "LIMIT n" is cut from the
+    // statement before it is parsed
+    private static final Pattern LIMIT = Pattern.compile(
+            "(?is)^(.*\\S)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+    /**
+     * Removes a trailing LIMIT clause from a statement and remembers its
+     * value for the statement's plan.
+     *
+     * @param sql a single SQL statement
+     * @return the statement without its LIMIT clause
+     */
+    String stripLimit(String sql) throws simpledb.ParsingException {
+        Matcher m = LIMIT.matcher(sql);
+        if (!m.matches()) {
+            limit = -1;
+            return sql;
+        }
+        try {
+            limit = Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT " + m.group(2));
+        }
+        return m.group(1) + m.group(3);
+    }
+
+    // nor CREATE INDEX, which is matched before the statement gets to Zql
+    private static final Pattern CREATE_INDEX = Pattern.compile(
+            "(?is)^\\s*CREATE\\s+INDEX\\s+(?:\\w+\\s+)?ON\\s+(\\w+)\\s*\\(\\s*([\\w.]+)\\s*\\)"
+            + "(?:\\s*USING\\s+(BTREE|HASH))?\\s*;?\\s*$");
+
+    /**
+     * Builds an index on a field of a table and adds it to the catalog. The
+     * index is stored next to the table's file: a B+ tree in
+     * table.field.idx, where the catalog also looks for the index of a
+     * primary key, and a hash index in table.field.hash.
+     *
+     * @param tableName the table to index
+     * @param fieldName the field to index, optionally qualified by the table
+     * @param hash true for a {@link HashIndexFile}, false for a {@link BTreeFile}
+     * @param tId the transaction scanning the table
+     */
+    public void handleCreateIndexStatement(String tableName, String fieldName, boolean hash,
+            TransactionId tId)
+            throws simpledb.ParsingException, DbException, TransactionAbortedException, IOException {
+        int tableId;
+        try {
+            tableId = Database.getCatalog().getTableId(tableName);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown table " + tableName);
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new simpledb.ParsingException("Table " + tableName + " can't be indexed");
+        }
+        String field = fieldName.substring(fieldName.lastIndexOf('.') + 1);
+        int keyField;
+        try {
+            keyField = file.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            throw new simpledb.ParsingException("Unknown field " + fieldName);
+        }
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            if (index.getKeyField() == keyField && (index instanceof HashIndexFile) == hash) {
+                throw new simpledb.ParsingException(tableName + "." + field + " is already indexed");
+            }
+        }
+        HeapFile hf = (HeapFile) file;
+        File idxFile = new File(hf.getFile().getAbsoluteFile().getParentFile(),
+                tableName + "." + field + (hash ? ".hash" : ".idx"));
+        if (hash) {
+            Database.getCatalog().addIndex(HashIndexFile.create(idxFile, hf, keyField, tId));
+        } else {
+            Database.getCatalog().addIndex(BTreeFile.create(idxFile, hf, keyField, tId));
+        }
+        System.out.println("Created " + (hash ? "hash " : "") + "index on " + tableName + "." + field);
+    }
+
+    // applies the LIMIT of the current statement to its plan
+    private void addLimit(LogicalPlan lp) throws simpledb.ParsingException {
+        if (limit >= 0) {
+            lp.addLimit(limit);
+        }
+    }
+
+    // only queries take a LIMIT; anything else would silently ignore it
+    private void rejectLimit(String statement) throws simpledb.ParsingException {
+        if (limit >= 0) {
+            throw new simpledb.ParsingException("LIMIT is not supported in " + statement + " statements");
+        }
+    }
+
+    /**
+     * Sets the memory budget of the ORDER BY of the queries that follow; the
+     * interactive prompt sets it with "SET SORT_MEM bytes;".
+     *
+     * @param bytes the sort's memory budget, in bytes
+     */
+    public void setSortMemoryBytes(long bytes) {
+        this.sortMemoryBytes = bytes;
+    }
 
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
@@ -279,6 +381,7 @@ public class Parser {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        addLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -343,6 +446,7 @@ public class Parser {
         OpIterator newTups;
 
         if (s.getValues() != null) {
+            rejectLimit("INSERT ... VALUES");
             @SuppressWarnings("unchecked")
             Vector<ZExp> values = (Vector<ZExp>) s.getValues();
             if (td.numFields() != values.size()) {
@@ -387,6 +491,7 @@ public class Parser {
         } else {
             ZQuery zq = (ZQuery) s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            addLimit(lp);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -397,6 +502,7 @@ public class Parser {
     public Query handleDeleteStatement(ZDelete s, TransactionId tid)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        rejectLimit("DELETE");
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); // will fall
@@ -430,6 +536,7 @@ public class Parser {
     public void handleTransactStatement(ZTransactStmt s)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
+        rejectLimit(s.getStmtType());
         if (s.getStmtType().equals("COMMIT")) {
             if (curtrans == null)
                 throw new simpledb.ParsingException(
@@ -465,12 +572,13 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                addLimit(lp);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,8 +611,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            String sql = new String(is.readAllBytes(), "UTF-8");
+            Matcher createIndex = CREATE_INDEX.matcher(sql);
+            ZStatement s = null;
+            if (!createIndex.matches()) {
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(
+                        stripLimit(sql).getBytes("UTF-8")));
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -517,7 +631,11 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (s == null)
+                        handleCreateIndexStatement(createIndex.group(1),
+                                createIndex.group(2), "hash".equalsIgnoreCase(createIndex.group(3)),
+                                curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -581,7 +699,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "order by", "limit", "create index", "on", "using" };
 
     public static void main(String argv[]) throws IOException {
 
@@ -681,6 +799,19 @@ public class Parser {
                         quit = true;
                         break;
                     }
+                    String[] words = cmd.substring(0, cmd.length() - 1).split("\\s+");
+                    if (words.length == 3 && words[0].equalsIgnoreCase("set")
+                            && words[1].equalsIgnoreCase("sort_mem")) {
+                        try {
+                            setSortMemoryBytes(Long.parseLong(words[2]));
+                            System.out.println("Sort memory set to " + words[2] + " bytes.");
+                        } catch (NumberFormatException e) {
+                            System.out.println("Invalid sort memory: " + words[2]);
+                        }
+                        line = line.substring(split + 1);
+                        buffer = new StringBuilder();
+                        continue;
+                    }
 
                     long startTime = System.currentTimeMillis();
                     processNextStatement(new ByteArrayInputStream(
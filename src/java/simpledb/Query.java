@@ -105,14 +105,18 @@ public class Query implements Serializable {
         }
         System.out.println("");
 
-        this.start();
         int cnt = 0;
-        while (this.hasNext()) {
-            Tuple tup = this.next();
-            System.out.println(tup);
-            cnt++;
+        try {
+            this.start();
+            while (this.hasNext()) {
+                Tuple tup = this.next();
+                System.out.println(tup);
+                cnt++;
+            }
+        } finally {
+            // operators delete their temporary files when closed
+            this.close();
         }
         System.out.println("\n " + cnt + " rows.");
-        this.close();
     }
 }
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * ReadAhead watches the pages one scan asks for and, while the access is
+ * sequential, reads the next pages of the file into the BufferPool on a
+ * background thread, so that the scan finds them cached instead of waiting
+ * for each read in turn.
+ * <p>
+ * Pages are read in batches. A new batch is issued once less than half of
+ * the window is still ahead of the scan and the previous batch is done. The
+ * window adapts to the scan: it is sized to cover the time one page read
+ * takes at the rate the scan consumes pages (both measured as moving
+ * averages), and never exceeds the configured maximum, a quarter of the
+ * buffer pool, or what fits in the scan's buffer ring.
+ * <p>
+ * A ReadAhead belongs to a single iterator and is not thread safe.
+ *
+ * @see HeapFile#setReadAheadPages
+ */
+public class ReadAhead {
+
+    /** Default upper bound on the number of pages read ahead of a scan. */
+    public static final int DEFAULT_MAX_PAGES = 8;
+
+    /** Window used until there are measurements to size it. */
+    private static final int INITIAL_PAGES = 4;
+
+    /** Weight of the newest sample in the moving averages. */
+    private static final double ALPHA = 0.25;
+
+    private static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "simpledb-readahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final HeapFile file;
+    private final BufferPool pool;
+    private final BufferRing ring;
+    private final int maxPages;
+
+    private int lastPage;
+    private int issuedUpTo;
+    private int window;
+    private long lastRequestNanos;
+    private double consumeNanos;
+    // written by the background reads
+    private volatile double readNanos;
+    private Future<?> inFlight;
+
+    /**
+     * Creates a read-ahead for a scan of the given file that starts at page 0.
+     *
+     * @param file the file being scanned
+     * @param pool the buffer pool pages are read into
+     * @param ring the scan's buffer ring, or null if it reads through the
+     *             shared pool
+     * @param maxPages upper bound on the number of pages read ahead
+     */
+    public ReadAhead(HeapFile file, BufferPool pool, BufferRing ring, int maxPages) {
+        this.file = file;
+        this.pool = pool;
+        this.ring = ring;
+        int cap = Math.min(maxPages, pool.getNumPages() / 4);
+        if (ring != null) {
+            // the page being consumed keeps one slot of the ring
+            cap = Math.min(cap, ring.capacity() - 1);
+        }
+        this.maxPages = Math.max(0, cap);
+        this.window = Math.min(INITIAL_PAGES, this.maxPages);
+        this.lastPage = -1;
+        this.issuedUpTo = 0;
+        this.lastRequestNanos = System.nanoTime();
+    }
+
+    /** @return the current read-ahead window, in pages */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Tells the read-ahead that the scan is about to fetch the given page.
+     * A page that doesn't follow the previous one restarts sequential
+     * detection from there.
+     *
+     * @param pageNo the page the scan is fetching
+     */
+    public void pageRequested(int pageNo) {
+        long now = System.nanoTime();
+        boolean sequential = pageNo == lastPage + 1;
+        if (sequential && pageNo > 0) {
+            consumeNanos = average(consumeNanos, now - lastRequestNanos);
+        }
+        lastRequestNanos = now;
+        lastPage = pageNo;
+        if (!sequential) {
+            issuedUpTo = pageNo + 1;
+            return;
+        }
+        if (maxPages == 0) {
+            return;
+        }
+        adaptWindow();
+        issuedUpTo = Math.max(issuedUpTo, pageNo + 1);
+        int ahead = issuedUpTo - (pageNo + 1);
+        if (ahead <= window / 2 && (inFlight == null || inFlight.isDone())) {
+            int end = Math.min(pageNo + 1 + window, file.numPages());
+            if (end > issuedUpTo) {
+                issue(issuedUpTo, end);
+                issuedUpTo = end;
+            }
+        }
+    }
+
+    /** Waits for the batch in flight, if any, to finish. Used by tests. */
+    void awaitInFlight() {
+        if (inFlight == null) {
+            return;
+        }
+        try {
+            inFlight.get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // sizes the window so that reads keep up with the measured consumption
+    private void adaptWindow() {
+        double read = readNanos;
+        if (read <= 0 || consumeNanos <= 0) {
+            return;
+        }
+        int needed = (int) Math.ceil(read / consumeNanos);
+        window = Math.max(1, Math.min(maxPages, 2 * needed));
+    }
+
+    // reads pages [from, to) of the file in the background
+    private void issue(final int from, final int to) {
+        inFlight = EXECUTOR.submit(() -> {
+            for (int pageNo = from; pageNo < to; pageNo++) {
+                long start = System.nanoTime();
+                if (pool.prefetchPage(new HeapPageId(file.getId(), pageNo), ring)) {
+                    readNanos = average(readNanos, System.nanoTime() - start);
+                }
+            }
+        });
+    }
+
+    private static double average(double current, double sample) {
+        return current <= 0 ? sample : (1 - ALPHA) * current + ALPHA * sample;
+    }
+}
@@ -0,0 +1,51 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which resident page the BufferPool gives up when
+ * it needs a free frame. The BufferPool reports every page it admits, every
+ * hit on a resident page and every page it drops; the policy keeps whatever
+ * bookkeeping it needs to answer {@link #chooseVictim} cheaply.
+ * <p>
+ * Implementations must make every call O(1) (amortized for chooseVictim) and
+ * must be safe to call from multiple threads.
+ *
+ * @see BufferPool
+ * @see ClockPolicy
+ * @see LruKPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when a page is brought into the buffer pool.
+     *
+     * @param pid the id of the page that was admitted
+     */
+    public void pageAdmitted(PageId pid);
+
+    /**
+     * Called on every buffer pool hit for a resident page.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    public void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page leaves the buffer pool for any reason (eviction,
+     * discard, rollback).
+     *
+     * @param pid the id of the page that was removed
+     */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page to evict next. The policy only proposes pages for which
+     * <code>evictable</code> returns true; the chosen page is NOT removed from
+     * the policy, the caller reports it through {@link #pageRemoved} once it
+     * is actually gone.
+     *
+     * @param evictable tells the policy whether a candidate may be evicted
+     *                  (e.g. it is not dirty)
+     * @return the page to evict, or null if no resident page is evictable
+     */
+    public PageId chooseVictim(java.util.function.Predicate<PageId> evictable);
+}
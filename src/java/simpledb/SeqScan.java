@@ -15,6 +15,8 @@ public class SeqScan implements OpIterator {
     private int tableid;
     private String tableAlias;
     private DbFileIterator iterator;
+    // selections pushed down into the scan
+    private final List<Predicate> predicates = new ArrayList<Predicate>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -48,6 +50,11 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableid);
     }
 
+    /** @return the transaction this scan is running as a part of */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -79,12 +86,72 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Pushes a selection down into this scan: only tuples that pass every
+     * added predicate are returned. Heap files test the predicates on the
+     * page bytes, before any tuple is decoded. Must be called before open().
+     *
+     * @param p a predicate over the fields of this scan's TupleDesc
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /** @return the predicates pushed down into this scan */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (predicates.isEmpty()) {
+            iterator = file.iterator(tid);
+        } else if (file instanceof HeapFile) {
+            iterator = ((HeapFile) file).iterator(tid, predicates.toArray(new Predicate[0]));
+        } else {
+            iterator = new FilteredIterator(file.iterator(tid));
+        }
         iterator.open();
     }
 
+    // applies the pushed-down predicates to files that can't evaluate them
+    private class FilteredIterator extends AbstractDbFileIterator {
+        private final DbFileIterator child;
+
+        FilteredIterator(DbFileIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                boolean pass = true;
+                for (Predicate p : predicates) {
+                    pass &= p.filter(t);
+                }
+                if (pass) {
+                    return t;
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator evaluates equality and inequality (band) joins
+ * by sorting both inputs on their join fields and merging them, instead of
+ * comparing every pair of tuples as a nested loops join does.
+ * <p>
+ * With both inputs in ascending order, the tuples of child2 that match a
+ * tuple of child1 always form one contiguous run: the ones equal to its join
+ * value for =, everything after them for &lt; and &lt;=, and everything
+ * before them for &gt; and &gt;=. The run's bounds only move forward as
+ * child1's join value grows, so the merge takes linear time besides the
+ * output. An input that is already sorted ascending on its join field by an
+ * {@link OrderBy} isn't sorted again.
+ * <p>
+ * Both inputs are held in memory. The results are the fields of child1
+ * followed by those of child2, like {@link Join}, in the order of child1's
+ * join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate p;
+    private OpIterator child1;
+    private OpIterator child2;
+    private final TupleDesc tupleDesc;
+
+    private ArrayList<Tuple> left;
+    private ArrayList<Tuple> right;
+    // next tuple of left to join
+    private int leftPos;
+    // first index of right whose join value is >= / > the current left value
+    private int firstGE;
+    private int firstGT;
+    // the left tuple being joined and the rest of its matching run in right
+    private Tuple leftTuple;
+    private int matchPos;
+    private int matchEnd;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be EQUALS, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN or
+     *            GREATER_THAN_OR_EQ
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @throws IllegalArgumentException if the predicate isn't an order
+     *             comparison
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("SortMergeJoin can't evaluate " + p.getOperator());
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.tupleDesc = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /** @return true if joins with the given operator can be sort-merged */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE && op != Predicate.Op.NOT_EQUALS;
+    }
+
+    /**
+     * @return true if the given iterator returns its tuples in ascending order
+     *         of the given field
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy ob = (OrderBy) it;
+            return ob.isASC() && ob.getOrderByField() == field;
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        super.open();
+        child1.open();
+        child2.open();
+        left = readSorted(child1, p.getField1());
+        right = readSorted(child2, p.getField2());
+        restart();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        left = null;
+        right = null;
+        leftTuple = null;
+    }
+
+    /** Restarts the merge; the sorted inputs are kept. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        restart();
+    }
+
+    private void restart() {
+        leftPos = 0;
+        firstGE = 0;
+        firstGT = 0;
+        leftTuple = null;
+        matchPos = 0;
+        matchEnd = 0;
+    }
+
+    private static ArrayList<Tuple> readSorted(OpIterator child, int field)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        while (child.hasNext()) {
+            tuples.add(child.next());
+        }
+        if (!isSortedOn(child, field)) {
+            new TupleComparator(field, true).sort(tuples);
+        }
+        return tuples;
+    }
+
+    // moves the cursors of right up to the join value of the next left tuple
+    // and sets its matching run
+    private void advance(Tuple t) {
+        Field v = t.getField(p.getField1());
+        int f2 = p.getField2();
+        while (firstGE < right.size()
+                && right.get(firstGE).getField(f2).compare(Predicate.Op.LESS_THAN, v)) {
+            firstGE++;
+        }
+        firstGT = Math.max(firstGT, firstGE);
+        while (firstGT < right.size()
+                && right.get(firstGT).getField(f2).compare(Predicate.Op.LESS_THAN_OR_EQ, v)) {
+            firstGT++;
+        }
+        switch (p.getOperator()) {
+        case EQUALS:
+            matchPos = firstGE;
+            matchEnd = firstGT;
+            break;
+        case LESS_THAN:
+            matchPos = firstGT;
+            matchEnd = right.size();
+            break;
+        case LESS_THAN_OR_EQ:
+            matchPos = firstGE;
+            matchEnd = right.size();
+            break;
+        case GREATER_THAN:
+            matchPos = 0;
+            matchEnd = firstGE;
+            break;
+        case GREATER_THAN_OR_EQ:
+            matchPos = 0;
+            matchEnd = firstGT;
+            break;
+        default:
+            throw new IllegalStateException("impossible to reach here");
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (left == null) {
+            return null;
+        }
+        while (leftTuple == null || matchPos >= matchEnd) {
+            if (leftPos >= left.size()) {
+                return null;
+            }
+            leftTuple = left.get(leftPos++);
+            advance(leftTuple);
+        }
+        return Tuple.merge(tupleDesc, leftTuple, right.get(matchPos++));
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child1, child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * SpillFile is a temporary file that an operator writes tuples to when its
+ * working set doesn't fit in memory, and reads back sequentially later.
+ * <p>
+ * Tuples are stored in the HeapFile page format, but the file is private to
+ * the operator that created it: it isn't in the Catalog, and its pages don't
+ * go through the BufferPool, take locks or get logged. Tuples are written a
+ * page at a time as pages fill up; call {@link #finish} before reading the
+ * file to write out the last, partial page.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    private final int pageSize;
+    private final int numSlots;
+    private final int headerSize;
+    private final int tupleSize;
+    // the page being filled, and its next free slot
+    private final ByteBuffer page;
+    private int slot;
+    private int numPages;
+    private long numTuples;
+
+    /**
+     * Creates an empty spill file in the default temporary directory. The
+     * file stays there until {@link #delete} is called, so its owner must
+     * delete it on error paths too.
+     *
+     * @param td the TupleDesc of the tuples the file holds
+     * @throws IOException if the file can't be created
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".dat");
+        try {
+            this.raf = new RandomAccessFile(file, "rw");
+        } catch (IOException e) {
+            file.delete();
+            throw e;
+        }
+        this.channel = raf.getChannel();
+        this.pageSize = BufferPool.getPageSize();
+        this.numSlots = HeapPage.slotsPerPage(td);
+        this.headerSize = (numSlots + 7) / 8;
+        this.tupleSize = td.getSize();
+        this.page = ByteBuffer.allocate(pageSize);
+    }
+
+    /** @return the TupleDesc of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Adds a tuple to the end of the file.
+     *
+     * @param t a tuple whose fields match this file's TupleDesc
+     */
+    public void add(Tuple t) throws IOException {
+        int offset = headerSize + slot * tupleSize;
+        for (int i = 0; i < td.numFields(); i++) {
+            t.getField(i).serialize(page, offset);
+            offset += td.getFieldType(i).getLen();
+        }
+        page.put(slot / 8, (byte) (page.get(slot / 8) | (1 << (slot % 8))));
+        slot++;
+        numTuples++;
+        if (slot == numSlots) {
+            writePage();
+        }
+    }
+
+    /** Writes out the partial page, if any, so that every tuple can be read. */
+    public void finish() throws IOException {
+        if (slot > 0) {
+            writePage();
+        }
+    }
+
+    private void writePage() throws IOException {
+        page.clear();
+        long position = (long) numPages * pageSize;
+        while (page.hasRemaining()) {
+            position += channel.write(page, position);
+        }
+        numPages++;
+        page.clear();
+        Arrays.fill(page.array(), (byte) 0);
+        slot = 0;
+    }
+
+    /** @return the number of tuples added to this file */
+    public long getNumTuples() {
+        return numTuples;
+    }
+
+    /** @return the number of bytes written to disk so far */
+    public long getBytes() {
+        return (long) numPages * pageSize;
+    }
+
+    /**
+     * Returns an iterator over the tuples written so far, in the order they
+     * were added. Tuples on a page that hasn't been finished aren't seen.
+     */
+    public DbFileIterator iterator() {
+        return new AbstractDbFileIterator() {
+            private final ByteBuffer buf = ByteBuffer.allocate(pageSize);
+            private int pageNo;
+            private int nextSlot;
+            private boolean open;
+
+            public void open() {
+                open = true;
+                pageNo = -1;
+                nextSlot = numSlots;
+            }
+
+            public void rewind() {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                open = false;
+            }
+
+            protected Tuple readNext() throws DbException {
+                if (!open) {
+                    return null;
+                }
+                while (true) {
+                    while (nextSlot < numSlots) {
+                        int s = nextSlot++;
+                        if (((buf.get(s / 8) >> (s % 8)) & 1) == 1) {
+                            return readTuple(buf, s);
+                        }
+                    }
+                    if (pageNo + 1 >= numPages) {
+                        return null;
+                    }
+                    pageNo++;
+                    readPage(pageNo, buf);
+                    nextSlot = 0;
+                }
+            }
+        };
+    }
+
+    private void readPage(int pageNo, ByteBuffer buf) throws DbException {
+        buf.clear();
+        long position = (long) pageNo * pageSize;
+        try {
+            while (buf.hasRemaining()) {
+                int n = channel.read(buf, position + buf.position());
+                if (n < 0) {
+                    throw new DbException("spill file " + file + " is truncated");
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("can't read spill file " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Tuple readTuple(ByteBuffer buf, int s) {
+        Tuple t = new Tuple(td);
+        int offset = headerSize + s * tupleSize;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            t.setField(i, type.parse(buf, offset));
+            offset += type.getLen();
+        }
+        return t;
+    }
+
+    /** Closes and removes the file. */
+    public void delete() {
+        try {
+            raf.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        file.delete();
+    }
+
+    /** Deletes each of the given files that isn't null. */
+    public static void deleteAll(SpillFile[] files) {
+        if (files != null) {
+            for (SpillFile f : files) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+        }
+    }
+}
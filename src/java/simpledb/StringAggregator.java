@@ -1,29 +1,26 @@
 package simpledb;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.NoSuchElementException;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
+ * <p>
+ * Like {@link IntegerAggregator}, it numbers groups with a
+ * {@link GroupTable} and keeps their counts in a primitive array.
  */
 public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
+    private static final int INITIAL_GROUPS = 16;
     private int gbfield;
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private ConcurrentHashMap<Field, Integer> gbfieldMap;
-
-    private int aValue;
+    private GroupTable groups;
+    private long[] counts;
     private TupleDesc tupleDesc;
-    Field fieldKey;
-    List<Tuple> tuples = new ArrayList<Tuple>();
-
-
 
     /**
      * Aggregate constructor
@@ -43,7 +40,8 @@ public class StringAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        this.gbfieldMap = new ConcurrentHashMap<>();
+        this.groups = new GroupTable(gbfield, gbfieldtype);
+        this.counts = new long[INITIAL_GROUPS];
     }
 
     /**
@@ -52,20 +50,12 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        // sets the tupleDesc to the new Tuple
         tupleDesc = tup.getTupleDesc();
-        // if there is a field, we set the fieldKey to the tuple Field
-        if (gbfield != NO_GROUPING) {
-            fieldKey = tup.getField(gbfield);
-        } else {
-            fieldKey = null;
-        }
-        // updating the aggregator
-        if (!(gbfieldMap.containsKey(fieldKey))) {
-            gbfieldMap.put(fieldKey, 1);
-        } else {
-            gbfieldMap.put(fieldKey, gbfieldMap.get(fieldKey) + 1);
+        int g = groups.groupOf(tup);
+        if (g == counts.length) {
+            counts = Arrays.copyOf(counts, g * 2);
         }
+        counts[g]++;
     }
 
     /**
@@ -78,28 +68,32 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        // if there is a grouping, we group by groupValue and aggregateValue
+        TupleDesc td;
         if (gbfield != NO_GROUPING) {
-            tupleDesc = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
-                    new String[]{tupleDesc.getFieldName(gbfield), tupleDesc.getFieldName(afield)});
-            // we then iterate through the fieldValues map
-            for (Field fieldKey : gbfieldMap.keySet()) {
-                Tuple tuple = new Tuple(tupleDesc);
-                // we then set the fields and add it to the Tuple arraylist
-                tuple.setField(0, fieldKey);
-                tuple.setField(1, new IntField(gbfieldMap.get(fieldKey)));
-                tuples.add(tuple);
-            }
-        } else {  // otherwise we just group by the aggregateValue
-            tupleDesc = new TupleDesc(new Type[]{Type.INT_TYPE});
-            // we then iterate through the fieldValues map
-            for (Field fieldKey : gbfieldMap.keySet()) {
-                Tuple tuple = new Tuple(tupleDesc);
-                // we then create and set a new field and add it to the Tuple arraylist
-                tuple.setField(0, new IntField(gbfieldMap.get(fieldKey)));
-                tuples.add(tuple);
+            td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE},
+                    new String[]{tupleDesc == null ? null : tupleDesc.getFieldName(gbfield),
+                            tupleDesc == null ? null : tupleDesc.getFieldName(afield)});
+        } else {
+            td = new TupleDesc(new Type[]{Type.INT_TYPE});
+        }
+        List<Tuple> tuples = new ArrayList<Tuple>(groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            Tuple tuple = new Tuple(td);
+            int i = 0;
+            if (gbfield != NO_GROUPING) {
+                tuple.setField(i++, groups.groupKey(g));
             }
+            tuple.setField(i, new IntField((int) counts[g]));
+            tuples.add(tuple);
         }
-        return new TupleIterator(tupleDesc, tuples);
+        return new TupleIterator(td, tuples);
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.contains(tup);
     }
 }
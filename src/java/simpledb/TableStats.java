@@ -1,9 +1,17 @@
 package simpledb;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -17,6 +25,14 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /**
+     * Pages read to find the first matching entry of an index: the root
+     * pointer, an internal page and a leaf, for the tables we index.
+     */
+    static final int INDEX_PROBE_PAGES = 3;
+
+    private final int ioCostPerPage;
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
@@ -47,14 +63,35 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Computes the statistics of every table in the catalog. Each table is
+     * scanned once, and the tables are scanned in parallel.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
+        List<Integer> tableids = new ArrayList<Integer>();
         while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            tableids.add(tableIt.next());
+        }
+        int threads = Math.min(tableids.size(), Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<TableStats>> futures = new ArrayList<Future<TableStats>>();
+            for (final int tableid : tableids) {
+                futures.add(executor.submit(() -> new TableStats(tableid, IOCOSTPERPAGE)));
+            }
+            for (int i = 0; i < tableids.size(); i++) {
+                setTableStats(Database.getCatalog().getTableName(tableids.get(i)), futures.get(i).get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdown();
         }
         System.out.println("Done.");
     }
@@ -66,6 +103,25 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Number of values of each integer column sampled to build its
+     * equi-depth histogram.
+     */
+    static final int SAMPLE_SIZE = 50 * NUM_HIST_BINS;
+
+    private final TupleDesc td;
+    private int numPages;
+    private int numTuples;
+    // per column; only integer columns have samples and EquiDepthHistograms,
+    // only string columns StringHistograms
+    private final Field[] mins;
+    private final Field[] maxs;
+    private final int[] nulls;
+    private final long[] widths;
+    private final int[] distincts;
+    private final EquiDepthHistogram[] intHistograms;
+    private final StringHistogram[] stringHistograms;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -85,6 +141,96 @@ public class TableStats {
         // necessarily have to (for example) do everything
         // in a single scan of the table.
         // some code goes here
+        this.ioCostPerPage = ioCostPerPage;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        int n = td.numFields();
+        this.mins = new Field[n];
+        this.maxs = new Field[n];
+        this.nulls = new int[n];
+        this.widths = new long[n];
+        this.distincts = new int[n];
+        this.intHistograms = new EquiDepthHistogram[n];
+        this.stringHistograms = new StringHistogram[n];
+
+        // the range of an integer column is only known at the end of the
+        // scan, so its histogram is built from a reservoir sample instead
+        DistinctCounter[] counters = new DistinctCounter[n];
+        int[][] samples = new int[n][];
+        int[] sampled = new int[n];
+        for (int i = 0; i < n; i++) {
+            counters[i] = new DistinctCounter();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                samples[i] = new int[SAMPLE_SIZE];
+            } else {
+                stringHistograms[i] = new StringHistogram(NUM_HIST_BINS);
+            }
+        }
+        Random rand = new Random(tableid);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        try {
+            it.open();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                numTuples++;
+                // one draw per tuple picks the sample slot of every column
+                int slot = numTuples <= SAMPLE_SIZE ? numTuples - 1 : rand.nextInt(numTuples);
+                for (int i = 0; i < n; i++) {
+                    Field f = t.getField(i);
+                    if (f == null) {
+                        nulls[i]++;
+                        continue;
+                    }
+                    if (mins[i] == null || f.compare(Predicate.Op.LESS_THAN, mins[i])) {
+                        mins[i] = f;
+                    }
+                    if (maxs[i] == null || f.compare(Predicate.Op.GREATER_THAN, maxs[i])) {
+                        maxs[i] = f;
+                    }
+                    counters[i].add(f);
+                    if (f instanceof IntField) {
+                        widths[i] += Type.INT_TYPE.getLen();
+                        if (sampled[i] < SAMPLE_SIZE) {
+                            samples[i][sampled[i]++] = ((IntField) f).getValue();
+                        } else if (slot < SAMPLE_SIZE) {
+                            samples[i][slot] = ((IntField) f).getValue();
+                        }
+                    } else {
+                        String v = ((StringField) f).getValue();
+                        widths[i] += v.length();
+                        stringHistograms[i].addValue(v);
+                    }
+                }
+            }
+            it.close();
+        } catch (DbException e) {
+            throw new RuntimeException(e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                Database.getBufferPool().transactionComplete(tid);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+
+        this.numPages = file instanceof HeapFile ? ((HeapFile) file).numPages()
+                : (int) Math.ceil((double) numTuples * td.getSize() / BufferPool.getPageSize());
+        for (int i = 0; i < n; i++) {
+            // an estimate can't exceed the values counted, nor an integer range
+            int distinct = Math.min(counters[i].estimate(), numTuples - nulls[i]);
+            if (mins[i] instanceof IntField) {
+                int min = ((IntField) mins[i]).getValue();
+                int max = ((IntField) maxs[i]).getValue();
+                distinct = (int) Math.min(distinct, (long) max - min + 1);
+                intHistograms[i] = new EquiDepthHistogram(NUM_HIST_BINS, samples[i], sampled[i],
+                        min, max, distinct);
+            }
+            distincts[i] = mins[i] == null ? 0 : Math.max(1, distinct);
+        }
     }
 
     /**
@@ -101,7 +247,24 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return 0;
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of reading the tuples that satisfy predicates of the
+     * given selectivity through an unclustered index, to compare with
+     * {@link #estimateScanCost}. The index is probed once, and then each
+     * matching tuple may be on a different page; no more pages are read than
+     * the table has, since a page read twice is found in the buffer pool.
+     *
+     * @param selectivityFactor
+     *            The selectivity of the predicates the index evaluates
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        double pages = estimateScanCost() / ioCostPerPage;
+        double tuples = estimateTableCardinality(selectivityFactor);
+        return ioCostPerPage * (INDEX_PROBE_PAGES + Math.min(tuples, pages));
     }
 
     /**
@@ -115,7 +278,7 @@ public class TableStats {
      */
     public int estimateTableCardinality(double selectivityFactor) {
         // some code goes here
-        return 0;
+        return (int) (numTuples * selectivityFactor);
     }
 
     /**
@@ -130,7 +293,30 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return 1.0;
+        if (distincts[field] == 0) {
+            return 0;
+        }
+        double equal = intHistograms[field] != null ? intHistograms[field].avgSelectivity()
+                : 1.0 / distincts[field];
+        double sel;
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            sel = equal;
+            break;
+        case NOT_EQUALS:
+            sel = 1 - equal;
+            break;
+        default:
+            // a constant drawn from the column splits the rest in half
+            sel = (op == Predicate.Op.LESS_THAN || op == Predicate.Op.GREATER_THAN ? 1 - equal : 1 + equal) / 2;
+        }
+        return sel * nonNullFraction(field);
+    }
+
+    /** @return the fraction of the tuples whose field is not null */
+    private double nonNullFraction(int field) {
+        return numTuples == 0 ? 0 : (numTuples - nulls[field]) / (double) numTuples;
     }
 
     /**
@@ -148,7 +334,16 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return 1.0;
+        // a null never satisfies a predicate
+        double sel;
+        if (distincts[field] == 0) {
+            sel = 0;
+        } else if (intHistograms[field] != null) {
+            sel = intHistograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        } else {
+            sel = stringHistograms[field].estimateSelectivity(op, ((StringField) constant).getValue());
+        }
+        return sel * nonNullFraction(field);
     }
 
     /**
@@ -156,7 +351,36 @@ public class TableStats {
      * */
     public int totalTuples() {
         // some code goes here
-        return 0;
+        return numTuples;
+    }
+
+    /** @return the smallest value of the field, or null if it has none */
+    public Field getMin(int field) {
+        return mins[field];
+    }
+
+    /** @return the largest value of the field, or null if it has none */
+    public Field getMax(int field) {
+        return maxs[field];
+    }
+
+    /** @return the estimated number of distinct values of the field */
+    public int numDistinct(int field) {
+        return distincts[field];
+    }
+
+    /** @return the number of tuples whose field is null */
+    public int numNulls(int field) {
+        return nulls[field];
+    }
+
+    /**
+     * @return the average width in bytes of the values of the field that
+     *         aren't null, without the padding of fixed-length strings
+     */
+    public double avgWidth(int field) {
+        int values = numTuples - nulls[field];
+        return values == 0 ? 0 : widths[field] / (double) values;
     }
 
 }
@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements ORDER BY ... LIMIT n. Instead of
+ * sorting its whole input like {@link OrderBy}, it keeps the n best tuples
+ * seen so far in a bounded heap whose root is the worst of them, and drops
+ * every other tuple as soon as it is read. That takes O(n) memory and
+ * O(N log n) time for an input of N tuples.
+ * <p>
+ * Tuples that tie on the sort field come out in input order, as they do
+ * from OrderBy.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final int orderByField;
+    private final boolean asc;
+    private final TupleComparator comparator;
+    private final int limit;
+    private ArrayList<Tuple> top = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        this(new int[] { orderbyField }, new boolean[] { asc }, limit, child);
+    }
+
+    /**
+     * Creates a new TopN node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.comparator = new TupleComparator(orderbyFields, asc);
+        this.orderByField = orderbyFields[0];
+        this.asc = asc[0];
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return asc;
+    }
+
+    public int getOrderByField() {
+        return orderByField;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // a tuple and its position in the input, which breaks ties
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        top.clear();
+        if (limit > 0) {
+            Comparator<Entry> best = (a, b) -> {
+                int c = comparator.compare(a.tuple, b.tuple);
+                return c != 0 ? c : Long.compare(a.seq, b.seq);
+            };
+            // the root is the worst of the tuples kept; the heap grows with
+            // the input rather than being sized for a limit it may not reach
+            PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.min(limit, 1024),
+                    best.reversed());
+            long seq = 0;
+            while (child.hasNext()) {
+                Entry e = new Entry(child.next(), seq++);
+                if (heap.size() < limit) {
+                    heap.add(e);
+                } else if (best.compare(e, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(e);
+                }
+            }
+            Entry[] sorted = heap.toArray(new Entry[heap.size()]);
+            Arrays.sort(sorted, best);
+            for (Entry e : sorted) {
+                top.add(e.tuple);
+            }
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        top.clear();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the kept tuples in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -105,6 +105,26 @@ public class Tuple implements Serializable {
         return Arrays.asList(fields).iterator();
     }
 
+    /**
+     * Concatenates the fields of two tuples, as a join does.
+     *
+     * @param td
+     *            the TupleDesc of the result, usually
+     *            TupleDesc.merge(t1.getTupleDesc(), t2.getTupleDesc())
+     * @param t1
+     *            the tuple whose fields come first
+     * @param t2
+     *            the tuple whose fields come last
+     * @return a new tuple holding the fields of t1 followed by those of t2
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple merged = new Tuple(td);
+        int n1 = t1.fields.length;
+        System.arraycopy(t1.fields, 0, merged.fields, 0, n1);
+        System.arraycopy(t2.fields, 0, merged.fields, n1, t2.fields.length);
+        return merged;
+    }
+
     /**
      * reset the TupleDesc of this tuple (only affecting the TupleDesc)
      * */
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TupleComparator orders tuples on one or more sort keys, each ascending or
+ * descending. Keys are compared by their primitive values rather than
+ * through {@link Field#compare}, so a comparison costs no virtual dispatch
+ * or Predicate.Op switch.
+ * <p>
+ * {@link #sort} sorts a list of tuples without calling the comparator for
+ * most pairs: the first key of every tuple is read once and normalized into
+ * 32 order-preserving bits, which are packed with the tuple's position into
+ * a long[] that is sorted as primitives. Only tuples whose normalized first
+ * keys tie, because they are equal or are strings with a common prefix, are
+ * then compared in full.
+ */
+public class TupleComparator implements Comparator<Tuple> {
+
+    private final int[] fields;
+    private final boolean[] asc;
+
+    /**
+     * Creates a comparator on a single field.
+     *
+     * @param field the field to sort on
+     * @param asc true if the order is ascending
+     */
+    public TupleComparator(int field, boolean asc) {
+        this(new int[] { field }, new boolean[] { asc });
+    }
+
+    /**
+     * Creates a comparator on several fields; later fields only order tuples
+     * that tie on all earlier ones.
+     *
+     * @param fields the fields to sort on, most significant first
+     * @param asc for each field, true if its order is ascending
+     */
+    public TupleComparator(int[] fields, boolean[] asc) {
+        if (fields.length == 0 || fields.length != asc.length) {
+            throw new IllegalArgumentException("need one direction for each of at least one field");
+        }
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = compareField(o1.getField(fields[i]), o2.getField(fields[i]));
+            if (c != 0) {
+                return asc[i] ? c : -c;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareField(Field f1, Field f2) {
+        if (f1 instanceof IntField) {
+            return Integer.compare(((IntField) f1).getValue(), ((IntField) f2).getValue());
+        }
+        return ((StringField) f1).getValue().compareTo(((StringField) f2).getValue());
+    }
+
+    /**
+     * Sorts the tuples in this comparator's order. The sort is stable.
+     *
+     * @param tuples the tuples to sort, in place
+     */
+    public void sort(List<Tuple> tuples) {
+        int n = tuples.size();
+        if (n < 2) {
+            return;
+        }
+        Tuple[] in = tuples.toArray(new Tuple[n]);
+        long[] packed = new long[n];
+        boolean exact = true;
+        for (int i = 0; i < n; i++) {
+            Field f = in[i].getField(fields[0]);
+            exact &= f instanceof IntField;
+            packed[i] = ((long) normalize(f, asc[0]) << 32) | i;
+        }
+        Arrays.sort(packed);
+
+        // positions are in the low bits, so equal keys stay in input order;
+        // runs of equal normalized keys only need sorting if the keys were
+        // cut short or there are more keys
+        boolean resolveTies = !exact || fields.length > 1;
+        int start = 0;
+        for (int i = 1; i <= n; i++) {
+            if (i < n && (packed[i] >>> 32) == (packed[start] >>> 32)) {
+                continue;
+            }
+            if (resolveTies && i - start > 1) {
+                sortRun(in, packed, start, i);
+            }
+            start = i;
+        }
+        for (int i = 0; i < n; i++) {
+            tuples.set(i, in[(int) packed[i]]);
+        }
+    }
+
+    // sorts packed[from, to) by the full comparator, keeping input order
+    // among equal tuples
+    private void sortRun(final Tuple[] in, long[] packed, int from, int to) {
+        Integer[] run = new Integer[to - from];
+        for (int i = from; i < to; i++) {
+            run[i - from] = (int) packed[i];
+        }
+        Arrays.sort(run, (a, b) -> compare(in[a], in[b]));
+        for (int i = from; i < to; i++) {
+            packed[i] = (packed[i] & 0xFFFFFFFF00000000L) | run[i - from];
+        }
+    }
+
+    // an int whose signed order is the field's order in the given direction;
+    // for strings, it only looks at the first two chars
+    private static int normalize(Field f, boolean asc) {
+        int bits;
+        if (f instanceof IntField) {
+            bits = ((IntField) f).getValue();
+        } else {
+            String s = ((StringField) f).getValue();
+            int c0 = s.length() > 0 ? s.charAt(0) : 0;
+            int c1 = s.length() > 1 ? s.charAt(1) : 0;
+            // chars are unsigned; shift their order into signed range
+            bits = ((c0 << 16) | c1) ^ Integer.MIN_VALUE;
+        }
+        return asc ? bits : ~bits;
+    }
+}
@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.io.*;
 
@@ -24,6 +25,33 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+            int value = buf.getInt(offset);
+            int other = ((IntField) operand).getValue();
+            switch (op) {
+            case EQUALS:
+            case LIKE:
+                return value == other;
+            case NOT_EQUALS:
+                return value != other;
+            case GREATER_THAN:
+                return value > other;
+            case GREATER_THAN_OR_EQ:
+                return value >= other;
+            case LESS_THAN:
+                return value < other;
+            case LESS_THAN_OR_EQ:
+                return value <= other;
+            }
+            return false;
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +70,16 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = buf.getInt(offset);
+            byte bs[] = new byte[strLen];
+            ByteBuffer view = buf.duplicate();
+            view.position(offset + 4);
+            view.get(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +98,26 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object, decoded from the
+   *   bytes of buf starting at offset. Reads the same format as
+   *   {@link #parse(DataInputStream)} without moving the buffer's position.
+   * @param buf the buffer holding the serialized field
+   * @param offset absolute index of the first byte of the field in buf
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Compares the field serialized in buf at offset to operand, with the
+   * semantics of {@link Field#compare}. Types that can compare their raw
+   * bytes override this to avoid decoding a Field object.
+   * @param buf the buffer holding the serialized field
+   * @param offset absolute index of the first byte of the field in buf
+   * @param op the comparison to apply
+   * @param operand the value to compare against, a Field of this type
+   */
+    public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field operand) {
+        return parse(buf, offset).compare(op, operand);
+    }
+
 }
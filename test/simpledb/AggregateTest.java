@@ -5,10 +5,16 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
 
 public class AggregateTest extends SimpleDbTestBase {
 
@@ -185,6 +191,92 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() computing several aggregates grouped
+   * by two fields in one pass
+   */
+  @Test public void multipleAggregates() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 2,
+                    1, 1, 4,
+                    1, 2, 6,
+                    3, 1, 2,
+                    3, 1, 7 });
+    Aggregate op = new Aggregate(scan, new int[] { 2, 2, 2, 0 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+            Aggregator.Op.MAX, Aggregator.Op.AVG });
+    assertEquals(6, op.getTupleDesc().numFields());
+    OpIterator expected = TestUtil.createTupleList(6,
+        new int[] { 1, 1, 2, 6, 4, 1,
+                    1, 2, 1, 6, 6, 1,
+                    3, 1, 2, 9, 7, 3 });
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * Several aggregates, COUNT(*) and several GROUP BY fields are parsed
+   * into a single Aggregate
+   */
+  @Test public void parseMultipleAggregates() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 500, 4, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    String name = "agg" + SystemTestUtil.getUUID().replace("-", "");
+    Database.getCatalog().addTable(table, name);
+    TransactionId tid = new TransactionId();
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT " + name + ".c1, COUNT(*), SUM(" + name + ".c2), " + name + ".c0, MAX(" + name
+        + ".c2) FROM " + name + " GROUP BY " + name + ".c0, " + name + ".c1;");
+    OpIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    Aggregate agg = (Aggregate) ((Operator) plan).getChildren()[0];
+    assertEquals(2, agg.groupFields().length);
+    assertEquals(3, agg.aggregateOps().length);
+
+    // compute the expected groups, keyed by (c1, c0), by hand
+    HashMap<List<Integer>, int[]> expected = new HashMap<List<Integer>, int[]>();
+    DbFileIterator it = table.iterator(tid);
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      int c0 = ((IntField) t.getField(0)).getValue();
+      int c1 = ((IntField) t.getField(1)).getValue();
+      int c2 = ((IntField) t.getField(2)).getValue();
+      int[] e = expected.get(Arrays.asList(c1, c0));
+      if (e == null) {
+        expected.put(Arrays.asList(c1, c0), new int[] { 1, c2, c2 });
+      } else {
+        e[0]++;
+        e[1] += c2;
+        e[2] = Math.max(e[2], c2);
+      }
+    }
+    it.close();
+
+    plan.open();
+    int groups = 0;
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      int[] e = expected.get(Arrays.asList(((IntField) t.getField(0)).getValue(),
+          ((IntField) t.getField(3)).getValue()));
+      assertNotNull(e);
+      assertEquals(e[0], ((IntField) t.getField(1)).getValue());
+      assertEquals(e[1], ((IntField) t.getField(2)).getValue());
+      assertEquals(e[2], ((IntField) t.getField(4)).getValue());
+      groups++;
+    }
+    plan.close();
+    assertEquals(expected.size(), groups);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
   /**
    * JUnit suite target
    */
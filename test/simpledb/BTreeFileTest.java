@@ -0,0 +1,297 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+  private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS,
+      Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+      Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+      Predicate.Op.NOT_EQUALS };
+
+  private TransactionId tid;
+
+  /**
+   * Small pages, so that a few thousand entries make a tree of several levels
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    BufferPool.setPageSize(128);
+    Database.resetBufferPool(5000);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    BufferPool.resetPageSize();
+  }
+
+  private static File tempIndexFile() throws Exception {
+    File f = File.createTempFile("btree", ".idx");
+    f.deleteOnExit();
+    return f;
+  }
+
+  private static int value(Tuple t, int field) {
+    return ((IntField) t.getField(field)).getValue();
+  }
+
+  private Tuple entry(BTreeFile index, int key, int page, int slot) {
+    Tuple t = new Tuple(index.getTupleDesc());
+    t.setField(0, new IntField(key));
+    t.setField(1, new IntField(page));
+    t.setField(2, new IntField(slot));
+    return t;
+  }
+
+  private List<int[]> entries(DbFileIterator it) throws Exception {
+    List<int[]> result = new ArrayList<int[]>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      result.add(new int[] { value(t, 0), value(t, 1), value(t, 2) });
+    }
+    it.close();
+    return result;
+  }
+
+  private static List<int[]> sorted(List<int[]> entries) {
+    List<int[]> result = new ArrayList<int[]>(entries);
+    Collections.sort(result, new Comparator<int[]>() {
+      public int compare(int[] a, int[] b) {
+        for (int i = 0; i < a.length; i++) {
+          if (a[i] != b[i]) {
+            return Integer.compare(a[i], b[i]);
+          }
+        }
+        return 0;
+      }
+    });
+    return result;
+  }
+
+  private static void assertEntries(List<int[]> expected, List<int[]> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(Arrays.equals(expected.get(i), actual.get(i)));
+    }
+  }
+
+  private static boolean matches(int key, Predicate.Op op, int operand) {
+    return new IntField(key).compare(op, new IntField(operand));
+  }
+
+  /**
+   * Unit test for BTreeFile inserts: the root splits until the tree has
+   * several levels, and scans return the entries in order, duplicate keys
+   * included
+   */
+  @Test public void insertAndScan() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+    BTreeFile index = new BTreeFile(tempIndexFile(), table, 0);
+    Database.getCatalog().addIndex(index);
+    Random rand = new Random(21);
+    List<int[]> inserted = new ArrayList<int[]>();
+    for (int i = 0; i < 2000; i++) {
+      int[] e = { rand.nextInt(100), i / 10, i % 10 };
+      inserted.add(e);
+      Database.getBufferPool().insertTuple(tid, index.getId(), entry(index, e[0], e[1], e[2]));
+    }
+
+    BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+        tid, new BTreePageId(index.getId(), 0), Permissions.READ_ONLY);
+    BTreePage root = (BTreePage) Database.getBufferPool().getPage(
+        tid, new BTreePageId(index.getId(), rootPtr.getRootPageNo()), Permissions.READ_ONLY);
+    assertTrue(root instanceof BTreeInternalPage);
+    BTreePage child = (BTreePage) Database.getBufferPool().getPage(tid,
+        new BTreePageId(index.getId(), ((BTreeInternalPage) root).getChild(0)),
+        Permissions.READ_ONLY);
+    assertTrue(child instanceof BTreeInternalPage);
+
+    assertEntries(sorted(inserted), entries(index.iterator(tid)));
+    for (Predicate.Op op : OPS) {
+      for (int operand : new int[] { -1, 0, 50, 99, 100 }) {
+        List<int[]> expected = new ArrayList<int[]>();
+        for (int[] e : inserted) {
+          if (matches(e[0], op, operand)) {
+            expected.add(e);
+          }
+        }
+        assertEntries(sorted(expected),
+            entries(index.entryIterator(tid, op, new IntField(operand))));
+      }
+    }
+  }
+
+  /**
+   * Unit test for BTreeFile deletes: deleted entries are gone, others stay,
+   * and deleting a missing entry fails
+   */
+  @Test public void delete() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+    BTreeFile index = new BTreeFile(tempIndexFile(), table, 0);
+    Database.getCatalog().addIndex(index);
+    List<int[]> kept = new ArrayList<int[]>();
+    for (int i = 0; i < 1000; i++) {
+      Database.getBufferPool().insertTuple(tid, index.getId(), entry(index, i % 37, i, 0));
+    }
+    for (int i = 0; i < 1000; i++) {
+      if (i % 3 == 0) {
+        index.deleteTuple(tid, entry(index, i % 37, i, 0));
+      } else {
+        kept.add(new int[] { i % 37, i, 0 });
+      }
+    }
+    assertEntries(sorted(kept), entries(index.iterator(tid)));
+    assertEquals(countKey(kept, 0),
+        entries(index.entryIterator(tid, Predicate.Op.EQUALS, new IntField(0))).size());
+
+    try {
+      index.deleteTuple(tid, entry(index, 0, 0, 0));
+      throw new AssertionError("expected a DbException");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  private static int countKey(List<int[]> entries, int key) {
+    int count = 0;
+    for (int[] e : entries) {
+      if (e[0] == key) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private List<ArrayList<Integer>> lookup(IndexFile index, Predicate.Op op, int operand)
+      throws Exception {
+    List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+    DbFileIterator it = index.indexIterator(tid,
+        new Predicate(index.getKeyField(), op, new IntField(operand)));
+    it.open();
+    while (it.hasNext()) {
+      result.add(SystemTestUtil.tupleToList(it.next()));
+    }
+    it.close();
+    return result;
+  }
+
+  private static List<ArrayList<Integer>> filter(List<ArrayList<Integer>> tuples, int field,
+      Predicate.Op op, int operand) {
+    List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      if (matches(t.get(field), op, operand)) {
+        result.add(t);
+      }
+    }
+    return result;
+  }
+
+  private static void assertSameTuples(List<ArrayList<Integer>> expected,
+      List<ArrayList<Integer>> actual) {
+    Comparator<ArrayList<Integer>> cmp = new Comparator<ArrayList<Integer>>() {
+      public int compare(ArrayList<Integer> a, ArrayList<Integer> b) {
+        for (int i = 0; i < a.size(); i++) {
+          int c = a.get(i).compareTo(b.get(i));
+          if (c != 0) {
+            return c;
+          }
+        }
+        return 0;
+      }
+    };
+    expected = new ArrayList<ArrayList<Integer>>(expected);
+    actual = new ArrayList<ArrayList<Integer>>(actual);
+    Collections.sort(expected, cmp);
+    Collections.sort(actual, cmp);
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for BTreeFile.create() and indexIterator(): an index built
+   * from a table finds the table's tuples for point and range predicates
+   */
+  @Test public void createAndLookup() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, tuples);
+    BTreeFile index = BTreeFile.create(tempIndexFile(), table, 1, tid);
+    Database.getCatalog().addIndex(index);
+    assertEquals(3000, entries(index.iterator(tid)).size());
+    for (Predicate.Op op : OPS) {
+      for (int operand : new int[] { 0, 77, 199 }) {
+        assertSameTuples(filter(tuples, 1, op, operand), lookup(index, op, operand));
+      }
+    }
+    assertFalse(index.supports(Predicate.Op.LIKE));
+    assertTrue(index.supports(Predicate.Op.LESS_THAN));
+  }
+
+  /**
+   * Unit test for index maintenance: the BufferPool adds and removes the
+   * entries of tuples inserted into and deleted from an indexed table
+   */
+  @Test public void maintainedByBufferPool() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, tuples);
+    BTreeFile index = BTreeFile.create(tempIndexFile(), table, 0, tid);
+    Database.getCatalog().addIndex(index);
+    assertEquals(index, Database.getCatalog().getIndex(table.getId(), 0));
+
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(5000));
+    t.setField(1, new IntField(1));
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    List<ArrayList<Integer>> found = lookup(index, Predicate.Op.EQUALS, 5000);
+    assertEquals(1, found.size());
+    assertEquals(Arrays.asList(5000, 1), found.get(0));
+
+    DbFileIterator it = index.indexIterator(tid,
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(5000)));
+    it.open();
+    Tuple stored = it.next();
+    it.close();
+    Database.getBufferPool().deleteTuple(tid, stored);
+    assertEquals(0, lookup(index, Predicate.Op.EQUALS, 5000).size());
+    assertSameTuples(filter(tuples, 0, Predicate.Op.LESS_THAN, 50),
+        lookup(index, Predicate.Op.LESS_THAN, 50));
+  }
+
+  /**
+   * CREATE INDEX statements build an index and add it to the catalog
+   */
+  @Test public void parseCreateIndex() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 400, 50, null, tuples, "c");
+    String name = "btree" + SystemTestUtil.getUUID().replace("-", "");
+    Database.getCatalog().addTable(table, name);
+    new File(table.getFile().getAbsoluteFile().getParentFile(), name + ".c1.idx").deleteOnExit();
+
+    new Parser().processNextStatement("CREATE INDEX ON " + name + " (" + name + ".c1);");
+    IndexFile index = Database.getCatalog().getIndex(table.getId(), 1);
+    assertNotNull(index);
+    assertSameTuples(filter(tuples, 1, Predicate.Op.EQUALS, 10),
+        lookup(index, Predicate.Op.EQUALS, 10));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BTreeFileTest.class);
+  }
+}
@@ -0,0 +1,174 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+  OpIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for BlockNestedLoopJoin: the inner relation is scanned once
+   * per block of outer tuples, and every pair is still compared
+   */
+  @Test public void scansInnerOncePerBlock() throws Exception {
+    int blockTuples = BlockNestedLoopJoin.blockTuples(Utility.getTupleDesc(1), 1);
+    int outerRows = blockTuples * 2 + 1;
+    int[] outer = new int[outerRows];
+    for (int i = 0; i < outerRows; i++) {
+      outer[i] = i % 10;
+    }
+    final int[] rewinds = new int[1];
+    ArrayList<Tuple> innerTuples = new ArrayList<Tuple>();
+    OpIterator innerList = TestUtil.createTupleList(1, new int[] { 3, 7 });
+    innerList.open();
+    while (innerList.hasNext()) {
+      innerTuples.add(innerList.next());
+    }
+    OpIterator inner = new TupleIterator(Utility.getTupleDesc(1), innerTuples) {
+      private static final long serialVersionUID = 1L;
+
+      public void rewind() {
+        rewinds[0]++;
+        super.rewind();
+      }
+    };
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred,
+        TestUtil.createTupleList(1, outer), inner, 1);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(((IntField) t.getField(0)).getValue() > ((IntField) t.getField(1)).getValue());
+      count++;
+    }
+    int expected = 0;
+    for (int v : outer) {
+      expected += (v > 3 ? 1 : 0) + (v > 7 ? 1 : 0);
+    }
+    assertEquals(expected, count);
+    assertEquals(3, rewinds[0]);
+  }
+
+  /**
+   * Unit test for JoinOptimizer.estimateJoinCost(): a block nested loops join
+   * reads the inner relation once per block
+   */
+  @Test public void estimateJoinCost() {
+    double nl = JoinOptimizer.estimateJoinCost(JoinOptimizer.JoinAlgorithm.NESTED_LOOP,
+        Predicate.Op.NOT_EQUALS, 1000, 100, 10, 5, false, false, 100);
+    double bnl = JoinOptimizer.estimateJoinCost(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP,
+        Predicate.Op.NOT_EQUALS, 1000, 100, 10, 5, false, false, 100);
+    assertEquals(10 + 1000 * 5 + 1000 * 100, nl, 0.0);
+    assertEquals(10 + 10 * 5 + 1000 * 100, bnl, 0.0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
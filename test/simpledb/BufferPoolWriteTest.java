@@ -81,6 +81,28 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
         }
     }
     
+    /**
+     * Aborting a transaction undoes only its own changes to a page, not the
+     * committed ones that haven't been written to the file yet
+     */
+    @Test public void abortKeepsCommittedChanges() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        TransactionId t1 = new TransactionId();
+        Database.getBufferPool().insertTuple(t1, hf.getId(), Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(t1, true);
+
+        TransactionId t2 = new TransactionId();
+        Database.getBufferPool().insertTuple(t2, hf.getId(), Utility.getHeapTuple(2, 2));
+        Database.getBufferPool().transactionComplete(t2, false);
+
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(1);
+        row.add(1);
+        expected.add(row);
+        SystemTestUtil.matchTuples(hf, tid, expected);
+    }
+
     /**
      * Unit test for BufferPool.deleteTuple()
      */
@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+
+    @After public void resetPageSize() {
+        BufferPool.resetPageSize();
+    }
+
+    /**
+     * Unit test for FrameArena.acquire(): frames are off-heap, page sized and
+     * disjoint until the arena runs out.
+     */
+    @Test public void acquire() {
+        FrameArena arena = new FrameArena(2);
+        Object owner = new Object();
+        ByteBuffer a = arena.acquire(owner);
+        ByteBuffer b = arena.acquire(owner);
+        assertTrue(a.isDirect());
+        assertTrue(b.isDirect());
+        assertEquals(BufferPool.getPageSize(), a.capacity());
+        assertEquals(0, arena.freeFrames());
+
+        a.putInt(0, 1);
+        b.putInt(0, 2);
+        assertEquals(1, a.getInt(0));
+
+        // exhausted: falls back to the heap
+        ByteBuffer c = arena.acquire(owner);
+        assertFalse(c.isDirect());
+        assertEquals(BufferPool.getPageSize(), c.capacity());
+    }
+
+    /**
+     * Unit test for FrameArena.acquire() after the page size changed.
+     */
+    @Test public void pageSizeChange() {
+        FrameArena arena = new FrameArena(1);
+        BufferPool.setPageSize(1024);
+        ByteBuffer frame = arena.acquire(new Object());
+        assertFalse(frame.isDirect());
+        assertEquals(1024, frame.capacity());
+        assertEquals(1, arena.freeFrames());
+    }
+
+    /**
+     * Pages evicted from the BufferPool give their frames back once they are
+     * garbage collected, and before images never take frames.
+     */
+    @Test public void evictedPagesReturnFrames() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20000, null, null);
+        Database.resetBufferPool(5);
+        FrameArena arena = Database.getBufferPool().getFrameArena();
+        int frames = arena.freeFrames();
+        TransactionId tid = new TransactionId();
+        assertTrue(table.numPages() * 2 > frames);
+        for (int i = 0; i < table.numPages(); i++) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(table.getId(), i), Permissions.READ_ONLY);
+            assertFalse(page.getBeforeImage().getPageBuffer().isDirect());
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // only the five cached pages still hold frames
+        for (int i = 0; i < 100 && arena.freeFrames() < frames - 10; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(arena.freeFrames() >= frames - 10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class GroupTableTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for GroupTable.groupOf() on int keys: groups are numbered in
+   * the order they are first seen, also across the table growing
+   */
+  @Test public void intKeys() {
+    GroupTable table = new GroupTable(0, Type.INT_TYPE);
+    TupleDesc td = Utility.getTupleDesc(1);
+    int groups = 10000;
+    for (int round = 0; round < 2; round++) {
+      for (int i = 0; i < groups; i++) {
+        Tuple t = new Tuple(td);
+        // spread out and negative keys, including 0
+        t.setField(0, new IntField((i - groups / 2) * 7919));
+        assertEquals(i, table.groupOf(t));
+      }
+    }
+    assertEquals(groups, table.size());
+    assertEquals(new IntField(-(groups / 2) * 7919), table.groupKey(0));
+    assertEquals(new IntField(0), table.groupKey(groups / 2));
+  }
+
+  /**
+   * Unit test for GroupTable.contains(): it doesn't add missing groups
+   */
+  @Test public void contains() {
+    GroupTable table = new GroupTable(0, Type.INT_TYPE);
+    TupleDesc td = Utility.getTupleDesc(1);
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(5));
+    assertFalse(table.contains(t));
+    assertEquals(0, table.size());
+    table.groupOf(t);
+    assertTrue(table.contains(t));
+    t.setField(0, new IntField(6));
+    assertFalse(table.contains(t));
+    assertEquals(1, table.size());
+  }
+
+  /**
+   * Unit test for GroupTable.groupOf() on string keys
+   */
+  @Test public void stringKeys() {
+    GroupTable table = new GroupTable(0, Type.STRING_TYPE);
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    String[] keys = { "b", "a", "b", "", "a" };
+    int[] expected = { 0, 1, 0, 2, 1 };
+    for (int i = 0; i < keys.length; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(keys[i], Type.STRING_LEN));
+      assertEquals(expected[i], table.groupOf(t));
+    }
+    assertEquals(3, table.size());
+    assertEquals(new StringField("a", Type.STRING_LEN), table.groupKey(1));
+  }
+
+  /**
+   * Unit test for GroupTable without grouping: every tuple is in group 0
+   */
+  @Test public void noGrouping() {
+    GroupTable table = new GroupTable(Aggregator.NO_GROUPING, null);
+    assertEquals(0, table.size());
+    Tuple t = new Tuple(Utility.getTupleDesc(1));
+    t.setField(0, new IntField(5));
+    assertEquals(0, table.groupOf(t));
+    assertEquals(0, table.groupOf(t));
+    assertEquals(1, table.size());
+    assertNull(table.groupKey(0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(GroupTableTest.class);
+  }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+  private TransactionId tid;
+
+  /**
+   * Small pages, so that a few thousand entries fill the directory and
+   * need overflow pages
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    BufferPool.setPageSize(128);
+    Database.resetBufferPool(5000);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+    BufferPool.resetPageSize();
+  }
+
+  private static File tempIndexFile() throws Exception {
+    File f = File.createTempFile("hash", ".idx");
+    f.deleteOnExit();
+    return f;
+  }
+
+  private Tuple entry(HashIndexFile index, int key, int page, int slot) {
+    Tuple t = new Tuple(index.getTupleDesc());
+    t.setField(0, new IntField(key));
+    t.setField(1, new IntField(page));
+    t.setField(2, new IntField(slot));
+    return t;
+  }
+
+  private int count(DbFileIterator it) throws Exception {
+    int count = 0;
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+      count++;
+    }
+    it.close();
+    return count;
+  }
+
+  /**
+   * Unit test for HashIndexFile inserts and deletes: buckets split until
+   * the directory is full and then overflow, and every key is found
+   */
+  @Test public void insertAndDelete() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+    HashIndexFile index = new HashIndexFile(tempIndexFile(), table, 0);
+    Database.getCatalog().addIndex(index);
+    int[] counts = new int[300];
+    Random rand = new Random(24);
+    List<int[]> inserted = new ArrayList<int[]>();
+    for (int i = 0; i < 2000; i++) {
+      int key = rand.nextInt(counts.length);
+      counts[key]++;
+      inserted.add(new int[] { key, i, 0 });
+      Database.getBufferPool().insertTuple(tid, index.getId(), entry(index, key, i, 0));
+    }
+    HashDirectoryPage directory = (HashDirectoryPage) Database.getBufferPool().getPage(
+        tid, new HashPageId(index.getId(), 0), Permissions.READ_ONLY);
+    assertEquals(HashDirectoryPage.maxDepth(), directory.getGlobalDepth());
+
+    assertEquals(2000, count(index.iterator(tid)));
+    for (int key = 0; key < counts.length; key++) {
+      assertEquals(counts[key],
+          count(index.entryIterator(tid, Predicate.Op.EQUALS, new IntField(key))));
+    }
+
+    for (int i = 0; i < inserted.size(); i += 2) {
+      int[] e = inserted.get(i);
+      index.deleteTuple(tid, entry(index, e[0], e[1], e[2]));
+      counts[e[0]]--;
+    }
+    assertEquals(1000, count(index.iterator(tid)));
+    for (int key = 0; key < counts.length; key++) {
+      assertEquals(counts[key],
+          count(index.entryIterator(tid, Predicate.Op.EQUALS, new IntField(key))));
+    }
+    try {
+      int[] e = inserted.get(0);
+      index.deleteTuple(tid, entry(index, e[0], e[1], e[2]));
+      throw new AssertionError("expected a DbException");
+    } catch (DbException e) {
+      // expected
+    }
+  }
+
+  /**
+   * Unit test for HashIndexFile.create() and indexIterator(): an index
+   * built from a table finds its tuples, and the BufferPool maintains it
+   */
+  @Test public void createAndLookup() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, tuples);
+    HashIndexFile index = HashIndexFile.create(tempIndexFile(), table, 1, tid);
+    Database.getCatalog().addIndex(index);
+    assertTrue(index.supports(Predicate.Op.EQUALS));
+    assertFalse(index.supports(Predicate.Op.LESS_THAN));
+
+    for (int key : new int[] { 0, 123, 499, 500 }) {
+      int expected = 0;
+      for (ArrayList<Integer> t : tuples) {
+        expected += t.get(1) == key ? 1 : 0;
+      }
+      DbFileIterator it = index.indexIterator(tid,
+          new Predicate(1, Predicate.Op.EQUALS, new IntField(key)));
+      it.open();
+      int found = 0;
+      while (it.hasNext()) {
+        assertEquals(key, ((IntField) it.next().getField(1)).getValue());
+        found++;
+      }
+      it.close();
+      assertEquals(expected, found);
+    }
+    // other operators read every bucket
+    int expected = 0;
+    for (ArrayList<Integer> t : tuples) {
+      expected += t.get(1) > 250 ? 1 : 0;
+    }
+    assertEquals(expected, count(index.indexIterator(tid,
+        new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(250)))));
+
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(1));
+    t.setField(1, new IntField(7777));
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    assertEquals(1, count(index.indexIterator(tid,
+        new Predicate(1, Predicate.Op.EQUALS, new IntField(7777)))));
+  }
+
+  /**
+   * Inserts into an index built by create() split buckets that have
+   * overflow pages without losing the entries on them
+   */
+  @Test public void splitOverflowChain() throws Exception {
+    Map<Integer, Integer> skewed = new HashMap<Integer, Integer>();
+    skewed.put(1, 1);
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 30, skewed, null);
+    HashIndexFile index = HashIndexFile.create(tempIndexFile(), table, 1, tid);
+    Database.getCatalog().addIndex(index);
+
+    for (int key = 2; key < 300; key++) {
+      Tuple t = new Tuple(table.getTupleDesc());
+      t.setField(0, new IntField(0));
+      t.setField(1, new IntField(key));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    assertEquals(30, count(index.entryIterator(tid, Predicate.Op.EQUALS, new IntField(1))));
+    for (int key = 2; key < 300; key++) {
+      assertEquals(1, count(index.entryIterator(tid, Predicate.Op.EQUALS, new IntField(key))));
+    }
+    assertEquals(328, count(index.iterator(tid)));
+  }
+
+  /**
+   * CREATE INDEX ... USING HASH builds a hash index, which the catalog
+   * offers for equality predicates only
+   */
+  @Test public void parseCreateHashIndex() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 400, 50, null, null, "c");
+    String name = "hash" + SystemTestUtil.getUUID().replace("-", "");
+    Database.getCatalog().addTable(table, name);
+    new File(table.getFile().getAbsoluteFile().getParentFile(), name + ".c1.hash").deleteOnExit();
+
+    new Parser().processNextStatement("CREATE INDEX ON " + name + " (c1) USING HASH;");
+    assertTrue(Database.getCatalog().getIndex(table.getId(), 1, Predicate.Op.EQUALS)
+        instanceof HashIndexFile);
+    assertNull(Database.getCatalog().getIndex(table.getId(), 1, Predicate.Op.LESS_THAN));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashIndexFileTest.class);
+  }
+}
@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for HashJoin's constructor with a non-equality predicate
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsInequality() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), building on the smaller left child
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    assertTrue(op.isBuildLeft());
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext(), building on the smaller right child;
+   * the fields of the left child still come first
+   */
+  @Test public void eqJoinBuildRight() throws Exception {
+    OpIterator longer = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8,
+                    9, 10,
+                    11, 12 });
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, longer, scan2);
+    op.open();
+    assertFalse(op.isBuildLeft());
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() with a memory budget too small for
+   * either input, so that the inputs are partitioned to disk
+   */
+  @Test public void eqJoinSpill() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2, 0);
+    op.open();
+    assertTrue(op.isSpilling());
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.close();
+  }
+
+  /**
+   * Unit test for HashJoin.estimateSpillBytes()
+   */
+  @Test public void estimateSpillBytes() {
+    assertEquals(0, HashJoin.estimateSpillBytes(100, 1000, 100));
+    assertEquals(4500, HashJoin.estimateSpillBytes(1600, 3200, 100));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
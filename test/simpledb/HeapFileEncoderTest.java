@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    // writes rows of an int, a string and an int, with some blank lines
+    private static File writeInput(int rows, boolean finalNewline) throws Exception {
+        File in = File.createTempFile("encoder", ".txt");
+        in.deleteOnExit();
+        Random r = new Random(42);
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        for (int i = 0; i < rows; i++) {
+            bw.write(r.nextInt() + ",name" + r.nextInt(1000) + "," + i);
+            if (i < rows - 1 || finalNewline)
+                bw.write(i % 7 == 0 ? "\r\n\n" : "\n");
+        }
+        bw.close();
+        return in;
+    }
+
+    private static byte[] convert(File in, ForkJoinPool pool, int minChunkBytes) throws Exception {
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 3, TYPES, ',', pool, minChunkBytes);
+        return TestUtil.readFileBytes(out.getAbsolutePath());
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): splitting the input into many
+     * chunks produces the same file as converting it in one piece.
+     */
+    @Test public void parallelMatchesSingleChunk() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        for (boolean finalNewline : new boolean[] { true, false }) {
+            File in = writeInput(1000, finalNewline);
+            byte[] single = convert(in, pool, Integer.MAX_VALUE);
+            byte[] parallel = convert(in, pool, 1);
+            assertEquals(0, single.length % BufferPool.getPageSize());
+            assertArrayEquals(single, parallel);
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): every record ends up in the
+     * file, in input order.
+     */
+    @Test public void readBack() throws Exception {
+        File in = writeInput(1000, false);
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        ForkJoinPool pool = new ForkJoinPool(4);
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 3, TYPES, ',', pool, 1);
+        pool.shutdown();
+
+        HeapFile hf = new HeapFile(out, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, "encoded");
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        int row = 0;
+        while (it.hasNext()) {
+            assertEquals(row, ((IntField) it.next().getField(2)).getValue());
+            row++;
+        }
+        it.close();
+        assertEquals(1000, row);
+    }
+
+    private static File writeText(String text) throws Exception {
+        File in = File.createTempFile("encoder", ".txt");
+        in.deleteOnExit();
+        BufferedWriter bw = new BufferedWriter(new FileWriter(in));
+        bw.write(text);
+        bw.close();
+        return in;
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): empty fields, even a leading
+     * one or all of them, are values, and only lines with nothing on them
+     * are skipped.
+     */
+    @Test public void emptyFields() throws Exception {
+        Type[] types = new Type[] { Type.STRING_TYPE, Type.STRING_TYPE };
+        File in = writeText(",abc\n\r\n,\nx,\n");
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, types, ',');
+
+        HeapFile hf = new HeapFile(out, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, "encoded");
+        DbFileIterator it = hf.iterator(new TransactionId());
+        it.open();
+        String[][] expected = { { "", "abc" }, { "", "" }, { "x", "" } };
+        for (String[] row : expected) {
+            Tuple t = it.next();
+            assertEquals(row[0], ((StringField) t.getField(0)).getValue());
+            assertEquals(row[1], ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert(): a malformed line fails the
+     * conversion with an IOException, whichever chunk it is in.
+     */
+    @Test public void malformedLine() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        File in = writeText("1,a,2\n3,b\n4,c,5\n");
+        File out = File.createTempFile("encoder", ".dat");
+        out.deleteOnExit();
+        for (int minChunkBytes : new int[] { Integer.MAX_VALUE, 1 }) {
+            try {
+                HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 3, TYPES, ',', pool,
+                        minChunkBytes);
+                fail("expected an IOException");
+            } catch (IOException e) {
+                assertEquals("Line has fewer than 3 fields", e.getMessage());
+            }
+        }
+        pool.shutdown();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
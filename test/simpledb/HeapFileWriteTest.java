@@ -5,6 +5,10 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
 import junit.framework.JUnit4TestAdapter;
 import simpledb.systemtest.SystemTestUtil;
 
@@ -86,6 +90,78 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Unit test for HeapFile in memory-mapped mode: pages written through the
+     * mapping read back the same, also through a channel-based HeapFile.
+     */
+    @Test public void memoryMappedWriteThenRead() throws Exception {
+        HeapFile mapped = new HeapFile(empty.getFile(), empty.getTupleDesc(), true);
+        assertTrue(mapped.isMemoryMapped());
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        page.insertTuple(Utility.getHeapTuple(7, 2));
+        mapped.writePage(page);
+
+        // a page past the end of the file can't be mapped yet and is appended
+        mapped.writePage(new HeapPage(new HeapPageId(mapped.getId(), 1), page.getPageData()));
+        assertEquals(2, mapped.numPages());
+
+        for (int pgNo = 0; pgNo < 2; pgNo++) {
+            HeapPage reread = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), pgNo));
+            Iterator<Tuple> it = reread.iterator();
+            assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(7, 2), it.next()));
+            assertFalse(it.hasNext());
+        }
+        mapped.close();
+        assertArrayEquals(page.getPageData(), empty.readPage(pid).getPageData());
+    }
+
+    /**
+     * Unit test for HeapFile.writePage() of a page changed in a few slots:
+     * successive partial writes leave the same bytes as writing it whole.
+     */
+    @Test public void partialWrite() throws Exception {
+        empty.writePage(new HeapPage(new HeapPageId(empty.getId(), 0), HeapPage.createEmptyPageData()));
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        HeapPage page = (HeapPage) empty.readPage(pid);
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        empty.writePage(page);
+        assertTrue(page.getUnsyncedRanges().isEmpty());
+
+        for (int i = 2; i < 40; i += 2) {
+            page.insertTuple(Utility.getHeapTuple(i, 2));
+        }
+        page.deleteTuple(page.iterator().next());
+        empty.writePage(page);
+        assertArrayEquals(page.getPageData(), empty.readPage(pid).getPageData());
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() with a free-space map: full pages
+     * are skipped without being locked, and a delete makes a page eligible
+     * again.
+     */
+    @Test public void insertSkipsFullPages() throws Exception {
+        HeapFile twoFull = SystemTestUtil.createRandomHeapFile(2, 504 * 2, null, null);
+        HeapPageId page0 = new HeapPageId(twoFull.getId(), 0);
+        HeapPageId page1 = new HeapPageId(twoFull.getId(), 1);
+        assertTrue(twoFull.getFreeSpaceMap().isFull(0));
+        assertTrue(twoFull.getFreeSpaceMap().isFull(1));
+
+        ArrayList<Page> dirtied = twoFull.insertTuple(tid, Utility.getHeapTuple(1, 2));
+        assertEquals(2, dirtied.get(0).getId().getPageNumber());
+        assertEquals(3, twoFull.numPages());
+        assertFalse(Database.getBufferPool().holdsLock(tid, page0));
+        assertFalse(Database.getBufferPool().holdsLock(tid, page1));
+
+        Tuple onPage1 = ((HeapPage) twoFull.readPage(page1)).iterator().next();
+        twoFull.deleteTuple(tid, onPage1);
+        dirtied = twoFull.insertTuple(tid, Utility.getHeapTuple(2, 2));
+        assertEquals(page1, dirtied.get(0).getId());
+        assertTrue(twoFull.getFreeSpaceMap().isFull(1));
+        assertFalse(Database.getBufferPool().holdsLock(tid, page0));
+    }
+
     /**
      * JUnit suite target
      */
@@ -99,6 +99,48 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getField() and HeapPage.getInt()
+     */
+    @Test public void getField() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(new IntField(EXAMPLE_VALUES[row][0]), page.getField(row, 0));
+            assertEquals(EXAMPLE_VALUES[row][1], page.getInt(row, 1));
+        }
+    }
+
+    /**
+     * Unit test for HeapPage.getField() on an empty slot
+     */
+    @Test(expected = NoSuchElementException.class)
+    public void getFieldEmptySlot() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        page.getField(EXAMPLE_VALUES.length, 0);
+    }
+
+    /**
+     * Unit test for HeapPage.iterator(Predicate[])
+     */
+    @Test public void testFilteredIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Predicate[] predicates = new Predicate[] {
+            new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20000)),
+            new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947)),
+        };
+        Iterator<Tuple> it = page.iterator(predicates);
+
+        for (int[] values : EXAMPLE_VALUES) {
+            if (values[0] > 20000 && values[1] <= 44947) {
+                assertTrue(it.hasNext());
+                Tuple tup = it.next();
+                assertEquals(values[0], ((IntField) tup.getField(0)).getValue());
+                assertEquals(values[1], ((IntField) tup.getField(1)).getValue());
+            }
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -1,11 +1,13 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -126,6 +128,51 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getUnsyncedRanges(): only the header and the
+     * slots touched since the last markSynced() are reported.
+     */
+    @Test public void unsyncedRanges() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        List<int[]> ranges = page.getUnsyncedRanges();
+        assertEquals(1, ranges.size());
+        assertArrayEquals(new int[] {0, BufferPool.getPageSize()}, ranges.get(0));
+
+        page.markSynced();
+        assertTrue(page.getUnsyncedRanges().isEmpty());
+
+        // 504 slots of 8 bytes: a 63 byte header, and slot 20 is the first free one
+        page.insertTuple(Utility.getHeapTuple(1, 2));
+        page.insertTuple(Utility.getHeapTuple(2, 2));
+        ranges = page.getUnsyncedRanges();
+        assertEquals(2, ranges.size());
+        assertArrayEquals(new int[] {0, 63}, ranges.get(0));
+        assertArrayEquals(new int[] {63 + 20 * 8, 63 + 22 * 8}, ranges.get(1));
+    }
+
+    /**
+     * Unit test for HeapPage.setBeforeImage() after partial changes.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple added = Utility.getHeapTuple(1, 2);
+        page.insertTuple(added);
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+
+        page.deleteTuple(added);
+        Iterator<Tuple> it = page.getBeforeImage().iterator();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        assertEquals(21, count);
+
+        page.setBeforeImage();
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
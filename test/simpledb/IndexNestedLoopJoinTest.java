@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+  private static final int[] OUTER = { 3, 17, 17, 42, 60, -1 };
+
+  private ArrayList<ArrayList<Integer>> tuples;
+  private HeapFile inner;
+  private TransactionId tid;
+
+  /**
+   * An inner table of 500 tuples with keys from 0 to 49, indexed on its
+   * first field
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    inner = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, tuples, "c");
+    tid = new TransactionId();
+    File f = File.createTempFile("btree", ".idx");
+    f.deleteOnExit();
+    Database.getCatalog().addIndex(BTreeFile.create(f, inner, 0, tid));
+    TableStats.setTableStats(Database.getCatalog().getTableName(inner.getId()),
+        new TableStats(inner.getId(), TableStats.IOCOSTPERPAGE));
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private int join(Predicate.Op op, Predicate innerPredicate) throws Exception {
+    SeqScan scan = new SeqScan(tid, inner.getId(), "i");
+    if (innerPredicate != null) {
+      scan.addPredicate(innerPredicate);
+    }
+    JoinPredicate pred = new JoinPredicate(0, op, 0);
+    IndexNestedLoopJoin op2 = new IndexNestedLoopJoin(pred, TestUtil.createTupleList(1, OUTER),
+        scan, Database.getCatalog().getIndex(inner.getId(), 0));
+    assertEquals(3, op2.getTupleDesc().numFields());
+    op2.open();
+    int count = 0;
+    for (int pass = 0; pass < 2; pass++) {
+      while (op2.hasNext()) {
+        Tuple t = op2.next();
+        assertTrue(t.getField(0).compare(op, t.getField(1)));
+        if (innerPredicate != null) {
+          assertTrue(t.getField(2).compare(innerPredicate.getOp(), innerPredicate.getOperand()));
+        }
+        count++;
+      }
+      op2.rewind();
+    }
+    op2.close();
+    return count / 2;
+  }
+
+  private int expected(Predicate.Op op, Predicate innerPredicate) {
+    int count = 0;
+    for (int v : OUTER) {
+      for (ArrayList<Integer> t : tuples) {
+        if (new IntField(v).compare(op, new IntField(t.get(0)))
+            && (innerPredicate == null || new IntField(t.get(1)).compare(
+                innerPredicate.getOp(), innerPredicate.getOperand()))) {
+          count++;
+        }
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin: each outer tuple is joined with the
+   * inner tuples the index finds for it, for equality and range joins, and
+   * the inner scan's predicates still apply
+   */
+  @Test public void join() throws Exception {
+    Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ };
+    Predicate innerPredicate = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(25));
+    for (Predicate.Op op : ops) {
+      assertEquals(expected(op, null), join(op, null));
+      assertEquals(expected(op, innerPredicate), join(op, innerPredicate));
+    }
+  }
+
+  /**
+   * Unit test for JoinOptimizer.estimateJoinCost(): an index nested loops
+   * join costs a scan of the outer relation plus one probe per outer tuple,
+   * and needs an index
+   */
+  @Test public void estimateJoinCost() {
+    assertEquals(10 + 100 * 4, JoinOptimizer.estimateJoinCost(
+        JoinOptimizer.JoinAlgorithm.INDEX_NESTED_LOOP, Predicate.Op.EQUALS, 100, 100000,
+        10, 5000, false, false, 100, 4), 0.0);
+    assertEquals(Double.MAX_VALUE, JoinOptimizer.estimateJoinCost(
+        JoinOptimizer.JoinAlgorithm.INDEX_NESTED_LOOP, Predicate.Op.EQUALS, 100, 100000,
+        10, 5000, false, false, 100), 0.0);
+  }
+
+  /**
+   * Unit test for JoinOptimizer.estimateProbeCost(): a probe costs the
+   * index pages it reads plus the tuples it expects to match
+   */
+  @Test public void estimateProbeCost() {
+    String name = Database.getCatalog().getTableName(inner.getId());
+    double matches = TableStats.getTableStats(name).avgSelectivity(0, Predicate.Op.EQUALS) * 500;
+    assertEquals(TableStats.INDEX_PROBE_PAGES + matches,
+        JoinOptimizer.estimateProbeCost(name, 0, Predicate.Op.EQUALS, 500), 1e-9);
+    assertTrue(matches > 5 && matches < 20);
+  }
+
+  /**
+   * JoinOptimizer.instantiateJoin() probes the index on the inner table when
+   * the outer relation is small
+   */
+  @Test public void instantiateJoin() throws Exception {
+    HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 10, 50, null, null, "c");
+    LogicalJoinNode lj = new LogicalJoinNode("o", "i", "c0", "c0", Predicate.Op.EQUALS);
+    OpIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "o"),
+        new SeqScan(tid, inner.getId(), "i"), 10, 100000);
+    assertTrue(j instanceof IndexNestedLoopJoin);
+
+    j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "o"),
+        new SeqScan(tid, inner.getId(), "i"), 100000, 100000);
+    assertTrue(j instanceof HashJoin);
+
+    // no index on the outer table
+    j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("i", "o", "c0", "c0",
+        Predicate.Op.EQUALS), new SeqScan(tid, inner.getId(), "i"),
+        new SeqScan(tid, outer.getId(), "o"), 10, 100000);
+    assertTrue(j instanceof HashJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
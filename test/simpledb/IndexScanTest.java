@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexScanTest extends SimpleDbTestBase {
+  private ArrayList<ArrayList<Integer>> tuples;
+  private HeapFile table;
+  private String name;
+  private TransactionId tid;
+
+  /**
+   * Stats of a table of 100 pages and 10000 tuples, where equality
+   * predicates are selective and all others are not
+   */
+  private static class FixedStats extends TableStats {
+    FixedStats(int tableid) {
+      super(tableid, TableStats.IOCOSTPERPAGE);
+    }
+
+    public double estimateScanCost() {
+      return 100 * TableStats.IOCOSTPERPAGE;
+    }
+
+    public int estimateTableCardinality(double selectivityFactor) {
+      return (int) (10000 * selectivityFactor);
+    }
+
+    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+      return op == Predicate.Op.EQUALS ? 0.001 : 0.5;
+    }
+  }
+
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    tuples = new ArrayList<ArrayList<Integer>>();
+    table = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, tuples, "c");
+    name = "idx" + SystemTestUtil.getUUID().replace("-", "");
+    Database.getCatalog().addTable(table, name);
+    tid = new TransactionId();
+    File f = File.createTempFile("btree", ".idx");
+    f.deleteOnExit();
+    Database.getCatalog().addIndex(BTreeFile.create(f, table, 0, tid));
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private List<ArrayList<Integer>> expected(Predicate... predicates) {
+    List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+    for (ArrayList<Integer> t : tuples) {
+      boolean pass = true;
+      for (Predicate p : predicates) {
+        pass &= new IntField(t.get(p.getField())).compare(p.getOp(), p.getOperand());
+      }
+      if (pass) {
+        result.add(t);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Unit test for IndexScan: it returns the tuples that pass both the
+   * index's predicate and the other predicates, also after a rewind
+   */
+  @Test public void scan() throws Exception {
+    Predicate ip = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(30));
+    Predicate other = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(50));
+    IndexScan scan = new IndexScan(tid, Database.getCatalog().getIndex(table.getId(), 0), ip, "t");
+    scan.addPredicate(other);
+    assertEquals("t.c0", scan.getTupleDesc().getFieldName(0));
+    SystemTestUtil.matchTuples(scan, expected(ip, other));
+    scan.open();
+    scan.rewind();
+    int count = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      count++;
+    }
+    scan.close();
+    assertEquals(expected(ip, other).size(), count);
+  }
+
+  private OpIterator plan(String sql) throws Exception {
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(name, new FixedStats(table.getId()));
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, sql);
+    return lp.physicalPlan(tid, stats, false);
+  }
+
+  /**
+   * physicalPlan reads a table through an index when the filter on the
+   * indexed field is selective enough to beat a sequential scan
+   */
+  @Test public void planIndexScan() throws Exception {
+    OpIterator plan = plan("SELECT * FROM " + name + " WHERE " + name + ".c0 = 7 AND "
+        + name + ".c1 < 60;");
+    OpIterator scan = ((Operator) plan).getChildren()[0];
+    assertTrue(scan instanceof IndexScan);
+    assertEquals(Predicate.Op.EQUALS, ((IndexScan) scan).getIndexPredicate().getOp());
+    assertEquals(1, ((IndexScan) scan).getPredicates().size());
+    SystemTestUtil.matchTuples(plan, expected(
+        new Predicate(0, Predicate.Op.EQUALS, new IntField(7)),
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(60))));
+
+    plan = plan("SELECT * FROM " + name + " WHERE " + name + ".c0 > 7;");
+    assertTrue(((Operator) plan).getChildren()[0] instanceof SeqScan);
+
+    plan = plan("SELECT * FROM " + name + " WHERE " + name + ".c1 = 7;");
+    assertTrue(((Operator) plan).getChildren()[0] instanceof SeqScan);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexScanTest.class);
+  }
+}
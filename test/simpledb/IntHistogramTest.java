@@ -0,0 +1,91 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHistogramTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for IntHistogram.estimateSelectivity() over evenly spread
+   * values
+   */
+  @Test public void uniform() {
+    IntHistogram h = new IntHistogram(10, 1, 100);
+    for (int v = 1; v <= 100; v++) {
+      h.addValue(v);
+    }
+    assertEquals(0.01, h.estimateSelectivity(Predicate.Op.EQUALS, 50), 0.001);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 101), 0.001);
+    assertEquals(0.99, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 50), 0.001);
+    assertEquals(0.49, h.estimateSelectivity(Predicate.Op.LESS_THAN, 50), 0.001);
+    assertEquals(0.50, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 50), 0.001);
+    assertEquals(0.50, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 50), 0.001);
+    assertEquals(0.51, h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, 50), 0.001);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, -5), 0.001);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, 500), 0.001);
+    assertEquals(0.01, h.avgSelectivity(), 0.001);
+  }
+
+  /**
+   * More buckets than values, and a range wider than an int
+   */
+  @Test public void extremeRanges() {
+    IntHistogram h = new IntHistogram(100, 0, 9);
+    h.addValue(3);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.EQUALS, 3), 0.001);
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 4), 0.001);
+
+    h = new IntHistogram(100, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    h.addValue(Integer.MIN_VALUE);
+    h.addValue(Integer.MAX_VALUE);
+    assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN, 0), 0.01);
+    assertTrue(h.estimateSelectivity(Predicate.Op.EQUALS, 0) < 0.001);
+  }
+
+  /**
+   * Unit test for EquiDepthHistogram: a skewed sample gets narrow buckets
+   * where its values are dense, and a frequent value is estimated exactly
+   */
+  @Test public void equiDepth() {
+    Random rand = new Random(25);
+    int[] sample = new int[10000];
+    int hot = 0;
+    for (int i = 0; i < sample.length; i++) {
+      // a fifth of the values are 500, the others are mostly small
+      sample[i] = i % 5 == 0 ? 500 : (int) Math.abs(rand.nextGaussian() * 100);
+      hot += sample[i] == 500 ? 1 : 0;
+    }
+    int[] values = sample.clone();
+    EquiDepthHistogram h = new EquiDepthHistogram(100, sample, sample.length, 0, 1000, 400);
+
+    assertEquals(hot / 10000.0, h.estimateSelectivity(Predicate.Op.EQUALS, 500), 0.0001);
+    for (int v : new int[] { 10, 100, 250, 499, 501 }) {
+      int less = 0;
+      for (int x : values) {
+        less += x < v ? 1 : 0;
+      }
+      assertEquals(less / 10000.0, h.estimateSelectivity(Predicate.Op.LESS_THAN, v), 0.02);
+      assertEquals(1 - less / 10000.0,
+          h.estimateSelectivity(Predicate.Op.GREATER_THAN_OR_EQ, v), 0.02);
+    }
+    assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 1001), 0.0001);
+    assertEquals(1.0, h.estimateSelectivity(Predicate.Op.LESS_THAN_OR_EQ, 1000), 0.0001);
+    // dominated by the frequent value
+    assertTrue(h.avgSelectivity() > 0.04);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHistogramTest.class);
+  }
+}
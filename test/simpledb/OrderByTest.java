@@ -0,0 +1,218 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+
+  int[] data;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createData() {
+    Random r = new Random(42);
+    data = new int[ROWS * 2];
+    for (int i = 0; i < ROWS; i++) {
+      data[2 * i] = r.nextInt(1000);
+      data[2 * i + 1] = i;
+    }
+  }
+
+  // checks that op returns every row once, in order of field 0, with ties in
+  // input order (field 1)
+  private void checkSorted(OpIterator op, boolean asc) throws Exception {
+    boolean[] seen = new boolean[ROWS];
+    Tuple prev = null;
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int row = ((IntField) t.getField(1)).getValue();
+      assertTrue(!seen[row]);
+      seen[row] = true;
+      if (prev != null) {
+        int a = ((IntField) prev.getField(0)).getValue();
+        int b = ((IntField) t.getField(0)).getValue();
+        assertTrue(asc ? a <= b : a >= b);
+        if (a == b) {
+          assertTrue(((IntField) prev.getField(1)).getValue() < row);
+        }
+      }
+      prev = t;
+      count++;
+    }
+    assertEquals(ROWS, count);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on an input that fits in memory
+   */
+  @Test public void inMemory() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+    op.open();
+    assertEquals(0, op.getNumRuns());
+    checkSorted(op, true);
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on an input that is sorted in runs on
+   * disk; a budget under a page merges two runs at a time, in several passes
+   */
+  @Test public void external() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), 8 * 100);
+    op.open();
+    assertEquals(2, op.getNumRuns());
+    checkSorted(op, true);
+    op.close();
+
+    op = new OrderBy(0, false, TestUtil.createTupleList(2, data), BufferPool.getPageSize() * 3);
+    op.open();
+    assertTrue(op.getNumRuns() > 1);
+    checkSorted(op, false);
+    op.close();
+  }
+
+  // the names of the spill files in the temporary directory
+  private static Set<String> spillFiles() {
+    Set<String> names = new HashSet<String>();
+    for (String name : new File(System.getProperty("java.io.tmpdir")).list()) {
+      if (name.startsWith("spill") && name.endsWith(".dat")) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * An external sort whose input fails part way deletes the runs it wrote
+   */
+  @Test public void failingChild() throws Exception {
+    Set<String> before = spillFiles();
+    TupleIterator input = TestUtil.createTupleList(2, data);
+    OpIterator child = new TupleIterator(input.getTupleDesc(), new ArrayList<Tuple>()) {
+      private int count;
+      public boolean hasNext() {
+        return input.hasNext();
+      }
+      public Tuple next() {
+        if (++count > ROWS / 2) {
+          throw new IllegalStateException("child failed");
+        }
+        return input.next();
+      }
+    };
+    OrderBy op = new OrderBy(0, true, child, 8 * 100);
+    try {
+      op.open();
+      fail("expected the child's exception");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    assertEquals(before, spillFiles());
+  }
+
+  /**
+   * Unit test for OrderBy.rewind() and reopening, in memory and on disk
+   */
+  @Test public void rewind() throws Exception {
+    for (long memory : new long[] { OrderBy.DEFAULT_MEMORY_BYTES, 8 * 100 }) {
+      OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data), memory);
+      op.open();
+      checkSorted(op, true);
+      op.rewind();
+      checkSorted(op, true);
+      op.close();
+      op.open();
+      checkSorted(op, true);
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for OrderBy.getNext() on several fields with mixed directions,
+   * in memory and on disk
+   */
+  @Test public void multipleFields() throws Exception {
+    Random r = new Random(3);
+    int[] rows = new int[ROWS * 3];
+    for (int i = 0; i < ROWS; i++) {
+      rows[3 * i] = r.nextInt(10);
+      rows[3 * i + 1] = r.nextInt(20) - 10;
+      rows[3 * i + 2] = i;
+    }
+    for (long memory : new long[] { OrderBy.DEFAULT_MEMORY_BYTES, 12 * 300 }) {
+      OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { true, false },
+          TestUtil.createTupleList(3, rows), memory);
+      op.open();
+      int[] prev = null;
+      int count = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int[] cur = new int[3];
+        for (int j = 0; j < 3; j++) {
+          cur[j] = ((IntField) t.getField(j)).getValue();
+        }
+        if (prev != null) {
+          assertTrue(prev[0] <= cur[0]);
+          if (prev[0] == cur[0]) {
+            assertTrue(prev[1] >= cur[1]);
+            if (prev[1] == cur[1]) {
+              assertTrue(prev[2] < cur[2]);
+            }
+          }
+        }
+        prev = cur;
+        count++;
+      }
+      assertEquals(ROWS, count);
+      op.close();
+    }
+  }
+
+  /**
+   * Unit test for TupleComparator.sort() on strings that share their
+   * normalized prefix
+   */
+  @Test public void strings() throws Exception {
+    String[] values = { "abc", "ab", "", "b", "abd", "a", "ab", "abc\u0000", "\uffff", "aa" };
+    Object[] rows = new Object[values.length * 2];
+    for (int i = 0; i < values.length; i++) {
+      rows[2 * i] = values[i];
+      rows[2 * i + 1] = i;
+    }
+    OpIterator list = TestUtil.createTupleList(2, rows);
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    list.open();
+    while (list.hasNext()) {
+      tuples.add(list.next());
+    }
+    ArrayList<Tuple> expected = new ArrayList<Tuple>(tuples);
+    Collections.sort(expected, (a, b) -> ((StringField) b.getField(0)).getValue()
+        .compareTo(((StringField) a.getField(0)).getValue()));
+    new TupleComparator(0, false).sort(tuples);
+    assertEquals(expected, tuples);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    /** Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        public volatile int readCount = 0;
+    }
+
+    private static final int PAGES = 10;
+
+    private InstrumentedHeapFile table;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for ReadAhead.pageRequested(): the start of a scan reads the
+     * first window of pages in the background.
+     */
+    @Test public void readsAhead() throws Exception {
+        BufferPool pool = Database.getBufferPool();
+        ReadAhead readAhead = new ReadAhead(table, pool, null, 4);
+        readAhead.pageRequested(0);
+        readAhead.awaitInFlight();
+        assertEquals(4, table.readCount);
+
+        // the pages are cached now, and the scan reads the rest exactly once
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+    }
+
+    /**
+     * Unit test for ReadAhead: the window never outgrows the scan's ring.
+     */
+    @Test public void limitedByRing() throws Exception {
+        ReadAhead readAhead = new ReadAhead(table, Database.getBufferPool(), new BufferRing(3), 8);
+        assertEquals(2, readAhead.getWindow());
+        ReadAhead none = new ReadAhead(table, Database.getBufferPool(), new BufferRing(1), 8);
+        none.pageRequested(0);
+        none.awaitInFlight();
+        assertEquals(0, table.readCount);
+    }
+
+    /**
+     * Unit test for HeapFile.setReadAheadPages(): a scan with read-ahead
+     * disabled reads every page itself.
+     */
+    @Test public void disabled() throws Exception {
+        table.setReadAheadPages(0);
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.readCount);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final java.util.function.Predicate<PageId> ANY = pid -> true;
+
+    private static HeapPageId page(int n) {
+        return new HeapPageId(-1, n);
+    }
+
+    /**
+     * Unit test for ClockPolicy: referenced pages get a second chance.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy(3);
+        clock.pageAdmitted(page(0));
+        clock.pageAdmitted(page(1));
+        clock.pageAdmitted(page(2));
+        // first sweep clears every bit, so the hand comes back to page 0
+        assertEquals(page(0), clock.chooseVictim(ANY));
+        clock.pageRemoved(page(0));
+        clock.pageAdmitted(page(3));
+        clock.pageAccessed(page(1));
+        // page 1 was re-referenced; page 2 is the first clear frame after the hand
+        assertEquals(page(2), clock.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for ClockPolicy: non-evictable pages are skipped.
+     */
+    @Test public void clockSkipsPinned() {
+        ClockPolicy clock = new ClockPolicy(2);
+        clock.pageAdmitted(page(0));
+        clock.pageAdmitted(page(1));
+        assertEquals(page(1), clock.chooseVictim(pid -> !pid.equals(page(0))));
+        assertNull(clock.chooseVictim(pid -> false));
+    }
+
+    /**
+     * Unit test for LruKPolicy: pages read once go before pages read twice.
+     */
+    @Test public void lruKScanResistance() {
+        LruKPolicy lru = new LruKPolicy(4);
+        lru.pageAdmitted(page(0));
+        lru.pageAccessed(page(0));
+        for (int i = 1; i < 4; i++) {
+            lru.pageAdmitted(page(i));
+        }
+        // page 0 is hot; the scanned pages leave in FIFO order
+        for (int i = 1; i < 4; i++) {
+            assertEquals(page(i), lru.chooseVictim(ANY));
+            lru.pageRemoved(page(i));
+        }
+        assertEquals(page(0), lru.chooseVictim(ANY));
+    }
+
+    /**
+     * Unit test for LruKPolicy: hot pages are ordered by recency.
+     */
+    @Test public void lruKHotOrder() {
+        LruKPolicy lru = new LruKPolicy(4);
+        lru.pageAdmitted(page(0));
+        lru.pageAccessed(page(0));
+        lru.pageAdmitted(page(1));
+        lru.pageAccessed(page(1));
+        lru.pageAccessed(page(0));
+        assertEquals(page(1), lru.chooseVictim(ANY));
+        // a page that was hot before eviction comes back hot
+        lru.pageRemoved(page(1));
+        lru.pageAdmitted(page(2));
+        lru.pageAdmitted(page(1));
+        assertEquals(page(2), lru.chooseVictim(ANY));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,170 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+  OpIterator gtJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 5, 6,
+                    1, 2,
+                    7, 8,
+                    3, 4 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    2, 3, 4,
+                    5, 6, 7,
+                    1, 2, 3,
+                    3, 4, 5 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] {
+                    3, 4, 1, 2, 3, // 1, 2 < 3
+                    3, 4, 2, 3, 4,
+                    5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                    5, 6, 2, 3, 4,
+                    5, 6, 3, 4, 5,
+                    5, 6, 4, 5, 6,
+                    7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 4, 5, 6,
+                    7, 8, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin's constructor with a predicate it can't merge
+   */
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsNotEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate; the results
+   * come in the order of the left join field
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    while (eqJoin.hasNext()) {
+      assertTrue(TestUtil.compareTuples(eqJoin.next(), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.isSortedOn()
+   */
+  @Test public void isSortedOn() {
+    assertTrue(SortMergeJoin.isSortedOn(new OrderBy(1, true, scan1), 1));
+    assertTrue(!SortMergeJoin.isSortedOn(new OrderBy(1, false, scan1), 1));
+    assertTrue(!SortMergeJoin.isSortedOn(new OrderBy(0, true, scan1), 1));
+    assertTrue(!SortMergeJoin.isSortedOn(scan1, 0));
+  }
+
+  /**
+   * Unit test for JoinOptimizer.chooseJoinAlgorithm(): inequality joins are
+   * merged, and equality joins are only merged if both inputs are sorted
+   */
+  @Test public void chooseJoinAlgorithm() {
+    assertEquals(JoinOptimizer.JoinAlgorithm.SORT_MERGE, JoinOptimizer.chooseJoinAlgorithm(
+        Predicate.Op.LESS_THAN, 1000, 1000, 100, 100, false, false, 1));
+    assertEquals(JoinOptimizer.JoinAlgorithm.HASH, JoinOptimizer.chooseJoinAlgorithm(
+        Predicate.Op.EQUALS, 1000, 1000, 100, 100, false, false, 1));
+    assertEquals(JoinOptimizer.JoinAlgorithm.SORT_MERGE, JoinOptimizer.chooseJoinAlgorithm(
+        Predicate.Op.EQUALS, 1000, 1000, 100, 100, true, true, 1));
+    assertEquals(JoinOptimizer.JoinAlgorithm.BLOCK_NESTED_LOOP, JoinOptimizer.chooseJoinAlgorithm(
+        Predicate.Op.NOT_EQUALS, 1000, 1000, 100, 100, false, false, 1));
+  }
+
+  /**
+   * JoinOptimizer.instantiateJoin() has no cardinality for a subquery, so it
+   * hashes equality joins with one, whatever the outer cardinality
+   */
+  @Test public void instantiateSubqueryJoin() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null, "c");
+    TransactionId tid = new TransactionId();
+    OpIterator j = JoinOptimizer.instantiateJoin(
+        new LogicalSubplanJoinNode("t", "c0", scan1, Predicate.Op.EQUALS),
+        new SeqScan(tid, table.getId(), "t"), scan1, 10, 0);
+    assertTrue(j instanceof HashJoin);
+    j = JoinOptimizer.instantiateJoin(
+        new LogicalSubplanJoinNode("t", "c0", scan1, Predicate.Op.LESS_THAN),
+        new SeqScan(tid, table.getId(), "t"), scan1, 10, 0);
+    assertTrue(j instanceof BlockNestedLoopJoin);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
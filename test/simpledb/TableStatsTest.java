@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+  private static int count(List<ArrayList<Integer>> tuples, int field, Predicate.Op op, int v) {
+    int count = 0;
+    for (ArrayList<Integer> t : tuples) {
+      count += new IntField(t.get(field)).compare(op, new IntField(v)) ? 1 : 0;
+    }
+    return count;
+  }
+
+  /**
+   * Unit test for the sizes, ranges and distinct counts of TableStats
+   */
+  @Test public void columnStats() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples);
+    TableStats s = new TableStats(table.getId(), TableStats.IOCOSTPERPAGE);
+
+    assertEquals(20000, s.totalTuples());
+    assertEquals(table.numPages() * TableStats.IOCOSTPERPAGE, s.estimateScanCost(), 0.001);
+    assertEquals(5000, s.estimateTableCardinality(0.25));
+    for (int field = 0; field < 3; field++) {
+      int min = Integer.MAX_VALUE;
+      int max = Integer.MIN_VALUE;
+      Set<Integer> distinct = new HashSet<Integer>();
+      for (ArrayList<Integer> t : tuples) {
+        min = Math.min(min, t.get(field));
+        max = Math.max(max, t.get(field));
+        distinct.add(t.get(field));
+      }
+      assertEquals(new IntField(min), s.getMin(field));
+      assertEquals(new IntField(max), s.getMax(field));
+      assertEquals(distinct.size(), s.numDistinct(field), distinct.size() * 0.05);
+      assertEquals(0, s.numNulls(field));
+      assertEquals(4.0, s.avgWidth(field), 0.001);
+      assertEquals(1.0 / distinct.size(), s.avgSelectivity(field, Predicate.Op.EQUALS), 0.0005);
+    }
+  }
+
+  /**
+   * Unit test for TableStats.estimateSelectivity() with more tuples than
+   * the sample holds
+   */
+  @Test public void selectivity() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 30000, 5000, null, tuples);
+    TableStats s = new TableStats(table.getId(), TableStats.IOCOSTPERPAGE);
+
+    for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN,
+        Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS }) {
+      for (int v : new int[] { -10, 0, 1000, 2500, 4999, 6000 }) {
+        assertEquals(count(tuples, 1, op, v) / 30000.0,
+            s.estimateSelectivity(1, op, new IntField(v)), 0.03);
+      }
+    }
+    assertEquals(1 / 5000.0, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(1234)), 0.0005);
+    assertEquals(0.0, s.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(-1)), 0.0);
+  }
+
+  /**
+   * computeStatistics() gathers the statistics of every table in the
+   * catalog
+   */
+  @Test public void computeStatistics() throws Exception {
+    HeapFile[] tables = new HeapFile[4];
+    for (int i = 0; i < tables.length; i++) {
+      tables[i] = SystemTestUtil.createRandomHeapFile(2, 1000 * (i + 1), null, null);
+    }
+    HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+
+    TableStats.computeStatistics();
+    for (int i = 0; i < tables.length; i++) {
+      TableStats s = TableStats.getTableStats(Database.getCatalog().getTableName(tables[i].getId()));
+      assertEquals(1000 * (i + 1), s.totalTuples());
+    }
+    TableStats s = TableStats.getTableStats(Database.getCatalog().getTableName(empty.getId()));
+    assertEquals(0, s.totalTuples());
+    assertEquals(0, s.numDistinct(0));
+    assertNull(s.getMin(0));
+    assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.NOT_EQUALS, new IntField(1)), 0.0);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TableStatsTest.class);
+  }
+}
@@ -0,0 +1,190 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import Zql.ZDelete;
+import Zql.ZStatement;
+import Zql.ZqlParser;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 1000;
+
+  int[] data;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createData() {
+    Random r = new Random(7);
+    data = new int[ROWS * 2];
+    for (int i = 0; i < ROWS; i++) {
+      data[2 * i] = r.nextInt(100);
+      data[2 * i + 1] = i;
+    }
+  }
+
+  // checks that op returns the first limit tuples that OrderBy returns
+  private void checkTop(int limit, boolean asc) throws Exception {
+    OrderBy sorted = new OrderBy(0, asc, TestUtil.createTupleList(2, data));
+    TopN op = new TopN(0, asc, limit, TestUtil.createTupleList(2, data));
+    sorted.open();
+    op.open();
+    for (int i = 0; i < Math.min(limit, ROWS); i++) {
+      assertTrue(TestUtil.compareTuples(sorted.next(), op.next()));
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for TopN.getNext(): the same tuples, in the same order, as the
+   * start of a full sort, including ties
+   */
+  @Test public void getNext() throws Exception {
+    checkTop(10, true);
+    checkTop(10, false);
+    checkTop(1, true);
+    checkTop(ROWS, true);
+    checkTop(ROWS + 5, false);
+  }
+
+  /**
+   * Unit test for TopN.getNext() with a limit of 0
+   */
+  @Test public void zeroLimit() throws Exception {
+    TopN op = new TopN(0, true, 0, TestUtil.createTupleList(2, data));
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for TopN.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopN op = new TopN(0, true, 5, TestUtil.createTupleList(2, data));
+    op.open();
+    Tuple first = op.next();
+    while (op.hasNext()) {
+      op.next();
+    }
+    op.rewind();
+    assertTrue(TestUtil.compareTuples(first, op.next()));
+  }
+
+  /**
+   * Unit test for Limit.getNext()
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(3, TestUtil.createTupleList(2, data));
+    op.open();
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, ((IntField) op.next().getField(1)).getValue());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * A LIMIT clause is parsed off the query and planned as a TopN when there
+   * is an ORDER BY, and as a Limit otherwise
+   */
+  @Test public void parseLimit() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 200, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    String name = "topn" + SystemTestUtil.getUUID().replace("-", "");
+    Database.getCatalog().addTable(table, name);
+    TransactionId tid = new TransactionId();
+    Parser parser = new Parser();
+
+    LogicalPlan lp = parser.generateLogicalPlan(tid,
+        "SELECT * FROM " + name + " ORDER BY " + name + ".c0 DESC LIMIT 7;");
+    OpIterator plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof TopN);
+    plan.open();
+    int count = 0;
+    int prev = Integer.MAX_VALUE;
+    while (plan.hasNext()) {
+      int v = ((IntField) plan.next().getField(0)).getValue();
+      assertTrue(v <= prev);
+      prev = v;
+      count++;
+    }
+    assertEquals(7, count);
+    plan.close();
+
+    lp = parser.generateLogicalPlan(tid, "SELECT * FROM " + name + " limit 4;");
+    plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    assertTrue(((Operator) plan).getChildren()[0] instanceof Limit);
+    plan.open();
+    count = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      count++;
+    }
+    assertEquals(4, count);
+    plan.close();
+
+    // a limit too large for the sort's memory budget sorts, then cuts
+    lp = parser.generateLogicalPlan(tid,
+        "SELECT * FROM " + name + " ORDER BY " + name + ".c0 LIMIT 2000000000;");
+    plan = lp.physicalPlan(tid, new HashMap<String, TableStats>(), false);
+    Operator limit = (Operator) ((Operator) plan).getChildren()[0];
+    assertTrue(limit instanceof Limit);
+    assertTrue(limit.getChildren()[0] instanceof OrderBy);
+    plan.open();
+    count = 0;
+    while (plan.hasNext()) {
+      plan.next();
+      count++;
+    }
+    assertEquals(200, count);
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A DELETE can't take a LIMIT, since nothing would apply it
+   */
+  @Test(expected = ParsingException.class) public void deleteRejectsLimit() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20, null,
+        new ArrayList<ArrayList<Integer>>(), "c");
+    String name = "topn" + SystemTestUtil.getUUID().replace("-", "");
+    Database.getCatalog().addTable(table, name);
+    Parser parser = new Parser();
+    String sql = parser.stripLimit("DELETE FROM " + name + " WHERE " + name + ".c0 > 0 LIMIT 3;");
+    ZStatement s = new ZqlParser(new ByteArrayInputStream(sql.getBytes())).readStatement();
+    parser.handleDeleteStatement((ZDelete) s, new TransactionId());
+  }
+
+  /**
+   * A huge limit doesn't allocate space for that many tuples up front
+   */
+  @Test public void hugeLimit() throws Exception {
+    TopN op = new TopN(0, true, 2000000000, TestUtil.createTupleList(2, data));
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(ROWS, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
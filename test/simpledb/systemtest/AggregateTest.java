@@ -9,6 +9,9 @@ import simpledb.*;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 public class AggregateTest extends SimpleDbTestBase {
     public void validateAggregate(DbFile table, Aggregator.Op operation, int aggregateColumn, int groupColumn, ArrayList<ArrayList<Integer>> expectedResult)
             throws DbException, TransactionAbortedException, IOException {
@@ -113,6 +116,39 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /** Groups that don't fit in the memory budget spill, with the same results. */
+    @Test public void testSpill() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> createdTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, ROWS, ROWS, null, createdTuples);
+
+        for (Aggregator.Op operation : new Aggregator.Op[] {
+                Aggregator.Op.SUM, Aggregator.Op.COUNT, Aggregator.Op.AVG}) {
+            ArrayList<ArrayList<Integer>> expected =
+                    aggregate(createdTuples, operation, 1, 0);
+
+            TransactionId tid = new TransactionId();
+            SeqScan ss = new SeqScan(tid, table.getId(), "");
+            // room for about 16 groups
+            Aggregate ag = new Aggregate(ss, 1, 0, operation, 1024);
+            SystemTestUtil.matchTuples(ag, expected);
+            assertTrue(ag.isSpilling());
+            assertTrue(ag.getSpillBytes() > 0);
+
+            // reopening and rewinding aggregate the spilled groups again
+            ag.open();
+            ag.rewind();
+            int count = 0;
+            while (ag.hasNext()) {
+                ag.next();
+                count++;
+            }
+            ag.close();
+            assertEquals(expected.size(), count);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -10,6 +10,11 @@ import org.junit.Test;
 public class InsertTest extends SimpleDbTestBase {
     private void validateInsert(int columns, int sourceRows, int destinationRows)
                 throws DbException, IOException, TransactionAbortedException {
+        validateInsert(columns, sourceRows, destinationRows, false);
+    }
+
+    private void validateInsert(int columns, int sourceRows, int destinationRows, boolean bulk)
+                throws DbException, IOException, TransactionAbortedException {
         // Create the two tables
         ArrayList<ArrayList<Integer>> sourceTuples = new ArrayList<ArrayList<Integer>>();
         HeapFile source = SystemTestUtil.createRandomHeapFile(
@@ -23,7 +28,7 @@ public class InsertTest extends SimpleDbTestBase {
         // Insert source into destination
         TransactionId tid = new TransactionId();
         SeqScan ss = new SeqScan(tid, source.getId(), "");
-        Insert insOp = new Insert(tid, ss, destination.getId());
+        Insert insOp = new Insert(tid, ss, destination.getId(), bulk);
 
 //        Query q = new Query(insOp, tid);
         insOp.open();
@@ -68,6 +73,37 @@ public class InsertTest extends SimpleDbTestBase {
         validateInsert(1, 1, 1);
     }
 
+    @Test public void testBulkOneToOne()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(1, 1, 1, true);
+    }
+
+    /** A bulk load that fills more than one extent. */
+    @Test public void testBulkManyPages()
+            throws IOException, DbException, TransactionAbortedException {
+        validateInsert(3, 30000, 10, true);
+    }
+
+    /** Aborting the transaction of a bulk load undoes it. */
+    @Test public void testBulkAbort()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile source = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        ArrayList<ArrayList<Integer>> destinationTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile destination = SystemTestUtil.createRandomHeapFile(
+                2, 10, null, destinationTuples);
+
+        Transaction t = new Transaction();
+        t.start();
+        Insert insOp = new Insert(t.getId(), new SeqScan(t.getId(), source.getId(), ""),
+                destination.getId(), true);
+        insOp.open();
+        assertEquals(1000, ((IntField) insOp.next().getField(0)).getValue());
+        insOp.close();
+        t.transactionComplete(true);
+
+        SystemTestUtil.matchTuples(destination, destinationTuples);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(InsertTest.class);
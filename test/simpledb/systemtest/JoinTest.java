@@ -4,6 +4,8 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
+import static org.junit.Assert.assertTrue;
+
 import org.junit.Test;
 
 import simpledb.*;
@@ -13,6 +15,12 @@ public class JoinTest extends SimpleDbTestBase {
     public void validateJoin(int table1ColumnValue, int table1Rows, int table2ColumnValue,
             int table2Rows)
             throws IOException, DbException, TransactionAbortedException {
+        validateJoin(table1ColumnValue, table1Rows, table2ColumnValue, table2Rows, false);
+    }
+
+    public void validateJoin(int table1ColumnValue, int table1Rows, int table2ColumnValue,
+            int table2Rows, boolean hash)
+            throws IOException, DbException, TransactionAbortedException {
         // Create the two tables
         HashMap<Integer, Integer> columnSpecification = new HashMap<Integer, Integer>();
         columnSpecification.put(0, table1ColumnValue);
@@ -45,7 +53,7 @@ public class JoinTest extends SimpleDbTestBase {
         SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
         SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
         JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
-        Join joinOp = new Join(p, ss1, ss2);
+        OpIterator joinOp = hash ? new HashJoin(p, ss1, ss2) : new Join(p, ss1, ss2);
 
         // test the join results
         SystemTestUtil.matchTuples(joinOp, expectedResults);
@@ -69,6 +77,95 @@ public class JoinTest extends SimpleDbTestBase {
         validateJoin(1, 3, 1, 3);
     }
 
+    @Test public void testHashMultipleMatch()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(1, 3, 1, 3, true);
+    }
+
+    @Test public void testHashNoMatch()
+            throws IOException, DbException, TransactionAbortedException {
+        validateJoin(1, 2, 2, 10, true);
+    }
+
+    /**
+     * A HashJoin whose inputs don't fit in its memory budget partitions them
+     * to disk and still finds every match.
+     */
+    @Test public void testHashSpill()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 3000, 500, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 2000, 500, null, t2Tuples);
+
+        ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t1 : t1Tuples) {
+            for (ArrayList<Integer> t2 : t2Tuples) {
+                if (t1.get(0).equals(t2.get(0))) {
+                    ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                    out.addAll(t2);
+                    expectedResults.add(out);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+        SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        HashJoin joinOp = new HashJoin(p, ss1, ss2, 4096);
+
+        SystemTestUtil.matchTuples(joinOp, expectedResults);
+        assertTrue(joinOp.isSpilling());
+        assertTrue(joinOp.getSpillBytes() > 0);
+
+        joinOp.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * SortMergeJoin returns the same results as a nested loops join, for
+     * equality and for each kind of band join.
+     */
+    @Test public void testSortMerge()
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table1 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 200, 50, null, t1Tuples);
+        ArrayList<ArrayList<Integer>> t2Tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile table2 = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 150, 50, null, t2Tuples);
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            ArrayList<ArrayList<Integer>> expectedResults = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t1 : t1Tuples) {
+                for (ArrayList<Integer> t2 : t2Tuples) {
+                    if (new IntField(t1.get(0)).compare(op, new IntField(t2.get(0)))) {
+                        ArrayList<Integer> out = new ArrayList<Integer>(t1);
+                        out.addAll(t2);
+                        expectedResults.add(out);
+                    }
+                }
+            }
+
+            TransactionId tid = new TransactionId();
+            SeqScan ss1 = new SeqScan(tid, table1.getId(), "");
+            SeqScan ss2 = new SeqScan(tid, table2.getId(), "");
+            JoinPredicate p = new JoinPredicate(0, op, 0);
+            OpIterator joinOp = new SortMergeJoin(p, ss1, ss2);
+
+            SystemTestUtil.matchTuples(joinOp, expectedResults);
+
+            joinOp.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(JoinTest.class);
@@ -104,6 +104,49 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /** Verifies that scanning a table larger than the buffer pool does not
+     * evict the pages of another table.
+     * @throws TransactionAbortedException
+     * @throws DbException */
+    @Test public void testBulkReadKeepsCache() throws IOException, DbException, TransactionAbortedException {
+        /** Counts the number of readPage operations. */
+        class InstrumentedHeapFile extends HeapFile {
+            public InstrumentedHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) throws NoSuchElementException {
+                readCount += 1;
+                return super.readPage(pid);
+            }
+
+            public int readCount = 0;
+        }
+
+        final int BUFFER_PAGES = 16;
+        Database.resetBufferPool(BUFFER_PAGES);
+
+        // a small table that fits in the pool comfortably
+        final int PAGES = 3;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992*PAGES, 1000, null, tuples);
+        InstrumentedHeapFile small = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(small, SystemTestUtil.getUUID());
+        SystemTestUtil.matchTuples(small, tuples);
+        assertEquals(PAGES, small.readCount);
+        small.readCount = 0;
+
+        // a table more than twice the size of the pool
+        ArrayList<ArrayList<Integer>> bigTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile big = SystemTestUtil.createRandomHeapFile(1, 992*BUFFER_PAGES*2 + 1, null, bigTuples);
+        SystemTestUtil.matchTuples(big, bigTuples);
+
+        // the small table should still be entirely cached
+        SystemTestUtil.matchTuples(small, tuples);
+        assertEquals(0, small.readCount);
+    }
+
     /** Verifies SeqScan's getTupleDesc prefixes the table name + "." to the field names
      * @throws TransactionAbortedException
      * @throws DbException